@@ -22,6 +22,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
 import java.util.List;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -38,6 +40,21 @@ public interface AbstractFile {
 	public abstract List<AbstractFile> getChildren() throws IOException,
 			PermissionDeniedException;
 
+	/**
+	 * Open a stream over the children of this directory. Unlike {@link #getChildren()}
+	 * implementations that support it create each child as the stream is iterated,
+	 * and do not read its attributes until they are asked for, so large directories
+	 * can be listed in constant memory. The caller must close the stream.
+	 * 
+	 * @return DirectoryStream
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	default DirectoryStream<AbstractFile> getChildStream() throws IOException,
+			PermissionDeniedException {
+		return AbstractFileChildStream.of(getChildren());
+	}
+
 	public abstract String getAbsolutePath() throws IOException, PermissionDeniedException;
 
 	public abstract boolean isDirectory() throws IOException, PermissionDeniedException;
@@ -89,4 +106,15 @@ public interface AbstractFile {
 	
 	AbstractFileFactory<? extends AbstractFile> getFileFactory();
 	
+	/**
+	 * Get the {@link Path} that backs this file, if any. Copies and moves between files
+	 * backed by paths from the same provider are performed by the file system rather
+	 * than by streaming the content.
+	 * 
+	 * @return the path or null if this file is not backed by a path
+	 */
+	default Path getLocalPath() {
+		return null;
+	}
+	
 }
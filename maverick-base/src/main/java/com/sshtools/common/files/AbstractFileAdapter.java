@@ -21,6 +21,8 @@ package com.sshtools.common.files;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
 import java.util.List;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -73,6 +75,10 @@ public class AbstractFileAdapter implements AbstractFile {
 		return file.getChildren();
 	}
 
+	public DirectoryStream<AbstractFile> getChildStream() throws IOException, PermissionDeniedException {
+		return file.getChildStream();
+	}
+
 	public boolean isFile() throws IOException, PermissionDeniedException {
 		return file.isFile();
 	}
@@ -157,4 +163,8 @@ public class AbstractFileAdapter implements AbstractFile {
 	public AbstractFileFactory<? extends AbstractFile> getFileFactory() {
 		return file.getFileFactory();
 	}
+
+	public Path getLocalPath() {
+		return file.getLocalPath();
+	}
 }
@@ -0,0 +1,114 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+/**
+ * A {@link DirectoryStream} of {@link AbstractFile} children that creates each
+ * child from an underlying source as it is iterated, so the caller only holds
+ * the current entry in memory. Failures creating a child are thrown as a
+ * {@link DirectoryIteratorException}.
+ *
+ * @param <T> the type of object provided by the underlying source
+ */
+public abstract class AbstractFileChildStream<T> implements DirectoryStream<AbstractFile> {
+
+	Iterator<T> source;
+	Closeable closeable;
+	boolean iterated;
+	
+	public AbstractFileChildStream(DirectoryStream<T> stream) {
+		this(stream.iterator(), stream);
+	}
+	
+	public AbstractFileChildStream(Iterator<T> source, Closeable closeable) {
+		this.source = source;
+		this.closeable = closeable;
+	}
+	
+	/**
+	 * Create the child file from an object provided by the underlying source. 
+	 * 
+	 * @param obj
+	 * @return AbstractFile
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	protected abstract AbstractFile toFile(T obj) throws IOException, PermissionDeniedException;
+	
+	@Override
+	public synchronized Iterator<AbstractFile> iterator() {
+		if(iterated) {
+			throw new IllegalStateException("Iterator has already been returned");
+		}
+		iterated = true;
+		return new Iterator<AbstractFile>() {
+
+			@Override
+			public boolean hasNext() {
+				return source.hasNext();
+			}
+
+			@Override
+			public AbstractFile next() {
+				if(!source.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					return toFile(source.next());
+				} catch (IOException e) {
+					throw new DirectoryIteratorException(e);
+				} catch (PermissionDeniedException e) {
+					throw new DirectoryIteratorException(new IOException(e.getMessage(), e));
+				}
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(closeable!=null) {
+			closeable.close();
+		}
+	}
+	
+	/**
+	 * Create a stream over a list of children that have already been read.
+	 * 
+	 * @param children
+	 * @return DirectoryStream
+	 */
+	public static DirectoryStream<AbstractFile> of(List<AbstractFile> children) {
+		return new AbstractFileChildStream<AbstractFile>(children.iterator(), null) {
+			@Override
+			protected AbstractFile toFile(AbstractFile obj) {
+				return obj;
+			}
+		};
+	}
+}
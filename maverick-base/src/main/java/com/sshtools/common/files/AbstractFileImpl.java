@@ -19,7 +19,6 @@
 package com.sshtools.common.files;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -34,14 +33,17 @@ public abstract class AbstractFileImpl<T extends AbstractFile> implements Abstra
 	
 	public void copyFrom(AbstractFile src) throws IOException, PermissionDeniedException {
 
+		if(FileOperations.copy(src, this)) {
+			return;
+		}
+		
 		if(src.isDirectory()) {
 			createFolder();
 			for(AbstractFile f : src.getChildren()) {
 				resolveFile(f.getName()).copyFrom(f);
 			}
 		} else if(src.isFile()) {
-			copy(src.getInputStream(),
-					getOutputStream());
+			FileOperations.copyContent(src, this);
 		} else {
 			throw new IOException("Cannot copy object that is not directory or a regular file");
 		}
@@ -50,14 +52,17 @@ public abstract class AbstractFileImpl<T extends AbstractFile> implements Abstra
 
 	public void moveTo(AbstractFile target) throws IOException, PermissionDeniedException {
 
+		if(FileOperations.move(this, target)) {
+			return;
+		}
+		
 		if(isDirectory()) {
 			target.createFolder();
 			for(AbstractFile f : getChildren()) {
-				target.resolveFile(f.getName()).copyFrom(f);
-				f.delete(false);
+				f.moveTo(target.resolveFile(f.getName()));
 			}
 		} else if(isFile()) {
-			copy(getInputStream(),target.getOutputStream());
+			FileOperations.copyContent(this, target);
 		} else {
 			throw new IOException("Cannot move object that is not directory or a regular file");
 		}
@@ -74,22 +79,6 @@ public abstract class AbstractFileImpl<T extends AbstractFile> implements Abstra
 		return new AppendOutputStream();
 	}
 
-	private void copy(InputStream in, OutputStream out) throws IOException {
-		
-		try {
-			byte[] buf = new byte[4096];
-			int r;
-			while((r = in.read(buf)) > -1) {
-				out.write(buf,0,r);
-			}
-		} catch(IOException ex) {
-			throw new IOException(ex.getMessage(), ex);
-		} finally {
-			out.close();
-			in.close();
-		}
-	}
-
     class AppendOutputStream extends OutputStream {
 
     	AbstractFileRandomAccess content;
@@ -19,6 +19,7 @@
 package com.sshtools.common.files;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface AbstractFileRandomAccess {
 	public int read(byte[] buf, int off, int len) throws IOException;
@@ -27,4 +28,68 @@ public interface AbstractFileRandomAccess {
 	public void seek(long position) throws IOException;
 	public void close() throws IOException;
 	public long getFilePointer() throws IOException;
+	
+	/**
+	 * Read into the buffer from the given position in the file without using or
+	 * changing the file pointer. Implementations that support positional I/O allow
+	 * concurrent reads and writes at different positions; this default emulates it by
+	 * seeking under a lock on this object.
+	 * 
+	 * @param position
+	 * @param dst
+	 * @return the number of bytes read, or -1 if the position is at or beyond the end of the file.
+	 * @throws IOException
+	 */
+	public default int read(long position, ByteBuffer dst) throws IOException {
+		synchronized(this) {
+			long pointer = getFilePointer();
+			try {
+				seek(position);
+				int r;
+				if(dst.hasArray()) {
+					r = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+					if(r > 0) {
+						dst.position(dst.position() + r);
+					}
+				} else {
+					byte[] tmp = new byte[dst.remaining()];
+					r = read(tmp, 0, tmp.length);
+					if(r > 0) {
+						dst.put(tmp, 0, r);
+					}
+				}
+				return r;
+			} finally {
+				seek(pointer);
+			}
+		}
+	}
+	
+	/**
+	 * Write the remaining contents of the buffer at the given position in the file
+	 * without using or changing the file pointer.
+	 * 
+	 * @param position
+	 * @param src
+	 * @throws IOException
+	 * @see #read(long, ByteBuffer)
+	 */
+	public default void write(long position, ByteBuffer src) throws IOException {
+		synchronized(this) {
+			long pointer = getFilePointer();
+			try {
+				seek(position);
+				if(src.hasArray()) {
+					write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+					src.position(src.limit());
+				} else {
+					byte[] tmp = new byte[src.remaining()];
+					src.get(tmp);
+					write(tmp, 0, tmp.length);
+				}
+			} finally {
+				seek(pointer);
+			}
+		}
+	}
 }
@@ -0,0 +1,263 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+/**
+ * Tracks the disk space used beneath a root folder so that quota checks do not
+ * have to walk the folder each time. The usage is calculated once, then
+ * updated as files are written, truncated, deleted or replaced through a
+ * {@link SpaceRestrictedFileFactoryAdapter}, and periodically reconciled with
+ * the file system in the background to correct any drift from changes made
+ * elsewhere.
+ * <p>
+ * A tracker may be shared by the adapters of all connections for the same user,
+ * and can optionally persist a snapshot of the usage so that a new tracker does
+ * not need to walk the folder before its first quota check.
+ * </p>
+ */
+public class DiskUsageTracker {
+
+	AtomicLong usage = new AtomicLong();
+	AtomicLong reconcileDelta = new AtomicLong();
+	AtomicBoolean reconciling = new AtomicBoolean();
+	volatile boolean initialised;
+	volatile long lastReconciled;
+	long reconcileInterval = 600000L;
+	File snapshot;
+	ExecutorService executor;
+	
+	/**
+	 * Get the current usage, calculating it on first use. If the usage has not
+	 * been reconciled within the reconcile interval a reconciliation is started
+	 * in the background.
+	 * 
+	 * @param root
+	 * @return long
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public long getUsage(AbstractFile root) throws IOException, PermissionDeniedException {
+		
+		if(!initialised) {
+			synchronized(this) {
+				if(!initialised) {
+					if(!loadSnapshot()) {
+						reconcile(root);
+					}
+					initialised = true;
+				}
+			}
+		}
+		
+		if(reconcileInterval > 0 
+				&& System.currentTimeMillis() - lastReconciled > reconcileInterval) {
+			reconcileInBackground(root);
+		}
+		
+		return usage.get();
+	}
+	
+	/**
+	 * Adjust the usage by a number of bytes, which is negative when space is
+	 * released.
+	 * 
+	 * @param bytes
+	 */
+	public void add(long bytes) {
+		usage.addAndGet(bytes);
+		if(reconciling.get()) {
+			reconcileDelta.addAndGet(bytes);
+		}
+	}
+	
+	/**
+	 * Recalculate the usage from the file system. Changes made through the
+	 * tracker while the walk is in progress are applied on top of the result.
+	 * 
+	 * @param root
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void reconcile(AbstractFile root) throws IOException, PermissionDeniedException {
+		
+		if(!reconciling.compareAndSet(false, true)) {
+			return;
+		}
+		
+		try {
+			reconcileDelta.set(0);
+			long size = calculateSize(root);
+			usage.set(size + reconcileDelta.get());
+			lastReconciled = System.currentTimeMillis();
+			initialised = true;
+			
+			if(Log.isDebugEnabled()) {
+				Log.debug("Reconciled disk usage of {} to {} bytes", root.getAbsolutePath(), usage.get());
+			}
+			
+			saveSnapshot();
+		} finally {
+			reconciling.set(false);
+		}
+	}
+	
+	void reconcileInBackground(final AbstractFile root) {
+		
+		if(reconciling.get()) {
+			return;
+		}
+		
+		// Prevent further attempts until this one completes or fails
+		lastReconciled = System.currentTimeMillis();
+		
+		Runnable r = new Runnable() {
+			public void run() {
+				try {
+					reconcile(root);
+				} catch (IOException | PermissionDeniedException e) {
+					Log.error("Failed to reconcile disk usage", e);
+				}
+			}
+		};
+		
+		if(executor != null) {
+			executor.submit(r);
+		} else {
+			Thread t = new Thread(r, "DiskUsageReconcile");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Calculate the size of a file, or of all the files beneath a folder.
+	 * 
+	 * @param file
+	 * @return long
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public static long calculateSize(AbstractFile file) throws IOException, PermissionDeniedException {
+		
+		if(!file.isDirectory()) {
+			return file.exists() ? file.length() : 0;
+		}
+		
+		long size = 0;
+		try(DirectoryStream<AbstractFile> children = file.getChildStream()) {
+			for(AbstractFile child : children) {
+				size += calculateSize(child);
+			}
+		} catch(DirectoryIteratorException e) {
+			throw e.getCause();
+		}
+		return size;
+	}
+	
+	boolean loadSnapshot() {
+		
+		if(snapshot == null || !snapshot.exists()) {
+			return false;
+		}
+		
+		try {
+			String value = new String(Files.readAllBytes(snapshot.toPath()), StandardCharsets.UTF_8).trim();
+			usage.set(Long.parseLong(value));
+			lastReconciled = snapshot.lastModified();
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			Log.error("Failed to load disk usage snapshot from {}", e, snapshot.getAbsolutePath());
+			return false;
+		}
+	}
+	
+	/**
+	 * Write the current usage to the snapshot file, if one has been configured.
+	 */
+	public void saveSnapshot() {
+		
+		if(snapshot == null) {
+			return;
+		}
+		
+		try {
+			File tmp = new File(snapshot.getAbsolutePath() + ".tmp");
+			Files.write(tmp.toPath(), String.valueOf(usage.get()).getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Log.error("Failed to save disk usage snapshot to {}", e, snapshot.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * The interval in milliseconds after which the usage is reconciled with the
+	 * file system in the background. A value of zero or less disables reconciliation.
+	 * 
+	 * @return long
+	 */
+	public long getReconcileInterval() {
+		return reconcileInterval;
+	}
+
+	public void setReconcileInterval(long reconcileInterval) {
+		this.reconcileInterval = reconcileInterval;
+	}
+
+	/**
+	 * A file in which to persist the usage. If the file exists when the usage is
+	 * first required it is used instead of walking the folder.
+	 * 
+	 * @return File
+	 */
+	public File getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(File snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * The executor on which background reconciliation runs. If not set a 
+	 * daemon thread is started for each reconciliation.
+	 * 
+	 * @return ExecutorService
+	 */
+	public ExecutorService getExecutorService() {
+		return executor;
+	}
+
+	public void setExecutorService(ExecutorService executor) {
+		this.executor = executor;
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+/**
+ * Copy and move operations between {@link AbstractFile}s that are offloaded to
+ * the file system where both files are backed by a {@link Path} from the same
+ * provider, and otherwise copy the content with large buffers, in parallel when
+ * both files support random access.
+ */
+public final class FileOperations {
+
+	static final int BUFFER_SIZE = Integer.getInteger("maverick.copyBufferSize", 262144);
+	static final int PARALLEL_THREADS = Integer.getInteger("maverick.parallelCopyThreads", 4);
+	static final long PARALLEL_THRESHOLD = Long.getLong("maverick.parallelCopyThreshold", 67108864L);
+	static final long PARALLEL_CHUNK_SIZE = Long.getLong("maverick.parallelCopyChunkSize", 16777216L);
+	static final int PARALLEL_POOL_SIZE = Integer.getInteger("maverick.parallelCopyPoolSize", PARALLEL_THREADS * 2);
+	
+	static ExecutorService executor;
+	
+	private FileOperations() {
+	}
+	
+	/**
+	 * The pool shared by all parallel copies. Its threads are released when idle.
+	 */
+	static synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLEL_POOL_SIZE, PARALLEL_POOL_SIZE, 
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "FileOperations-copy");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+	
+	/**
+	 * Copy a file or folder using the file system if both files share a provider.
+	 * 
+	 * @param src
+	 * @param target
+	 * @return true if the copy was performed, false if the caller must copy the content itself
+	 * @throws IOException
+	 */
+	public static boolean copy(AbstractFile src, AbstractFile target) throws IOException {
+		
+		final Path source = src.getLocalPath();
+		final Path destination = target.getLocalPath();
+		
+		if(!isSameProvider(source, destination)) {
+			return false;
+		}
+		
+		if(!Files.isDirectory(source)) {
+			Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, destination.resolve(source.relativize(file).toString()), 
+						StandardCopyOption.REPLACE_EXISTING);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Move a file or folder using the file system if both files share a provider.
+	 * This is an atomic rename where the files are on the same file store.
+	 * 
+	 * @param src
+	 * @param target
+	 * @return true if the move was performed, false if the caller must copy and delete
+	 * @throws IOException
+	 */
+	public static boolean move(AbstractFile src, AbstractFile target) throws IOException {
+		
+		Path source = src.getLocalPath();
+		Path destination = target.getLocalPath();
+		
+		if(!isSameProvider(source, destination)) {
+			return false;
+		}
+		
+		try {
+			Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE);
+		} catch(AtomicMoveNotSupportedException e) {
+			if(Files.isDirectory(source)) {
+				// Different file stores, a non-empty directory cannot be moved in one operation
+				return false;
+			}
+			Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return true;
+	}
+	
+	/**
+	 * Copy the content of one file to another, replacing the target's content. 
+	 * 
+	 * @param src
+	 * @param target
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public static void copyContent(AbstractFile src, AbstractFile target) throws IOException, PermissionDeniedException {
+		
+		if(PARALLEL_THREADS > 1 && src.supportsRandomAccess() && target.supportsRandomAccess()) {
+			long length = src.length();
+			if(length >= PARALLEL_THRESHOLD) {
+				parallelCopy(src, target, length);
+				return;
+			}
+		}
+		
+		InputStream in = src.getInputStream();
+		try {
+			OutputStream out = target.getOutputStream();
+			try {
+				byte[] buf = new byte[BUFFER_SIZE];
+				int r;
+				while((r = in.read(buf)) > -1) {
+					out.write(buf, 0, r);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	static void parallelCopy(AbstractFile src, AbstractFile target, final long length) throws IOException, PermissionDeniedException {
+		
+		if(!target.exists()) {
+			target.createNewFile();
+		}
+		
+		final AbstractFileRandomAccess in = src.openFile(false);
+		try {
+			final AbstractFileRandomAccess out = target.openFile(true);
+			try {
+				out.setLength(length);
+				
+				final AtomicLong nextChunk = new AtomicLong();
+				final AtomicBoolean failed = new AtomicBoolean();
+				long chunks = (length + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+				int threads = (int) Math.min(PARALLEL_THREADS, chunks);
+				ExecutorService executor = getExecutor();
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				try {
+					for(int i = 0; i < threads; i++) {
+						results.add(executor.submit(new Callable<Void>() {
+							public Void call() throws IOException {
+								ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+								long start;
+								while(!failed.get() && (start = nextChunk.getAndIncrement() * PARALLEL_CHUNK_SIZE) < length) {
+									long end = Math.min(length, start + PARALLEL_CHUNK_SIZE);
+									long position = start;
+									while(position < end && !failed.get()) {
+										buf.clear();
+										buf.limit((int) Math.min(buf.capacity(), end - position));
+										int r = in.read(position, buf);
+										if(r <= 0) {
+											throw new IOException("Unexpected end of file at position " + position);
+										}
+										buf.flip();
+										out.write(position, buf);
+										position += r;
+									}
+								}
+								return null;
+							}
+						}));
+					}
+					
+					for(Future<Void> result : results) {
+						result.get();
+					}
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted during copy", e);
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause().getMessage(), e.getCause());
+				} finally {
+					// Stop any remaining workers and wait for them before the files are closed
+					failed.set(true);
+					for(Future<Void> result : results) {
+						try {
+							result.get();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} catch (ExecutionException e) {
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	static boolean isSameProvider(Path source, Path destination) {
+		return source != null && destination != null 
+				&& source.getFileSystem().provider() == destination.getFileSystem().provider();
+	}
+}
@@ -21,6 +21,8 @@ package com.sshtools.common.files;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class RandomAccessImpl implements AbstractFileRandomAccess {
 	
@@ -58,4 +60,15 @@ public class RandomAccessImpl implements AbstractFileRandomAccess {
 	public long getFilePointer() throws IOException {
 		return raf.getFilePointer();
 	}
+	
+	public int read(long position, ByteBuffer dst) throws IOException {
+		return raf.getChannel().read(dst, position);
+	}
+	
+	public void write(long position, ByteBuffer src) throws IOException {
+		FileChannel channel = raf.getChannel();
+		while(src.hasRemaining()) {
+			position += channel.write(src, position);
+		}
+	}
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package com.sshtools.common.files;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.files.ReadOnlyFileFactoryAdapter.ReadOnlyAbstractFile;
@@ -57,5 +58,13 @@ public class ReadOnlyFileFactoryAdapter implements AbstractFileFactory<ReadOnlyA
 		public ReadOnlyAbstractFile(AbstractFile file) {
 			super(file);
 		}
+		
+		/**
+		 * Hide the path so that copies and moves cannot bypass the adapter through the file system.
+		 */
+		@Override
+		public Path getLocalPath() {
+			return null;
+		}
 	}
 }
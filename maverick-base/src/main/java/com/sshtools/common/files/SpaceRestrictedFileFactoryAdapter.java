@@ -20,6 +20,7 @@ package com.sshtools.common.files;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.files.SpaceRestrictedFileFactoryAdapter.SpaceRestrictedAbstractFile;
@@ -32,10 +33,24 @@ public class SpaceRestrictedFileFactoryAdapter implements AbstractFileFactory<Sp
 
 	AbstractFileFactory<?> fileFactory;
 	long maximumSize;
+	DiskUsageTracker tracker;
 	
 	public SpaceRestrictedFileFactoryAdapter(AbstractFileFactory<?> fileFactory, long maximumSize) {
+		this(fileFactory, maximumSize, new DiskUsageTracker());
+	}
+	
+	/**
+	 * Create an adapter that records usage in a tracker, which may be shared with the
+	 * adapters of other connections for the same user.
+	 * 
+	 * @param fileFactory
+	 * @param maximumSize
+	 * @param tracker
+	 */
+	public SpaceRestrictedFileFactoryAdapter(AbstractFileFactory<?> fileFactory, long maximumSize, DiskUsageTracker tracker) {
 		this.fileFactory = fileFactory;
 		this.maximumSize = maximumSize;
+		this.tracker = tracker;
 	}
 	
 	@Override
@@ -53,18 +68,12 @@ public class SpaceRestrictedFileFactoryAdapter implements AbstractFileFactory<Sp
 		return new SpaceRestrictedAbstractFile(fileFactory.getDefaultPath());
 	}
 	
-	long getCurrentSize(AbstractFile file) throws IOException, PermissionDeniedException {
-		
-		long size = 0;
-		if(file.isDirectory()) {
-			for(AbstractFile dir : file.getChildren()) {
-				size += getCurrentSize(dir);
-			}
-		} else {
-			return file.length();
-		}
-		
-		return size;
+	public DiskUsageTracker getTracker() {
+		return tracker;
+	}
+	
+	long getCurrentSize() throws IOException, PermissionDeniedException {
+		return tracker.getUsage(fileFactory.getDefaultPath());
 	}
 	
 	class SpaceRestrictedAbstractFile extends AbstractFileAdapter {
@@ -77,61 +86,132 @@ public class SpaceRestrictedFileFactoryAdapter implements AbstractFileFactory<Sp
 			return false;
 		}
 		
+		/**
+		 * The file system must not copy or move data into this file behind the quota's back.
+		 */
+		@Override
+		public Path getLocalPath() {
+			return null;
+		}
+		
+		DiskUsageTracker getUsageTracker() {
+			return tracker;
+		}
+		
+		private boolean isSameQuota(AbstractFile other) {
+			return other instanceof SpaceRestrictedAbstractFile 
+					&& ((SpaceRestrictedAbstractFile) other).getUsageTracker() == tracker;
+		}
+		
 		@Override
 		public OutputStream getOutputStream() throws IOException, PermissionDeniedException {
-			return new RestrictedSizeOutputStream(super.getOutputStream(), 
-					maximumSize - getCurrentSize(getDefaultPath()));
+			checkQuota();
+			long existing = file.isFile() ? length() : 0;
+			OutputStream out = super.getOutputStream();
+			tracker.add(-existing);
+			return new RestrictedSizeOutputStream(out);
 		}
 
 		@Override
 		public OutputStream getOutputStream(boolean append) throws IOException, PermissionDeniedException {
-			return new RestrictedSizeOutputStream(super.getOutputStream(append), 
-					maximumSize - getCurrentSize(getDefaultPath()) - (append ? length() : 0));
-		}		
+			if(!append) {
+				return getOutputStream();
+			}
+			checkQuota();
+			return new RestrictedSizeOutputStream(super.getOutputStream(append));
+		}
+		
+		@Override
+		public void truncate() throws PermissionDeniedException, IOException {
+			long existing = file.isFile() ? length() : 0;
+			super.truncate();
+			tracker.add(-existing);
+		}
+		
+		@Override
+		public boolean delete(boolean recursive) throws IOException, PermissionDeniedException {
+			long existing = DiskUsageTracker.calculateSize(file);
+			boolean deleted = super.delete(recursive);
+			if(deleted) {
+				tracker.add(-existing);
+			}
+			return deleted;
+		}
+		
+		@Override
+		public void moveTo(AbstractFile target) throws IOException, PermissionDeniedException {
+			if(isSameQuota(target)) {
+				// Usage is unchanged apart from any file replaced, so let the file system rename it
+				long replaced = target.isFile() ? target.length() : 0;
+				file.moveTo(((SpaceRestrictedAbstractFile) target).file);
+				tracker.add(-replaced);
+			} else {
+				long moved = DiskUsageTracker.calculateSize(file);
+				super.moveTo(target);
+				tracker.add(-moved);
+			}
+		}
+		
+		@Override
+		public void copyFrom(AbstractFile src) throws IOException, PermissionDeniedException {
+			checkQuota();
+			long existing = DiskUsageTracker.calculateSize(file);
+			file.copyFrom(src instanceof SpaceRestrictedAbstractFile ? ((SpaceRestrictedAbstractFile) src).file : src);
+			tracker.add(DiskUsageTracker.calculateSize(file) - existing);
+		}
+		
+		void checkQuota() throws IOException, PermissionDeniedException {
+			if(maximumSize > 0 && getCurrentSize() >= maximumSize) {
+				throw new SftpStatusEventException(SftpStatusException.SSH_FX_QUOTA_EXCEEDED,
+						"Out of quota disk space [" + IOUtils.toByteSize(maximumSize) + "]");
+			}
+		}
 	}
 	
 	
-	static class RestrictedSizeOutputStream extends OutputStream {
+	class RestrictedSizeOutputStream extends OutputStream {
 
-		long restrictedSize;
-		long bytesWritten = 0;
 		OutputStream out;
-		RestrictedSizeOutputStream(OutputStream out, long restrictedSize) {
+		RestrictedSizeOutputStream(OutputStream out) {
 			this.out = out;
-			this.restrictedSize = restrictedSize;
 		}
 
 		@Override
 		public void write(byte[] b, int off, int len) throws IOException {
 			
-			
-			if(restrictedSize > 0) {
-				if(bytesWritten + len > restrictedSize) {
-					throw new SftpStatusEventException(SftpStatusException.SSH_FX_QUOTA_EXCEEDED,
-							"Out of quota disk space [" + IOUtils.toByteSize(restrictedSize) + "]");
-				}
-			}
+			checkQuota(len);
 			out.write(b, off, len);
-			bytesWritten+=len;
+			tracker.add(len);
 		}
 		
 		@Override
 		public void write(int b) throws IOException {
 			
-			if(restrictedSize > 0) {
-				if(bytesWritten + 1 > restrictedSize) {
-					throw new SftpStatusEventException(SftpStatusException.SSH_FX_QUOTA_EXCEEDED,
-							"Out of quota disk space [" + IOUtils.toByteSize(restrictedSize) + "]");
+			checkQuota(1);
+			out.write(b);
+			tracker.add(1);
+		}
+		
+		void checkQuota(int len) throws IOException {
+			if(maximumSize > 0) {
+				try {
+					if(getCurrentSize() + len > maximumSize) {
+						throw new SftpStatusEventException(SftpStatusException.SSH_FX_QUOTA_EXCEEDED,
+								"Out of quota disk space [" + IOUtils.toByteSize(maximumSize) + "]");
+					}
+				} catch (PermissionDeniedException e) {
+					throw new IOException(e.getMessage(), e);
 				}
 			}
-			
-			out.write(b);
-			++bytesWritten;
 		}
 		
+		public void flush() throws IOException {
+			out.flush();
+		}
 		
 		public void close() throws IOException {
 			out.close();
+			tracker.saveSnapshot();
 		}
 		
 		
@@ -24,9 +24,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Objects;
 
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileChildStream;
 import com.sshtools.common.files.AbstractFileFactory;
 import com.sshtools.common.files.AbstractFileImpl;
 import com.sshtools.common.files.AbstractFileRandomAccess;
@@ -53,6 +57,21 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 		
 		hidden = f.getName().startsWith(".");
 	}
+	
+	/**
+	 * Create a file for an entry returned by a directory listing. The attributes
+	 * are not read until they are asked for.
+	 * 
+	 * @param f
+	 * @param fileFactory
+	 * @param homeDir
+	 */
+	protected AbstractDirectFile(File f, AbstractFileFactory<T> fileFactory, File homeDir) {
+		super(fileFactory);
+		this.homeDir = homeDir;
+		this.f = f;
+		hidden = f.getName().startsWith(".");
+	}
 
 	
 	public boolean exists() {
@@ -77,6 +96,27 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 
 	public abstract SftpFileAttributes getAttributes() throws IOException;
 
+	public DirectoryStream<AbstractFile> getChildStream() throws IOException {
+		return new AbstractFileChildStream<Path>(Files.newDirectoryStream(f.toPath())) {
+			@Override
+			protected AbstractFile toFile(Path path) throws IOException, PermissionDeniedException {
+				return createChild(path.toFile());
+			}
+		};
+	}
+	
+	/**
+	 * Create a child of this directory for an entry returned by {@link #getChildStream()}.
+	 * 
+	 * @param child
+	 * @return AbstractFile
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	protected AbstractFile createChild(File child) throws IOException, PermissionDeniedException {
+		return resolveFile(child.getName());
+	}
+
 	public boolean isDirectory() {
 		return f.isDirectory();
 	}
@@ -118,10 +158,6 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 		return f.delete();
 	}
 
-	public void moveTo(AbstractFile f2) throws IOException, PermissionDeniedException {
-		f.renameTo(new File(f2.getAbsolutePath()));
-	}
-
 	public void setAttributes(SftpFileAttributes attrs) {
 		
 		if(attrs.hasModifiedTime()) {
@@ -134,6 +170,10 @@ public abstract class AbstractDirectFile<T extends AbstractDirectFile<T>> extend
 		return f.getCanonicalPath();
 	}
 
+	public Path getLocalPath() {
+		return f.toPath();
+	}
+
 	public boolean supportsRandomAccess() {
 		return true;
 	}
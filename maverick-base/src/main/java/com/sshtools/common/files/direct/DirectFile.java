@@ -35,6 +35,10 @@ public class DirectFile extends AbstractDirectFile<DirectFile> {
 	public DirectFile(String path, AbstractFileFactory<DirectFile> fileFactory, File homeDir) throws IOException {
 		super(path, fileFactory, homeDir);
 	}
+	
+	protected DirectFile(File f, AbstractFileFactory<DirectFile> fileFactory, File homeDir) {
+		super(f, fileFactory, homeDir);
+	}
 
 	public SftpFileAttributes getAttributes() throws IOException {
 		
@@ -79,6 +83,10 @@ public class DirectFile extends AbstractDirectFile<DirectFile> {
 		return results;
 	}
 
+	protected AbstractFile createChild(File child) {
+		return new DirectFile(child, fileFactory, homeDir);
+	}
+
 	public AbstractFile resolveFile(String child) throws IOException,
 			PermissionDeniedException {
 		File file = new File(child);
@@ -21,8 +21,8 @@ package com.sshtools.common.files.direct;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.DosFileAttributes;
@@ -42,16 +42,30 @@ public class DirectFileJava7 extends DirectFile {
 	public DirectFileJava7(String path, AbstractFileFactory<DirectFile> fileFactory, File homeDir) throws IOException {
 		super(path, fileFactory, homeDir);
 	}
+	
+	protected DirectFileJava7(File f, AbstractFileFactory<DirectFile> fileFactory, File homeDir) {
+		super(f, fileFactory, homeDir);
+	}
 
 	public SftpFileAttributes getAttributes() throws IOException {
 		
-		if(!f.exists())
-			throw new FileNotFoundException();
+		Path file = f.toPath();
 		
+		// Read the POSIX attributes in a single call where supported as they
+		// include the basic attributes, otherwise fall back to the basic view
+		BasicFileAttributes attr;
+		PosixFileAttributes posix = null;
+		try {
+			posix = Files.readAttributes(file, PosixFileAttributes.class);
+			attr = posix;
+		} catch (UnsupportedOperationException | IOException e) {
+			try {
+				attr = Files.readAttributes(file, BasicFileAttributes.class);
+			} catch(NoSuchFileException ex) {
+				throw new FileNotFoundException();
+			}
+		}
 		
-		Path file = FileSystems.getDefault().getPath(f.getAbsolutePath());
-		
-		BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
 		SftpFileAttributes attrs = new SftpFileAttributes(getFileType(attr), "UTF-8");
 		
 		try {
@@ -61,9 +75,7 @@ public class DirectFileJava7 extends DirectFile {
 			
 			attrs.setSize(new UnsignedInteger64(attr.size()));
 
-			try {
-				PosixFileAttributes posix =  Files.readAttributes(file, PosixFileAttributes.class);
-				
+			if(posix!=null) {
 				attrs.setGID(posix.group().getName());
 				attrs.setUID(posix.owner().getName());
 				
@@ -73,10 +85,7 @@ public class DirectFileJava7 extends DirectFile {
 
 				// We return now as we have enough information
 				return attrs;
-				
-			} catch (UnsupportedOperationException | IOException e) {
 			}
-
 			
 			try {
 				DosFileAttributes dos = Files.readAttributes(file,
@@ -127,6 +136,10 @@ public class DirectFileJava7 extends DirectFile {
 		return files2;
 	}
 
+	protected AbstractFile createChild(File child) {
+		return new DirectFileJava7(child, fileFactory, homeDir);
+	}
+
 	public AbstractFile resolveFile(String child) throws IOException,
 			PermissionDeniedException {
 		return new DirectFileJava7(new File(f, child).getAbsolutePath(), fileFactory, homeDir);
@@ -45,6 +45,7 @@ public class FileSystemPolicy extends Permissions {
 	boolean scpReadWriteEvents = false;
 	int maxConcurrentTransfers = 50;
 	int maximumSftpRequests = 10;
+	int maximumConcurrentSftpOperations = 1;
 	String sftpLongnameDateFormat = "MMM dd  yyyy";
 	String sftpLongnameDateFormatWithTime = "MMM dd HH:mm";
 	List<SftpExtensionFactory> sftpExtensionFactories = new ArrayList<SftpExtensionFactory>();
@@ -168,6 +169,25 @@ public class FileSystemPolicy extends Permissions {
 		this.maximumSftpRequests = maximumSftpRequests;
 	}
 
+	/**
+	 * Get the maximum number of SFTP operations a single session may run concurrently.
+	 * @return int
+	 */
+	public int getMaximumConcurrentSFTPOperations() {
+		return maximumConcurrentSftpOperations;
+	}
+
+	/**
+	 * Set the maximum number of SFTP operations a single session may run concurrently. The
+	 * default of 1 processes every request in order on a single queue. Higher values allow
+	 * requests on different file handles to be processed concurrently on the connection's
+	 * executor, up to a limit of 32.
+	 * @param maximumConcurrentSftpOperations
+	 */
+	public void setMaximumConcurrentSFTPOperations(int maximumConcurrentSftpOperations) {
+		this.maximumConcurrentSftpOperations = maximumConcurrentSftpOperations;
+	}
+
 	public String getSFTPLongnameDateFormat() {
 		return sftpLongnameDateFormat; //"MMM dd yyyy";
 	}
@@ -25,14 +25,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.events.Event;
@@ -262,43 +266,64 @@ public final class AbstractFileSystem {
 	public SftpFile[] readDirectory(byte[] handle)
 			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
 
-		String shandle = getHandle(handle);
-
-		if (openDirectories.containsKey(shandle)) {
-			OpenDirectory dir = openDirectories.get(shandle);
-
-			if (Log.isDebugEnabled())
-				Log.debug("Read directory for " + dir.getFile().getAbsolutePath());
-
-			int pos = dir.getPosition();
-			AbstractFile[] children = dir.getChildren();
-			
-			if (dir.children == null) {
-				throw new IOException("Permission denined.");
+		final List<SftpFile> files = new ArrayList<SftpFile>();
+		readDirectory(handle, new SftpFileConsumer() {
+			public boolean accept(SftpFile file) {
+				if(files.size() >= 100) {
+					return false;
+				}
+				files.add(file);
+				return true;
 			}
+		});
+		
+		return files.toArray(new SftpFile[0]);
+	}
+	
+	/**
+	 * Read the next entries of an open directory, passing each to the consumer
+	 * until it refuses one or the directory has no more entries. A refused entry
+	 * is returned first by the next read, so the consumer must accept the first
+	 * entry of each read.
+	 * 
+	 * @param handle
+	 * @param consumer
+	 * @throws InvalidHandleException
+	 * @throws EOFException if the directory has no more entries
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 */
+	public void readDirectory(byte[] handle, SftpFileConsumer consumer)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
 
-			Vector<SftpFile> files = new Vector<SftpFile>();
-			while(files.size() < 100 && pos < children.length) {
-				AbstractFile f = children[pos++];
-				if(dir.getFilter()==null || dir.getFilter().matches(f.getName())) {
-					SftpFile sftpfile = new SftpFile(f.getName(), f.getAttributes());
-					files.add(sftpfile);
+		String shandle = getHandle(handle);
+		OpenDirectory dir = openDirectories.get(shandle);
+		
+		if (dir == null) {
+			throw new InvalidHandleException("Handle is not an open directory");
+		}
+		
+		if (Log.isDebugEnabled())
+			Log.debug("Read directory for " + dir.getFile().getAbsolutePath());
+
+		synchronized(dir) {
+			int count = 0;
+			SftpFile file;
+			while((file = dir.next()) != null) {
+				if(!consumer.accept(file)) {
+					dir.pending = file;
+					break;
 				}
+				count++;
 			}
 			
-			dir.readpos = pos;
-			
-			if(files.size() > 0) {
-				SftpFile[] sf = new SftpFile[files.size()];
-				files.copyInto(sf);
-				return sf;
-			} else {
+			if(count == 0) {
+				if(dir.pending != null) {
+					throw new IOException("The directory entry " + dir.pending.getFilename() + " was not accepted");
+				}
 				throw new EOFException("There are no more files");
 			}
 		}
-
-		throw new InvalidHandleException("Handle is not an open directory");
-
 	}
 
 	public byte[] openFile(String path, UnsignedInteger32 flags, SftpFileAttributes attrs)
@@ -360,6 +385,18 @@ public final class AbstractFileSystem {
 		return handle;
 	}
 
+	/**
+	 * Determines whether the handle is an open file that is accessed at explicit positions, 
+	 * allowing reads on the handle to be processed concurrently.
+	 * 
+	 * @param handle
+	 * @return boolean
+	 */
+	public boolean isPositionalHandle(byte[] handle) {
+		OpenFile file = openFiles.get(getHandle(handle));
+		return file != null && file.isPositional();
+	}
+
 	public int readFile(byte[] handle, UnsignedInteger64 offset, byte[] buf, int start, int numBytesToRead)
 			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
 		String shandle = getHandle(handle);
@@ -369,6 +406,10 @@ public final class AbstractFileSystem {
 
 			if ((file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ) {
 
+				if (file.isPositional()) {
+					return file.read(offset.longValue(), buf, start, numBytesToRead);
+				}
+				
 				if (!file.isTextMode() && file.getFilePointer() != offset.longValue()) {
 					file.seek(offset.longValue());
 				}
@@ -386,6 +427,43 @@ public final class AbstractFileSystem {
 		throw new InvalidHandleException("The handle is invalid 2");
 	}
 
+	/**
+	 * Read from an open file into a buffer, which may be direct. Files opened for
+	 * positional access are read straight into the buffer at the given offset; otherwise
+	 * the read falls back to {@link #readFile(byte[], UnsignedInteger64, byte[], int, int)}.
+	 * On return the buffer's position has been advanced by the number of bytes read.
+	 * 
+	 * @param handle
+	 * @param offset
+	 * @param dst
+	 * @return the number of bytes read, or -1 at the end of the file
+	 */
+	public int readFile(byte[] handle, UnsignedInteger64 offset, ByteBuffer dst)
+			throws InvalidHandleException, EOFException, IOException, PermissionDeniedException {
+		String shandle = getHandle(handle);
+		OpenFile file = openFiles.get(shandle);
+		
+		if (file != null && file.isPositional() 
+				&& (file.getFlags().longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ) {
+			return file.read(offset.longValue(), dst);
+		}
+		
+		int read;
+		if(dst.hasArray()) {
+			read = readFile(handle, offset, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if(read > 0) {
+				dst.position(dst.position() + read);
+			}
+		} else {
+			byte[] tmp = new byte[dst.remaining()];
+			read = readFile(handle, offset, tmp, 0, tmp.length);
+			if(read > 0) {
+				dst.put(tmp, 0, read);
+			}
+		}
+		return read;
+	}
+
 	public void writeFile(byte[] handle, UnsignedInteger64 offset, byte[] data, int off, int len)
 			throws InvalidHandleException, IOException, PermissionDeniedException {
 		String shandle = getHandle(handle);
@@ -399,6 +477,9 @@ public final class AbstractFileSystem {
 					// Force the data to be written to the end of the file
 					// by seeking to the end
 					file.seek(file.getFile().length());
+				} else if (file.isPositional()) {
+					file.write(offset.longValue(), data, off, len);
+					return;
 				} else if (!file.isTextMode() && file.getFilePointer() != offset.longValue()) {
 					// Move the file pointer if its not in the write place
 					file.seek(offset.longValue());
@@ -426,6 +507,7 @@ public final class AbstractFileSystem {
 		
 		OpenDirectory dir = openDirectories.get(handle);
 		if(dir!=null) {
+			dir.close();
 			openDirectories.remove(handle);
 		} else {
 			OpenFile file = openFiles.get(handle);
@@ -638,6 +720,36 @@ public final class AbstractFileSystem {
 			return textMode;
 		}
 
+		/**
+		 * Determines whether the file is read and written at explicit positions, 
+		 * rather than through a shared file pointer.
+		 * 
+		 * @return boolean
+		 */
+		public boolean isPositional() {
+			return raf != null && !textMode;
+		}
+
+		public int read(long position, byte[] buf, int off, int len) throws IOException {
+			return read(position, ByteBuffer.wrap(buf, off, len));
+		}
+
+		public int read(long position, ByteBuffer dst) throws IOException {
+			AbstractFileRandomAccess raf = this.raf;
+			if(closed || raf == null) {
+				return -1;
+			}
+			return raf.read(position, dst);
+		}
+
+		public void write(long position, byte[] buf, int off, int len) throws IOException {
+			AbstractFileRandomAccess raf = this.raf;
+			if(closed || raf == null) {
+				throw new IOException("File has been closed.");
+			}
+			raf.write(position, ByteBuffer.wrap(buf, off, len));
+		}
+
 		public void close() throws IOException {
 			if (in != null) {
 				try {
@@ -754,24 +866,57 @@ public final class AbstractFileSystem {
 
 	protected class OpenDirectory {
 		AbstractFile f;
-		AbstractFile[] children;
+		DirectoryStream<AbstractFile> children;
+		Iterator<AbstractFile> iterator;
+		SftpFile pending;
 		int readpos = 0;
 		SftpFileFilter filter;
 
 		public OpenDirectory(AbstractFile f, SftpFileFilter filter) throws IOException, PermissionDeniedException {
 			this.f = f;
 			this.filter = filter;
-			this.children = f.getChildren().toArray(new AbstractFile[0]);
+			this.children = f.getChildStream();
+			this.iterator = children.iterator();
 		}
 
 		public AbstractFile getFile() {
 			return f;
 		}
 
-		public AbstractFile[] getChildren() throws IOException, PermissionDeniedException {
-			return children;
+		/**
+		 * Get the next entry of the directory that matches the filter, reading its
+		 * attributes. 
+		 * 
+		 * @return the next entry or null if there are no more
+		 * @throws IOException
+		 * @throws PermissionDeniedException
+		 */
+		public SftpFile next() throws IOException, PermissionDeniedException {
+			
+			if(pending != null) {
+				SftpFile file = pending;
+				pending = null;
+				return file;
+			}
+			
+			try {
+				while(iterator.hasNext()) {
+					AbstractFile f = iterator.next();
+					readpos++;
+					if(filter==null || filter.matches(f.getName())) {
+						try {
+							return new SftpFile(f.getName(), f.getAttributes());
+						} catch(FileNotFoundException e) {
+							// Removed since the directory was listed
+						}
+					}
+				}
+			} catch(DirectoryIteratorException e) {
+				throw e.getCause();
+			}
+			return null;
 		}
-
+		
 		public int getPosition() {
 			return readpos;
 		}
@@ -783,6 +928,10 @@ public final class AbstractFileSystem {
 		public void setPosition(int readpos) {
 			this.readpos = readpos;
 		}
+		
+		public void close() throws IOException {
+			children.close();
+		}
 	}
 
 	public void populateEvent(Event evt) {
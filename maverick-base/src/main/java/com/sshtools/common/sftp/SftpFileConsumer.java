@@ -0,0 +1,39 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.sftp;
+
+import java.io.IOException;
+
+/**
+ * Receives the entries of a directory as they are read by
+ * {@link AbstractFileSystem#readDirectory(byte[], SftpFileConsumer)}.
+ */
+public interface SftpFileConsumer {
+
+	/**
+	 * Accept the next entry of the directory. Return false if the entry cannot
+	 * be accepted, for example because the reply being built is full; the entry
+	 * is then returned first by the next read of the directory.
+	 * 
+	 * @param file
+	 * @return boolean
+	 * @throws IOException
+	 */
+	boolean accept(SftpFile file) throws IOException;
+}
@@ -23,11 +23,15 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -46,6 +50,7 @@ import com.sshtools.common.ssh.Channel;
 import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.Context;
+import com.sshtools.common.ssh.ExecutorOperationQueues;
 import com.sshtools.common.ssh.Packet;
 import com.sshtools.common.ssh.SessionChannel;
 import com.sshtools.common.ssh.SessionChannelHelper;
@@ -75,6 +80,20 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	int writeBlockSize = 4096;
 	
 	final static int SFTP_QUEUE = Integer.MAX_VALUE;
+	final static Integer[] SFTP_HANDLE_QUEUES = new Integer[32];
+	
+	static {
+		for(int i = 0; i < SFTP_HANDLE_QUEUES.length; i++) {
+			SFTP_HANDLE_QUEUES[i] = ExecutorOperationQueues.generateUniqueQueue("SftpSubsystem.handle" + i);
+		}
+	}
+	
+	int maximumConcurrentOperations = 1;
+	LinkedList<FileSystemOperation> deferredOperations = new LinkedList<FileSystemOperation>();
+	int runningOperations = 0;
+	boolean exclusiveOperationRunning = false;
+	Map<String,int[]> handleActivity = new HashMap<String,int[]>();
+	int readSequence = 0;
 
 	// maximum version of SFTP protocol supported
 	static final int MAX_VERSION = 4;
@@ -101,6 +120,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		
 		this.filePolicy = context.getPolicy(FileSystemPolicy.class);
 		this.con = session.getConnection();
+		this.maximumConcurrentOperations = Math.min(SFTP_HANDLE_QUEUES.length, 
+				filePolicy.getMaximumConcurrentSFTPOperations());
 		
 		// Check charset encoding
 		try {
@@ -119,7 +140,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			addWrapper((SftpOperationWrapper)ff);
 		}
 		
-		executeOperation(SFTP_QUEUE, new InitOperation());
+		submitOperation(new InitOperation());
 
 		// Add event listener
 		session.addEventListener(new ChannelEventListener() {
@@ -231,133 +252,133 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		case SSH_FXP_MKDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_MKDIR");
-			executeOperation(SFTP_QUEUE, new MakeDirectoryOperation(msg));
+			submitOperation(new MakeDirectoryOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_REALPATH: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_REALPATH");
-			executeOperation(SFTP_QUEUE, new RealPathOperation(msg));
+			submitOperation(new RealPathOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_OPENDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_OPENDIR");
-			executeOperation(SFTP_QUEUE, new OpenDirectoryOperation(msg));
+			submitOperation(new OpenDirectoryOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_OPEN: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_OPEN");
-			executeOperation(SFTP_QUEUE, new OpenFileOperation(msg));
+			submitOperation(new OpenFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_READ: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READ");
-			executeOperation(SFTP_QUEUE, new ReadFileOperation(msg));
+			submitOperation(new ReadFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_WRITE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_WRITE");
-			executeOperation(SFTP_QUEUE, new WriteFileOperation(msg));
+			submitOperation(new WriteFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_READDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READDIR");
-			executeOperation(SFTP_QUEUE, new ReadDirectoryOperation(msg));
+			submitOperation(new ReadDirectoryOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_LSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_LSTAT");
-			executeOperation(SFTP_QUEUE, new LStatOperation(msg));
+			submitOperation(new LStatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_STAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_STAT");
-			executeOperation(SFTP_QUEUE, new StatOperation(msg));
+			submitOperation(new StatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_FSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSTAT");
-			executeOperation(SFTP_QUEUE, new FStatOperation(msg));
+			submitOperation(new FStatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_CLOSE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_CLOSE");
-			executeOperation(SFTP_QUEUE, new CloseFileOperation(msg));
+			submitOperation(new CloseFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_REMOVE: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_REMOVE");
-			executeOperation(SFTP_QUEUE, new RemoveFileOperation(msg));
+			submitOperation(new RemoveFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_RENAME: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_RENAME");
-			executeOperation(SFTP_QUEUE, new RenameFileOperation(msg));
+			submitOperation(new RenameFileOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_RMDIR: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_RMDIR");
-			executeOperation(SFTP_QUEUE, new RemoveDirectoryOperation(msg));
+			submitOperation(new RemoveDirectoryOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_SETSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_SETSTAT");
-			executeOperation(SFTP_QUEUE, new SetStatOperation(msg));
+			submitOperation(new SetStatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_FSETSTAT: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_FSETSTAT");
-			executeOperation(SFTP_QUEUE, new SetFStatOperation(msg));
+			submitOperation(new SetFStatOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_READLINK: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_READLINK");
-			executeOperation(SFTP_QUEUE, new ReadlinkOperation(msg));
+			submitOperation(new ReadlinkOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_SYMLINK: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_SYMLINK");
-			executeOperation(SFTP_QUEUE, new SymlinkOperation(msg));
+			submitOperation(new SymlinkOperation(msg));
 			break;
 		}
 
 		case SSH_FXP_EXTENDED: {
 			if(Log.isDebugEnabled())
 				Log.debug("Processing SSH_FXP_EXTENDED");
-			executeOperation(SFTP_QUEUE, new ExtendedOperation(msg));
+			submitOperation(new ExtendedOperation(msg));
 			break;
 		}
 
@@ -365,7 +386,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			for(SftpExtensionFactory fact : getContext().getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories()) {
 				for(SftpExtension ext : fact.getExtensions()) {
 					if(ext.supportsExtendedMessage(msg[0])) {
-						executeOperation(SFTP_QUEUE, new ExtendedMessageOperation(msg, ext));
+						submitOperation(new ExtendedMessageOperation(msg, ext));
 						break;
 					}
 				}
@@ -373,11 +394,120 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			// Don't know this one
 			if(Log.isDebugEnabled())
 				Log.debug("Processing Unsupported Message id=" + msg[0]);
-			executeOperation(SFTP_QUEUE, new UnsupportedOperation(msg));
+			submitOperation(new UnsupportedOperation(msg));
 			break;
 		}
 	}
 
+	/**
+	 * Submit an operation for execution. By default every operation runs in the order
+	 * received on a single queue. When the file system policy allows concurrent operations,
+	 * operations on a file handle are spread across a bounded set of queues by handle, so
+	 * requests for different handles run concurrently whilst those for the same handle
+	 * remain in order. Reads on a handle that supports positional access are also spread 
+	 * across the queues, but do not overlap other operations on the same handle. Any other 
+	 * operation waits for the running operations to complete and runs on its own, and 
+	 * operations received after it wait for it in turn, so requests that could affect the
+	 * same file are still processed in the order received.
+	 * 
+	 * @param op
+	 */
+	void submitOperation(FileSystemOperation op) {
+		
+		if(maximumConcurrentOperations <= 1) {
+			executeOperation(SFTP_QUEUE, op);
+			return;
+		}
+		
+		selectQueue(op);
+		op.concurrent = true;
+		
+		synchronized(deferredOperations) {
+			if(deferredOperations.isEmpty() && canStartOperation(op)) {
+				startOperation(op);
+			} else {
+				deferredOperations.addLast(op);
+			}
+		}
+	}
+	
+	private void selectQueue(FileSystemOperation op) {
+		
+		byte[] msg = op.msg;
+		if(msg == null) {
+			return;
+		}
+		
+		switch(msg[0] & 0xFF) {
+		case SSH_FXP_READ:
+		case SSH_FXP_WRITE:
+		case SSH_FXP_FSTAT:
+		case SSH_FXP_FSETSTAT:
+		case SSH_FXP_READDIR:
+		case SSH_FXP_CLOSE:
+			try(ByteArrayReader bar = new ByteArrayReader(msg, 5, msg.length - 5)) {
+				byte[] handle = bar.readBinaryString();
+				int hash = Arrays.hashCode(handle) & 0x7FFFFFFF;
+				op.handle = new String(handle, "ISO-8859-1");
+				AbstractFileSystem nfs = this.nfs;
+				if((msg[0] & 0xFF) == SSH_FXP_READ && nfs != null && nfs.isPositionalHandle(handle)) {
+					op.positionalRead = true;
+					hash += readSequence++ & 0x7FFFFFFF;
+				}
+				op.queue = SFTP_HANDLE_QUEUES[(hash & 0x7FFFFFFF) % maximumConcurrentOperations];
+			} catch(IOException e) {
+				op.handle = null;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+	
+	private boolean canStartOperation(FileSystemOperation op) {
+		if(op.handle == null) {
+			return runningOperations == 0;
+		}
+		if(exclusiveOperationRunning) {
+			return false;
+		}
+		int[] activity = handleActivity.get(op.handle);
+		return activity == null || activity[op.positionalRead ? 1 : 0] == 0;
+	}
+	
+	private void startOperation(FileSystemOperation op) {
+		runningOperations++;
+		if(op.handle == null) {
+			exclusiveOperationRunning = true;
+			executeOperation(SFTP_QUEUE, op);
+		} else {
+			int[] activity = handleActivity.get(op.handle);
+			if(activity == null) {
+				handleActivity.put(op.handle, activity = new int[2]);
+			}
+			activity[op.positionalRead ? 0 : 1]++;
+			executeOperation(op.queue, op);
+		}
+	}
+	
+	private void completedOperation(FileSystemOperation op) {
+		synchronized(deferredOperations) {
+			runningOperations--;
+			if(op.handle == null) {
+				exclusiveOperationRunning = false;
+			} else {
+				int[] activity = handleActivity.get(op.handle);
+				activity[op.positionalRead ? 0 : 1]--;
+				if(activity[0] == 0 && activity[1] == 0) {
+					handleActivity.remove(op.handle);
+				}
+			}
+			while(!deferredOperations.isEmpty() && canStartOperation(deferredOperations.getFirst())) {
+				startOperation(deferredOperations.removeFirst());
+			}
+		}
+	}
+	
 	class ExtendedMessageOperation extends FileSystemOperation {
 		
 		SftpExtension ext;
@@ -1190,15 +1320,18 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				UnsignedInteger64 offset = bar.readUINT64();
 				int count = (int) bar.readInt();
 
-				// Construct the correct size packet and read the file
-				Packet reply = new Packet(count + 13);
+				// Take a reply buffer from the pool and read the file straight into it
+				ByteBuffer reply = allocateMessageBuffer(count + 13);
 				try {
-					reply.write(SSH_FXP_DATA);
-					reply.writeInt(id);
+					reply.clear();
+					reply.limit(count + 13);
+					reply.position(4);
+					reply.put((byte)SSH_FXP_DATA);
+					reply.putInt(id);
 	
 					// Save the current position so we can update the length later
 					int position = reply.position();
-					reply.writeInt(0);
+					reply.position(position + 4);
 	
 					if(Log.isDebugEnabled())
 						Log.debug("Remote client wants " + String.valueOf(count)
@@ -1207,26 +1340,24 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								+ " remotewindow=" + session.getRemoteWindow());
 	
 					// Read from the file
-					count = nfs.readFile(handle, offset, reply.array(),
-							reply.position(), count);
+					count = nfs.readFile(handle, offset, reply);
 	
 					if (count == -1) {
 						if (Log.isDebugEnabled()) {
 							Log.debug("Got EOF from filesystem");
 						}
-						evt.hasReachedEOF = true;
+						evt.setHasReachedEOF(true);
 						sendStatusMessage(id, STATUS_FX_EOF, "File is EOF");
 						return;
 					} else {
-						evt.bytesRead += count;
+						evt.addBytesRead(count);
 	
 						if(Log.isDebugEnabled())
 							Log.debug("Read " + count + " bytes from filesystem");
 	
-						// Update the position and write the correct length
-						position = reply.setPosition(position);
-						reply.writeInt(count);
-						reply.setPosition(position + count);
+						// Write the correct length and prepare the buffer for sending
+						reply.putInt(position, count);
+						reply.flip();
 	
 						try {
 							if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
@@ -1239,7 +1370,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesRead))
+												new Long(evt.getBytesRead()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_READ,
 												new Long(count))
@@ -1261,13 +1392,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						
 					}
 				} finally {
-					try {
-						reply.close();
-					} catch (IOException e) {
-					}
+					releaseMessageBuffer(reply);
 				}
-				
-				
+
+
 				return;
 			} catch (EOFException eof) {
 				sendStatusMessage(id, STATUS_FX_EOF, eof.getMessage());
@@ -1309,7 +1437,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								con)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-								new Long(evt.bytesRead))
+								new Long(evt.getBytesRead()))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_FILE_NAME,
 								evt.path)
@@ -1375,7 +1503,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					nfs.writeFile(handle, offset, bar.array(), bar.getPosition(),
 							count);
 	
-					evt.bytesWritten += count;
+					evt.addBytesWritten(count);
 
 
 					if(context.getPolicy(FileSystemPolicy.class).isSFTPReadWriteEvents()) {
@@ -1388,7 +1516,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 										con)
 								.addAttribute(
 										EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-										new Long(evt.bytesWritten))
+										new Long(evt.getBytesWritten()))
 								.addAttribute(
 										EventCodes.ATTRIBUTE_BYTES_WRITTEN,
 										new Long(count))
@@ -1447,7 +1575,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 								con)
 						.addAttribute(
 								EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-								new Long(evt.bytesWritten))
+								new Long(evt.getBytesWritten()))
 						.addAttribute(
 								EventCodes.ATTRIBUTE_FILE_NAME,
 								evt.path)
@@ -1595,7 +1723,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesWritten))
+												new Long(evt.getBytesWritten()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_FILE_NAME,
 												evt.path)
@@ -1609,7 +1737,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
 
-			} else if (evt.bytesWritten > 0 && evt.bytesRead <= 0) {
+			} else if (evt.getBytesWritten() > 0 && evt.getBytesRead() <= 0) {
 				fireEvent(	new Event(
 										SftpSubsystem.this,
 										EventCodes.EVENT_SFTP_FILE_UPLOAD_COMPLETE,
@@ -1619,7 +1747,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesWritten))
+												new Long(evt.getBytesWritten()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_FILE_NAME,
 												evt.path)
@@ -1632,7 +1760,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 										.addAttribute(
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
-			} else if (evt.bytesRead > 0 && evt.bytesWritten <= 0) {
+			} else if (evt.getBytesRead() > 0 && evt.getBytesWritten() <= 0) {
 
 				fireEvent(	new Event(
 										SftpSubsystem.this,
@@ -1643,7 +1771,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesRead))
+												new Long(evt.getBytesRead()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_HANDLE,
 												evt.handle)
@@ -1657,8 +1785,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
 
-			} else if (evt.bytesRead <= 0
-					&& evt.bytesWritten <= 0
+			} else if (evt.getBytesRead() <= 0
+					&& evt.getBytesWritten() <= 0
 					&& (evt.flags.longValue() & AbstractFileSystem.OPEN_READ) != AbstractFileSystem.OPEN_READ
 					&& ((evt.flags.longValue() & AbstractFileSystem.OPEN_WRITE) == AbstractFileSystem.OPEN_WRITE || (evt.flags
 							.longValue() & AbstractFileSystem.OPEN_APPEND) == AbstractFileSystem.OPEN_APPEND)) {
@@ -1674,10 +1802,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 													con)
 											.addAttribute(
 													EventCodes.ATTRIBUTE_BYTES_READ,
-													new Long(evt.bytesRead))
+													new Long(evt.getBytesRead()))
 											.addAttribute(
 													EventCodes.ATTRIBUTE_BYTES_WRITTEN,
-													new Long(evt.bytesWritten))
+													new Long(evt.getBytesWritten()))
 											.addAttribute(
 													EventCodes.ATTRIBUTE_HANDLE,
 													evt.handle)
@@ -1707,10 +1835,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 													con)
 											.addAttribute(
 													EventCodes.ATTRIBUTE_BYTES_READ,
-													new Long(evt.bytesRead))
+													new Long(evt.getBytesRead()))
 											.addAttribute(
 													EventCodes.ATTRIBUTE_BYTES_WRITTEN,
-													new Long(evt.bytesWritten))
+													new Long(evt.getBytesWritten()))
 											.addAttribute(
 													EventCodes.ATTRIBUTE_HANDLE,
 													evt.handle)
@@ -1729,8 +1857,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 							"Zero length file is not allowed");
 				}
 
-			} else if (evt.bytesRead <= 0
-					&& evt.bytesWritten <= 0
+			} else if (evt.getBytesRead() <= 0
+					&& evt.getBytesWritten() <= 0
 					&& (evt.flags.longValue() & AbstractFileSystem.OPEN_READ) == AbstractFileSystem.OPEN_READ
 					&& ((evt.flags.longValue() & AbstractFileSystem.OPEN_WRITE) != AbstractFileSystem.OPEN_WRITE && (evt.flags
 							.longValue() & AbstractFileSystem.OPEN_APPEND) != AbstractFileSystem.OPEN_APPEND)) {
@@ -1744,7 +1872,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_TRANSFERED,
-												new Long(evt.bytesRead))
+												new Long(evt.getBytesRead()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_FILE_NAME,
 												evt.path)
@@ -1769,10 +1897,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												con)
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_READ,
-												new Long(evt.bytesRead))
+												new Long(evt.getBytesRead()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_BYTES_WRITTEN,
-												new Long(evt.bytesWritten))
+												new Long(evt.getBytesWritten()))
 										.addAttribute(
 												EventCodes.ATTRIBUTE_FILE_NAME,
 												evt.path)
@@ -1942,8 +2070,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 			try {
 				id = (int) bar.readInt();
-				sendFilenameMessage(id,
-						nfs.readDirectory(bar.readBinaryString()), false, false);
+				sendDirectoryMessage(id, bar.readBinaryString());
 
 			} catch (FileNotFoundException ioe) {
 				sendStatusMessage(id, STATUS_FX_NO_SUCH_FILE, ioe.getMessage());
@@ -2204,20 +2331,71 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 		baw.writeInt(files.length);
 
 		for (int i = 0; i < files.length; i++) {
-			baw.writeString(
-					isAbsolute ? files[i].getAbsolutePath() : files[i]
-							.getFilename(), CHARSET_ENCODING);
-			if(version <= 3) {
-				baw.writeString(isRealPath ? files[i].getAbsolutePath()
-						: formatLongnameInContext(files[i], con.getLocale()),
-						CHARSET_ENCODING);
-			}
-			baw.write(files[i].getAttributes().toByteArray(version));
+			writeFilename(baw, files[i], isRealPath, isAbsolute);
 		}
 
 		sendMessage(baw);
 
 	}
+	
+	/**
+	 * Send the next entries of an open directory, filling the SSH_FXP_NAME reply
+	 * up to the maximum packet size the client will accept on this channel.
+	 * 
+	 * @param id
+	 * @param handle
+	 * @throws IOException
+	 * @throws PermissionDeniedException
+	 * @throws InvalidHandleException
+	 */
+	void sendDirectoryMessage(int id, byte[] handle) throws IOException, PermissionDeniedException, InvalidHandleException {
+		
+		final int maximumSize = Math.min(session.getRemotePacket(), context.getMaximumPacketLength());
+		final Packet baw = new Packet(4096);
+		final ByteArrayWriter entry = new ByteArrayWriter();
+		final int[] count = new int[1];
+		
+		try {
+			baw.write(SSH_FXP_NAME);
+			baw.writeInt(id);
+			int countPosition = baw.position();
+			baw.writeInt(0);
+			
+			nfs.readDirectory(handle, new SftpFileConsumer() {
+				public boolean accept(SftpFile file) throws IOException {
+					entry.reset();
+					writeFilename(entry, file, false, false);
+					if(count[0] > 0 && baw.size() + entry.size() > maximumSize) {
+						return false;
+					}
+					baw.write(entry.array(), 0, entry.size());
+					count[0]++;
+					return true;
+				}
+			});
+			
+			int position = baw.setPosition(countPosition);
+			baw.writeInt(count[0]);
+			baw.setPosition(position);
+			
+			sendMessage(baw);
+		} finally {
+			entry.close();
+		}
+	}
+	
+	void writeFilename(ByteArrayWriter baw, SftpFile file, boolean isRealPath,
+			boolean isAbsolute) throws IOException {
+		baw.writeString(
+				isAbsolute ? file.getAbsolutePath() : file
+						.getFilename(), CHARSET_ENCODING);
+		if(version <= 3) {
+			baw.writeString(isRealPath ? file.getAbsolutePath()
+					: formatLongnameInContext(file, con.getLocale()),
+					CHARSET_ENCODING);
+		}
+		baw.write(file.getAttributes().toByteArray(version));
+	}
 
 	class MakeDirectoryOperation extends FileSystemOperation {
 
@@ -2375,6 +2553,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 
 	abstract class FileSystemOperation extends ConnectionAwareTask {
 		protected byte[] msg;
+		Integer queue;
+		String handle;
+		boolean positionalRead;
+		boolean concurrent;
 
 		FileSystemOperation(byte[] msg) {
 			super(SftpSubsystem.this.session.getConnection());
@@ -2410,6 +2592,9 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 					onFreeMessage(msg);
 				}
 				msg = null;
+				if(concurrent) {
+					completedOperation(this);
+				}
 			}
 			
 		}
@@ -19,6 +19,7 @@
 package com.sshtools.common.sftp;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.sshtools.common.util.UnsignedInteger32;
 
@@ -26,10 +27,10 @@ public class TransferEvent {
 		byte[] handle;
 		String path;
 		AbstractFileSystem nfs;
-		long bytesRead = 0;
-		long bytesWritten = 0;
+		final AtomicLong bytesRead = new AtomicLong();
+		final AtomicLong bytesWritten = new AtomicLong();
 		boolean exists = false;
-		boolean hasReachedEOF = false;
+		volatile boolean hasReachedEOF = false;
 		UnsignedInteger32 flags;
 		Date started = new Date();
 		public boolean isDir;
@@ -56,16 +57,22 @@ public class TransferEvent {
 			this.nfs = nfs;
 		}
 		public long getBytesRead() {
-			return bytesRead;
+			return bytesRead.get();
 		}
 		public void setBytesRead(long bytesRead) {
-			this.bytesRead = bytesRead;
+			this.bytesRead.set(bytesRead);
+		}
+		public long addBytesRead(long count) {
+			return bytesRead.addAndGet(count);
 		}
 		public long getBytesWritten() {
-			return bytesWritten;
+			return bytesWritten.get();
 		}
 		public void setBytesWritten(long bytesWritten) {
-			this.bytesWritten = bytesWritten;
+			this.bytesWritten.set(bytesWritten);
+		}
+		public long addBytesWritten(long count) {
+			return bytesWritten.addAndGet(count);
 		}
 		public boolean isExists() {
 			return exists;
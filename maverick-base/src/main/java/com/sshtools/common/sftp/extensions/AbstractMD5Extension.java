@@ -66,12 +66,13 @@ public abstract class AbstractMD5Extension extends AbstractSftpExtension {
 		MD5Digest digest = (MD5Digest) JCEComponentManager.getInstance().supportedDigests().getInstance("MD5");
 
 		while(length > 0) {
-			int read = fs.readFile(handle, new UnsignedInteger64(startOffset), tmp, 0, tmp.length);
-			if(read > 0) {
-				digest.putBytes(tmp, 0, read);
-				length -= read;
-				startOffset += read;
+			int read = fs.readFile(handle, new UnsignedInteger64(startOffset), tmp, 0, (int) Math.min(tmp.length, length));
+			if(read <= 0) {
+				break;
 			}
+			digest.putBytes(tmp, 0, read);
+			length -= read;
+			startOffset += read;
 		}
 		return digest.doFinal();
 	}
@@ -19,6 +19,7 @@
 package com.sshtools.common.ssh;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface Channel {
 
@@ -28,10 +29,30 @@ public interface Channel {
 
 	int getLocalPacket();
 
+	int getRemotePacket();
+
 	void close();
 
 	void sendData(byte[] array, int i, int size) throws IOException;
 
+	/**
+	 * Send the remaining content of a buffer, blocking until it has been passed to
+	 * the socket. The buffer may be direct; once this method returns it may be reused.
+	 * 
+	 * @param buf
+	 * @throws IOException
+	 */
+	default void sendData(ByteBuffer buf) throws IOException {
+		if(buf.hasArray()) {
+			sendData(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+		} else {
+			byte[] tmp = new byte[buf.remaining()];
+			buf.duplicate().get(tmp);
+			sendData(tmp, 0, tmp.length);
+		}
+		buf.position(buf.limit());
+	}
+
 	void sendWindowAdjust(int bytesSinceLastWindowIssue);
 
 	boolean isClosed();
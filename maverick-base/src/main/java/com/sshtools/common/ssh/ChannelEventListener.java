@@ -78,6 +78,8 @@ public interface ChannelEventListener {
   /**
    * Data has been received on the channel. The buffer provided is the same buffer that will
    * be passed on to any thread reading the channels streams.
+   * The buffer is backed by a pooled message array and is only valid for the duration of
+   * this call; copy any data that is needed afterwards.
    * 
    * @param channel Channel
    * @param buffer buffer
@@ -88,6 +90,8 @@ public interface ChannelEventListener {
   /**
    * Data has been received on the extended channel. The buffer provided is the same buffer that will
    * be passed on to any thread reading the channels streams.
+   * The buffer is backed by a pooled message array and is only valid for the duration of
+   * this call; copy any data that is needed afterwards.
    * 
    * @param channel Channel
  * @param buffer buffer
@@ -21,6 +21,7 @@ package com.sshtools.common.ssh;
 import java.util.concurrent.ExecutorService;
 
 import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.util.ByteArrayPool;
 import com.sshtools.common.util.ByteBufferPool;
 
 public interface Context {
@@ -35,6 +36,8 @@ public interface Context {
 
 	ByteBufferPool getByteBufferPool();
 	
+	ByteArrayPool getMessagePool();
+	
 	ComponentManager getComponentManager();
 
 	void setPolicy(Class<?> clz, Object policy);
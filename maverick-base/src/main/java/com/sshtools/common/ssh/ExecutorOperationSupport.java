@@ -18,13 +18,17 @@
  */
 package com.sshtools.common.ssh;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import com.sshtools.common.logger.Log;
 
@@ -38,8 +42,8 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 	boolean shutdown = false;
 	String queueName;
 	
-	Map<Integer,OperationTask> operationQueues = new HashMap<Integer,OperationTask>();
-	List<ExecutorOperationListener> listeners = new ArrayList<ExecutorOperationListener>();
+	ConcurrentMap<Integer,OperationTask> operationQueues = new ConcurrentHashMap<Integer,OperationTask>();
+	List<ExecutorOperationListener> listeners = new CopyOnWriteArrayList<ExecutorOperationListener>();
 	
 	protected ExecutorOperationSupport(String queueName) {
 		this.queueName = queueName;
@@ -47,11 +51,11 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 	
 	public abstract T getContext();
 
-	public synchronized void addOperationListener(ExecutorOperationListener listener) {
+	public void addOperationListener(ExecutorOperationListener listener) {
 		listeners.add(listener);
 	}
 	
-	public synchronized void removeOperationListener(ExecutorOperationListener listener) {
+	public void removeOperationListener(ExecutorOperationListener listener) {
 		listeners.remove(listener);
 	}
 	
@@ -64,15 +68,20 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 	}
 	
 	public void addTask(Integer queue, ConnectionAwareTask r) {
-		if(!operationQueues.containsKey(queue)) {
-			operationQueues.put(queue, new OperationTask());
+		OperationTask task = operationQueues.get(queue);
+		if(task == null) {
+			OperationTask created = new OperationTask();
+			task = operationQueues.putIfAbsent(queue, created);
+			if(task == null) {
+				task = created;
+			}
 		}
-		operationQueues.get(queue).addTask(r);
+		task.addTask(r);
 	}
 	
 	public void cleanupOperations(ConnectionAwareTask doCleanup) {
 		for(OperationTask task : operationQueues.values()) {
-			if(task.running) {
+			if(task.scheduled.get()) {
 				task.cleanupOperations();
 			}
 		}
@@ -87,11 +96,18 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 		return count;
 	}
 	
+	/**
+	 * A serial mailbox for a single operation queue. Any thread may add tasks, which
+	 * are executed in order by at most one executor thread at a time. The scheduled
+	 * flag ensures the mailbox is submitted to the executor only when it is not
+	 * already running.
+	 */
 	class OperationTask implements Runnable {
 
-		boolean running = false;
-		Future<?> operationFuture = null;
-		LinkedList<Runnable> subsystemOperations = new LinkedList<Runnable>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final Queue<Runnable> subsystemOperations = new ConcurrentLinkedQueue<Runnable>();
+		volatile Future<?> operationFuture = null;
+		volatile Thread idleThread = null;
 
 		public void run() {
 
@@ -99,74 +115,83 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 				Log.trace(queueName + ": Operation task is starting");
 			}
 
-			do {
+			for(;;) {
 
 				executeAllTasks();
 
-				if(Log.isTraceEnabled()) {
-					Log.trace(queueName + ": No more tasks, will wait for a few more seconds before completing task");
-				}
-
-				synchronized (this) {
-					try {
-						wait(1000);
-					} catch (InterruptedException e) {
+				long idleTimeout = getContext().getExecutorIdleTimeout();
+				if(idleTimeout > 0) {
+					if(Log.isTraceEnabled()) {
+						Log.trace(queueName + ": No more tasks, will wait for a few more seconds before completing task");
 					}
-					running = !subsystemOperations.isEmpty();
+					waitForTasks(idleTimeout);
 				}
 
-			} while (running);
+				if(!subsystemOperations.isEmpty()) {
+					continue;
+				}
+				
+				scheduled.set(false);
+				
+				/**
+				 * A task may have been added after we last checked the queue but before
+				 * the flag was cleared, in which case its producer did not submit us again.
+				 */
+				if(subsystemOperations.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					break;
+				}
+			}
 
 			if(Log.isTraceEnabled()) {
 				Log.trace(queueName + ": Operation task has ended");
 			}
 		}
 
-		public synchronized void addTask(Runnable r) {
+		private void waitForTasks(long idleTimeout) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+			idleThread = Thread.currentThread();
+			try {
+				long remaining;
+				while(subsystemOperations.isEmpty() 
+						&& (remaining = deadline - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(this, remaining);
+				}
+			} finally {
+				idleThread = null;
+			}
+		}
+		
+		public void addTask(Runnable r) {
 
-			subsystemOperations.addLast(r);
+			subsystemOperations.offer(r);
 
 			addedTask(r);
 			
-			if (!running) {
-				running = true;
+			if (scheduled.compareAndSet(false, true)) {
 				
 				if(Log.isTraceEnabled()) {
 					Log.trace(queueName + ": Starting new subsystem task");
 				}
 				operationFuture = getContext().getExecutorService().submit(this);
 			} else {
-				notifyAll();
+				Thread t = idleThread;
+				if(t != null) {
+					LockSupport.unpark(t);
+				}
 			}
 		}
 
 		private void executeAllTasks() {
-			while (!subsystemOperations.isEmpty()) {
+			Runnable r;
+			while ((r = subsystemOperations.poll()) != null) {
 				try {
-					Runnable r = null;
-
-					synchronized (this) {
-						r = subsystemOperations.removeFirst();
-					}
-					if (r != null) {
-						try {
-							startTask(r);
-							r.run();
-						} catch (Throwable t) {
-							t.printStackTrace();
-							Log.error("Caught exception in operation remainingTasks=" + subsystemOperations.size(), t);
-						} finally {
-							completedTask(r);
-						}
-						
-					} else {
-						if(Log.isWarnEnabled()) {
-							Log.warn(queueName + ": Unexpected null task in operation queue");
-						}
-					}
+					startTask(r);
+					r.run();
 				} catch (Throwable t) {
 					t.printStackTrace();
 					Log.error(queueName + ": Caught exception in operation remainingTasks=" + subsystemOperations.size(), t);
+				} finally {
+					completedTask(r);
 				}
 			}
 
@@ -182,6 +207,7 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 
 				getContext().getExecutorService().submit(new Runnable() {
 					public void run() {
+						Future<?> operationFuture = OperationTask.this.operationFuture;
 						if (operationFuture != null) {
 				
 							if(Log.isTraceEnabled()) {
@@ -209,7 +235,7 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 		}
 	}
 	
-	protected synchronized void addedTask(Runnable r) {
+	protected void addedTask(Runnable r) {
 		for(ExecutorOperationListener l : getContext().getExecutorListeners()) {
 			try {
 				l.addedTask(r);
@@ -224,7 +250,7 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 		}
 	}
 	
-	protected synchronized void startTask(Runnable r) {
+	protected void startTask(Runnable r) {
 		
 		if(Log.isTraceEnabled()) {
 			Log.trace(String.format("Executing task on thread %s", Thread.currentThread().getName()));
@@ -244,7 +270,7 @@ public abstract class ExecutorOperationSupport<T extends ExecutorServiceProvider
 		}
 	}
 	
-	protected synchronized void completedTask(Runnable r) {
+	protected void completedTask(Runnable r) {
 		for(ExecutorOperationListener l : getContext().getExecutorListeners()) {
 			try {
 				l.completedTask(r);
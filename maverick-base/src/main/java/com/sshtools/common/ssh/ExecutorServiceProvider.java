@@ -26,4 +26,15 @@ public interface ExecutorServiceProvider {
 	ExecutorService getExecutorService();
 
 	List<ExecutorOperationListener> getExecutorListeners();
+	
+	/**
+	 * The number of milliseconds an operation queue keeps its executor thread waiting
+	 * for further work after it has drained. A value of zero releases the thread as soon
+	 * as the queue is empty and submits a new task when more work arrives.
+	 * 
+	 * @return long
+	 */
+	default long getExecutorIdleTimeout() {
+		return 1000;
+	}
 }
@@ -43,6 +43,7 @@ public abstract class Subsystem {
 	
 	boolean shutdown = false;
 	int bytesSinceLastWindowIssue = 0;
+	Object windowLock = new Object();
 	
 	public Subsystem(String name) {
 		this.name = name;
@@ -194,7 +195,7 @@ public abstract class Subsystem {
 			while (message_length >= 0 && buffer.remaining() >= message_length) {
 	
 				if(message_length > 0) {
-					byte[] msg = new byte[message_length];
+					byte[] msg = context.getMessagePool().get(message_length);
 		
 					buffer.get(msg);
 		
@@ -295,20 +296,76 @@ public abstract class Subsystem {
 		}
 	}
 
+	/**
+	 * Send a subsystem message held in a buffer, such as one obtained from 
+	 * {@link #allocateMessageBuffer(int)}. The message runs from the buffer's position 
+	 * to its limit and must begin with four bytes reserved for the length field, which
+	 * is written by this method. The buffer may be reused once this method returns.
+	 * 
+	 * @param buf
+	 * @throws IOException
+	 */
+	public void sendMessage(ByteBuffer buf) throws IOException {
+		if (session.isClosed()) {
+			throw new IOException("Failed to send subsystem packet, session closed");
+		} else {
+			if(Log.isTraceEnabled())
+				Log.trace("Sending subsystem packet of " + buf.remaining()
+						+ " bytes");
+			buf.putInt(buf.position(), buf.remaining() - 4);
+			session.sendData(buf);
+		}
+	}
+
+	/**
+	 * Get a buffer able to hold a message of the given size, including its length
+	 * field. Buffers are taken from the context's {@link ByteBufferPool} when the message
+	 * fits, and so may be direct; return them with {@link #releaseMessageBuffer(ByteBuffer)}.
+	 * 
+	 * @param size
+	 * @return ByteBuffer
+	 */
+	protected ByteBuffer allocateMessageBuffer(int size) {
+		if(size <= bufferPool.getCapacity()) {
+			return bufferPool.get();
+		}
+		return ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * Return a buffer obtained from {@link #allocateMessageBuffer(int)}. 
+	 * 
+	 * @param buf
+	 */
+	protected void releaseMessageBuffer(ByteBuffer buf) {
+		bufferPool.add(buf);
+	}
+
+	/**
+	 * Called once a message passed to {@link #onMessageReceived(byte[])} has been
+	 * processed. This issues any window space now available to the remote side and
+	 * returns the message array to the context's message pool, so the array must
+	 * not be used after calling this method.
+	 * 
+	 * @param msg
+	 */
 	public void onFreeMessage(byte[] msg) {
 	
-		if(maximumPacketSize < msg.length + 4) {
-			maximumPacketSize = msg.length + 4;
-		}
-		
-		bytesSinceLastWindowIssue += msg.length + 4;
-		int threshold = Math.min(session.getMaximumWindowSpace() - session.getMinimumWindowSpace(), 
-				session.getMaximumWindowSpace() - (Math.max(session.getLocalPacket(), maximumPacketSize) * 2));
-		if(bytesSinceLastWindowIssue >= threshold) {
-			session.sendWindowAdjust(bytesSinceLastWindowIssue);
-			bytesSinceLastWindowIssue = 0;
+		synchronized(windowLock) {
+			if(maximumPacketSize < msg.length + 4) {
+				maximumPacketSize = msg.length + 4;
+			}
+			
+			bytesSinceLastWindowIssue += msg.length + 4;
+			int threshold = Math.min(session.getMaximumWindowSpace() - session.getMinimumWindowSpace(), 
+					session.getMaximumWindowSpace() - (Math.max(session.getLocalPacket(), maximumPacketSize) * 2));
+			if(bytesSinceLastWindowIssue >= threshold) {
+				session.sendWindowAdjust(bytesSinceLastWindowIssue);
+				bytesSinceLastWindowIssue = 0;
+			}
 		}
 		
+		context.getMessagePool().release(msg);
 	}
 
 }
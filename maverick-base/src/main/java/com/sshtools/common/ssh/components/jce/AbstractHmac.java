@@ -19,6 +19,7 @@
 package com.sshtools.common.ssh.components.jce;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.sshtools.common.ssh.SecurityLevel;
@@ -40,6 +41,8 @@ public abstract class AbstractHmac implements SshHmac {
 	protected String jceAlgorithm;
 	final private SecurityLevel securityLevel;
 	final int priority;
+	final byte[] sequenceBytes = new byte[4];
+	byte[] truncated;
 	
 	public AbstractHmac(String jceAlgorithm, int macLength, SecurityLevel securityLevel, int priority) {
 		this(jceAlgorithm, macLength, macLength, securityLevel, priority);
@@ -64,7 +67,6 @@ public abstract class AbstractHmac implements SshHmac {
 	public void generate(long sequenceNo, byte[] data, int offset, int len,
 			byte[] output, int start) {
 		
-        byte[] sequenceBytes = new byte[4];
         sequenceBytes[0] = (byte) (sequenceNo >> 24);
         sequenceBytes[1] = (byte) (sequenceNo >> 16);
         sequenceBytes[2] = (byte) (sequenceNo >> 8);
@@ -72,9 +74,19 @@ public abstract class AbstractHmac implements SshHmac {
         mac.update(sequenceBytes);
         mac.update(data, offset, len);
 
-        byte[] tmp = mac.doFinal();
-        
-        System.arraycopy(tmp, 0, output, start, macLength);
+        try {
+	        if(macLength == mac.getMacLength() && output.length - start >= macLength) {
+	        	mac.doFinal(output, start);
+	        } else {
+	        	if(truncated==null) {
+	        		truncated = new byte[mac.getMacLength()];
+	        	}
+	        	mac.doFinal(truncated, 0);
+	        	System.arraycopy(truncated, 0, output, start, macLength);
+	        }
+        } catch (ShortBufferException e) {
+        	throw new IllegalStateException(e.getMessage(), e);
+        }
 
 	}
 	
@@ -86,20 +86,17 @@ public class ChaCha20Poly1305 extends SshCipher {
 
 	private void doEncrypt(byte[] src, int start, byte[] dest, int offset, int len) throws WrongKeySizeException, WrongNonceSizeException, IllegalStateException, IOException {
 		
-		
+		/**
+		 * The packet starts with the 4 byte encrypted length field that
+		 * precedes start and the tag is written directly after the payload.
+		 */
 		int payloadLength = 4 + len - 16;
 		
-		transformPayload(src, start, dest, offset, payloadLength);
+		transformPayload(src, start, dest, offset, len - 16);
 		
 		byte[] polykey = generatePoly1305Key();
-		Poly1305 mac = new Poly1305();
-		mac.init(polykey);
-		mac.update(src, 0, payloadLength);
-	
-		byte[] expectedTag = generatePoly1305Tag(polykey, src, 0, payloadLength);
 		
-		System.arraycopy(expectedTag, 0, dest, payloadLength, expectedTag.length);
-
+		generatePoly1305Tag(polykey, dest, offset - 4, payloadLength, dest, offset - 4 + payloadLength);
 		
 	}
 
@@ -107,11 +104,12 @@ public class ChaCha20Poly1305 extends SshCipher {
 		
 		byte[] tag = new byte[16];
 		int payloadLength = 4 + len - 16;
-		System.arraycopy(src, payloadLength, tag, 0 ,16);
+		System.arraycopy(src, start - 4 + payloadLength, tag, 0 ,16);
 			
 		byte[] polykey = generatePoly1305Key();
 		
-		byte[] expectedTag = generatePoly1305Tag(polykey, src, 0, payloadLength);
+		byte[] expectedTag = new byte[16];
+		generatePoly1305Tag(polykey, src, start - 4, payloadLength, expectedTag, 0);
 
 		if(!Arrays.areEqual(tag, expectedTag)) {
 			throw new IOException("Corrupt authentication tag");
@@ -138,15 +136,11 @@ public class ChaCha20Poly1305 extends SshCipher {
 		return polykey;
 	}
 	
-	private byte[] generatePoly1305Tag(byte[] polykey, byte[] src, int off, int len) throws IllegalStateException, IOException {
+	private void generatePoly1305Tag(byte[] polykey, byte[] src, int off, int len, byte[] output, int outOff) throws IllegalStateException, IOException {
 		Poly1305 mac = new Poly1305();
 		mac.init(polykey);
 		mac.update(src, off, len);
-		
-		byte[] expectedTag = new byte[16];
-		mac.doFinal(expectedTag, 0);
-		
-		return expectedTag;
+		mac.doFinal(output, outOff);
 	}
 
 	@Override
@@ -0,0 +1,159 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.common.util.ByteArrayPool;
+import com.sshtools.common.util.PooledByteArray;
+
+import junit.framework.TestCase;
+
+public class ByteArrayPoolTests extends TestCase {
+
+	public void testReuseExactLength() {
+		
+		ByteArrayPool pool = new ByteArrayPool();
+		byte[] array = pool.get(4096);
+		assertEquals(4096, array.length);
+		assertEquals(1, pool.getMisses());
+		
+		pool.release(array);
+		assertEquals(4096, pool.getRetainedBytes());
+		
+		assertEquals(4097, pool.get(4097).length);
+		assertSame(array, pool.get(4096));
+		assertEquals(1, pool.getHits());
+		assertEquals(0, pool.getRetainedBytes());
+		assertNotSame(array, pool.get(4096));
+	}
+	
+	public void testBelowMinimumLengthNotPooled() {
+		
+		ByteArrayPool pool = new ByteArrayPool(8192, 1024);
+		byte[] array = pool.get(1023);
+		pool.release(array);
+		assertEquals(0, pool.getRetainedBytes());
+		assertNotSame(array, pool.get(1023));
+		assertEquals(0, pool.getHits());
+		assertEquals(0, pool.getMisses());
+	}
+	
+	public void testRetainedBytesCapped() {
+		
+		ByteArrayPool pool = new ByteArrayPool(8192, 1024);
+		pool.release(new byte[4096]);
+		pool.release(new byte[4096]);
+		pool.release(new byte[4096]);
+		assertEquals(8192, pool.getRetainedBytes());
+		
+		pool.get(4096);
+		pool.get(4096);
+		pool.get(4096);
+		assertEquals(2, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(0, pool.getRetainedBytes());
+	}
+	
+	public void testDisabled() {
+		
+		ByteArrayPool pool = new ByteArrayPool();
+		byte[] array = pool.get(2048);
+		pool.release(array);
+		assertEquals(2048, pool.getRetainedBytes());
+		
+		pool.setMaximumRetainedBytes(0);
+		assertEquals(0, pool.getRetainedBytes());
+		pool.release(array);
+		assertEquals(0, pool.getRetainedBytes());
+		assertNotSame(array, pool.get(2048));
+	}
+	
+	/**
+	 * A pooled array only goes back to the pool when the last reference is
+	 * released, and cannot be released or retained again after that.
+	 */
+	public void testReferenceCounting() {
+		
+		ByteArrayPool pool = new ByteArrayPool();
+		PooledByteArray pooled = new PooledByteArray(pool.get(2048), pool);
+		pooled.retain();
+		
+		pooled.release();
+		assertEquals(0, pool.getRetainedBytes());
+		pooled.release();
+		assertEquals(2048, pool.getRetainedBytes());
+		
+		try {
+			pooled.release();
+			fail("Releasing a released array must fail");
+		} catch(IllegalStateException e) {
+		}
+		try {
+			pooled.retain();
+			fail("Retaining a released array must fail");
+		} catch(IllegalStateException e) {
+		}
+		assertEquals(2048, pool.getRetainedBytes());
+	}
+	
+	/**
+	 * Threads sharing a pool must never be handed an array another thread 
+	 * still holds, and the retained count must balance once they finish.
+	 */
+	public void testConcurrentGetAndRelease() throws InterruptedException {
+		
+		final ByteArrayPool pool = new ByteArrayPool(64 * 1024, 1024);
+		final Set<byte[]> inUse = Collections.synchronizedSet(
+				Collections.newSetFromMap(new IdentityHashMap<byte[],Boolean>()));
+		final AtomicReference<String> error = new AtomicReference<String>();
+		final CountDownLatch done = new CountDownLatch(8);
+		
+		for(int t = 0; t < 8; t++) {
+			new Thread() {
+				public void run() {
+					try {
+						for(int i = 0; i < 10000; i++) {
+							byte[] array = pool.get(i % 2 == 0 ? 1024 : 4096);
+							if(!inUse.add(array)) {
+								error.compareAndSet(null, "Array handed out twice");
+							}
+							inUse.remove(array);
+							pool.release(array);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		
+		done.await();
+		assertNull(error.get(), error.get());
+		assertTrue(pool.getRetainedBytes() <= 64 * 1024);
+		assertEquals(80000, pool.getHits() + pool.getMisses());
+		
+		pool.clear();
+		assertEquals(0, pool.getRetainedBytes());
+	}
+}
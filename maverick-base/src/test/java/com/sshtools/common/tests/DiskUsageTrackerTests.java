@@ -0,0 +1,228 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.DiskUsageTracker;
+import com.sshtools.common.files.SpaceRestrictedFileFactoryAdapter;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpStatusEventException;
+import com.sshtools.common.util.IOUtils;
+
+import junit.framework.TestCase;
+
+public class DiskUsageTrackerTests extends TestCase {
+
+	File root;
+	DirectFileFactory direct;
+	
+	@Override
+	protected void setUp() throws Exception {
+		root = Files.createTempDirectory("quota").toFile();
+		direct = new DirectFileFactory(root);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		IOUtils.delTree(root);
+	}
+	
+	SpaceRestrictedFileFactoryAdapter createAdapter(long maximumSize, DiskUsageTracker tracker) {
+		tracker.setReconcileInterval(0);
+		return new SpaceRestrictedFileFactoryAdapter(direct, maximumSize, tracker);
+	}
+	
+	long getActualSize() throws IOException, PermissionDeniedException {
+		return DiskUsageTracker.calculateSize(direct.getDefaultPath());
+	}
+	
+	long getUsage(SpaceRestrictedFileFactoryAdapter adapter) throws IOException, PermissionDeniedException {
+		return adapter.getTracker().getUsage(direct.getDefaultPath());
+	}
+	
+	static void write(AbstractFile file, int length, boolean append) throws IOException, PermissionDeniedException {
+		try(OutputStream out = file.getOutputStream(append)) {
+			out.write(new byte[length]);
+		}
+	}
+	
+	public void testInitialUsage() throws Exception {
+		
+		new File(root, "dir").mkdirs();
+		Files.write(new File(root, "a.bin").toPath(), new byte[1000]);
+		Files.write(new File(root, "dir/b.bin").toPath(), new byte[234]);
+		
+		SpaceRestrictedFileFactoryAdapter adapter = createAdapter(0, new DiskUsageTracker());
+		assertEquals(1234, getUsage(adapter));
+	}
+	
+	/**
+	 * Each change made through the adapter moves the usage by exactly the
+	 * change in size.
+	 */
+	public void testWriteOverwriteTruncateDelete() throws Exception {
+		
+		SpaceRestrictedFileFactoryAdapter adapter = createAdapter(0, new DiskUsageTracker());
+		assertEquals(0, getUsage(adapter));
+		
+		AbstractFile file = adapter.getFile("a.bin");
+		write(file, 1000, false);
+		assertEquals(1000, getUsage(adapter));
+		
+		write(file, 500, true);
+		assertEquals(1500, getUsage(adapter));
+		
+		write(file, 200, false);
+		assertEquals(200, getUsage(adapter));
+		
+		file.truncate();
+		assertEquals(0, getUsage(adapter));
+		
+		write(file, 300, false);
+		write(adapter.getFile("b.bin"), 700, false);
+		assertEquals(1000, getUsage(adapter));
+		
+		((AbstractFile) adapter.getFile("a.bin")).delete(false);
+		assertEquals(700, getUsage(adapter));
+		assertEquals(getActualSize(), getUsage(adapter));
+	}
+	
+	public void testQuotaExceeded() throws Exception {
+		
+		SpaceRestrictedFileFactoryAdapter adapter = createAdapter(1000, new DiskUsageTracker());
+		write(adapter.getFile("a.bin"), 800, false);
+		try {
+			write(adapter.getFile("b.bin"), 300, false);
+			fail("Write beyond the quota must fail");
+		} catch(SftpStatusEventException e) {
+		}
+		
+		((AbstractFile) adapter.getFile("a.bin")).delete(false);
+		write(adapter.getFile("b.bin"), 300, false);
+		assertEquals(300, getUsage(adapter));
+	}
+	
+	/**
+	 * Several connections sharing a tracker write, overwrite and delete files
+	 * at the same time. The usage must match the file system once they finish.
+	 */
+	public void testConcurrentWriteAndDelete() throws Exception {
+		
+		final DiskUsageTracker tracker = new DiskUsageTracker();
+		final SpaceRestrictedFileFactoryAdapter[] adapters = new SpaceRestrictedFileFactoryAdapter[4];
+		for(int i = 0; i < adapters.length; i++) {
+			adapters[i] = createAdapter(Long.MAX_VALUE, tracker);
+		}
+		assertEquals(0, getUsage(adapters[0]));
+		
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		
+		for(int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						SpaceRestrictedFileFactoryAdapter adapter = adapters[id % adapters.length];
+						Random r = new Random(id);
+						for(int i = 0; i < 50; i++) {
+							AbstractFile file = adapter.getFile("t" + id + "-" + (i % 10) + ".bin");
+							switch(r.nextInt(4)) {
+							case 0:
+								file.delete(false);
+								break;
+							case 1:
+								write(file, r.nextInt(4096), true);
+								break;
+							default:
+								write(file, r.nextInt(4096), false);
+								break;
+							}
+						}
+					} catch(Throwable e) {
+						error.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		
+		start.countDown();
+		done.await();
+		if(error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		
+		assertTrue(getActualSize() > 0);
+		assertEquals(getActualSize(), getUsage(adapters[0]));
+	}
+	
+	/**
+	 * Changes made outside the adapter are picked up by a reconciliation, and
+	 * changes made through it during the walk are kept.
+	 */
+	public void testReconcile() throws Exception {
+		
+		SpaceRestrictedFileFactoryAdapter adapter = createAdapter(Long.MAX_VALUE, new DiskUsageTracker());
+		write(adapter.getFile("a.bin"), 1000, false);
+		
+		Files.write(new File(root, "external.bin").toPath(), new byte[500]);
+		assertEquals(1000, getUsage(adapter));
+		
+		adapter.getTracker().reconcile(direct.getDefaultPath());
+		assertEquals(1500, getUsage(adapter));
+	}
+	
+	/**
+	 * A new tracker seeds its usage from the snapshot rather than the file system.
+	 */
+	public void testSnapshot() throws Exception {
+		
+		File snapshot = File.createTempFile("quota", ".usage");
+		snapshot.delete();
+		try {
+			DiskUsageTracker tracker = new DiskUsageTracker();
+			tracker.setSnapshot(snapshot);
+			SpaceRestrictedFileFactoryAdapter adapter = createAdapter(Long.MAX_VALUE, tracker);
+			write(adapter.getFile("a.bin"), 1000, false);
+			assertTrue(snapshot.exists());
+			
+			Files.write(new File(root, "external.bin").toPath(), new byte[500]);
+			
+			DiskUsageTracker restored = new DiskUsageTracker();
+			restored.setSnapshot(snapshot);
+			assertEquals(1000, getUsage(createAdapter(Long.MAX_VALUE, restored)));
+		} finally {
+			snapshot.delete();
+		}
+	}
+}
@@ -27,12 +27,14 @@ import java.util.concurrent.ThreadFactory;
 import com.sshtools.common.ssh.Context;
 import com.sshtools.common.ssh.components.ComponentManager;
 import com.sshtools.common.ssh.components.jce.JCEComponentManager;
+import com.sshtools.common.util.ByteArrayPool;
 import com.sshtools.common.util.ByteBufferPool;
 
 public class MockContext implements Context {
 
 	Map<Class<?>, Object> policy = new HashMap<>();
 	ByteBufferPool bbp = new ByteBufferPool();
+	ByteArrayPool bap = new ByteArrayPool();
 	ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
         public Thread newThread(Runnable r) {
             Thread t = Executors.defaultThreadFactory().newThread(r);
@@ -79,6 +81,11 @@ public class MockContext implements Context {
 		return bbp;
 	}
 
+	@Override
+	public ByteArrayPool getMessagePool() {
+		return bap;
+	}
+
 	@Override
 	public ComponentManager getComponentManager() {
 		return JCEComponentManager.getDefaultInstance();
@@ -41,4 +41,9 @@ public abstract class AbstractLoggingContext implements LoggerContext {
 		return level;
 	}
 
+	@Override
+	public Level getMaximumLevel() {
+		return level;
+	}
+
 }
@@ -0,0 +1,352 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sshtools.common.logger.Log.Level;
+import com.sshtools.common.util.IOUtils;
+import com.sshtools.common.util.RandomAccessOutputStream;
+
+/**
+ * A file logging context that never blocks the caller. Messages are placed in a
+ * preallocated ring buffer and formatted, written and flushed in batches by a
+ * background thread, which also rolls the log file. When the buffer is full
+ * messages are dropped rather than waiting; the number dropped is available from
+ * {@link #getDroppedMessages()} and is also reported in the log.
+ */
+public class AsyncFileLoggingContext extends AbstractLoggingContext {
+
+	static final int LOG = 0;
+	static final int RAW = 1;
+	static final int NEWLINE = 2;
+	static final int BATCH_SIZE = 1024;
+	
+	final Entry[] entries;
+	final AtomicLongArray sequences;
+	final int mask;
+	final AtomicLong tail = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	long head;
+	long droppedReported;
+	
+	BufferedWriter currentWriter = null;
+	RandomAccessFile currentFile = null;
+	
+	long maxSize;
+	int maxFiles;
+	File logFile;
+	volatile boolean logging = true;
+	volatile boolean closed = false;
+	volatile boolean sleeping = false;
+	Thread writer;
+	Thread shutdownHook;
+
+	public AsyncFileLoggingContext(Level level, File logFile) throws IOException {
+		this(level, logFile, 10, 1024 * 1024 * 20L, 8192);
+	}
+	
+	public AsyncFileLoggingContext(Level level, File logFile, int maxFiles, long maxSize, int bufferSize) throws IOException {
+		super(level);
+		this.logFile = logFile;
+		if(!logFile.exists()) {
+			logFile.getParentFile().mkdirs();
+		}
+		this.maxFiles = maxFiles;
+		this.maxSize = maxSize;
+		
+		int capacity = 2;
+		while(capacity < bufferSize) {
+			capacity <<= 1;
+		}
+		entries = new Entry[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++) {
+			entries[i] = new Entry();
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+		
+		createLogFile();
+		
+		writer = new Thread("MaverickAsyncLogger") {
+			public void run() {
+				writeEntries();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		
+		shutdownHook = new Thread() {
+			public void run() {
+				close();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	private void createLogFile() throws IOException {
+		currentFile = new RandomAccessFile(logFile, "rw");
+		currentFile.seek(currentFile.length());
+		currentWriter = new BufferedWriter(new OutputStreamWriter(new RandomAccessOutputStream(currentFile)), 65536);
+		log(Level.INFO, String.format("Logging file %s", logFile.getAbsolutePath()), null);
+	}
+
+	@Override
+	public boolean isLogging(Level level) {
+		return logging && super.isLogging(level);
+	}
+	
+	@Override
+	public void log(Level level, String msg, Throwable e, Object... args) {
+		if(isLogging(level)) {
+			offer(LOG, level, msg, e, args);
+		}
+	}
+
+	@Override
+	public void raw(Level level, String msg) {
+		if(isLogging(level)) {
+			offer(RAW, level, msg, null, null);
+		}
+	}
+
+	@Override
+	public void newline() {
+		offer(NEWLINE, null, null, null, null);
+	}
+	
+	/**
+	 * Get the number of messages dropped because the buffer was full.
+	 * 
+	 * @return long
+	 */
+	public long getDroppedMessages() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Get the number of messages that can be waiting to be written.
+	 * 
+	 * @return int
+	 */
+	public int getBufferSize() {
+		return entries.length;
+	}
+
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		if(Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch(IllegalStateException e) {
+				// Already shutting down
+			}
+		}
+		LockSupport.unpark(writer);
+		if(Thread.currentThread() != writer) {
+			try {
+				writer.join(5000);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+	
+	private void offer(int type, Level level, String msg, Throwable e, Object[] args) {
+		
+		if(closed) {
+			return;
+		}
+		
+		long pos;
+		int idx;
+		for(;;) {
+			pos = tail.get();
+			idx = (int) pos & mask;
+			long diff = sequences.get(idx) - pos;
+			if(diff == 0) {
+				if(tail.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+			} else if(diff < 0) {
+				// Full, the writer has not yet released this slot
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		
+		Entry entry = entries[idx];
+		entry.type = type;
+		entry.timestamp = System.currentTimeMillis();
+		entry.threadName = Thread.currentThread().getName();
+		entry.level = level;
+		entry.msg = msg;
+		entry.e = e;
+		entry.args = args;
+		sequences.set(idx, pos + 1);
+		
+		if(sleeping) {
+			LockSupport.unpark(writer);
+		}
+	}
+	
+	private void writeEntries() {
+		
+		while(!closed) {
+			if(drain() > 0) {
+				continue;
+			}
+			sleeping = true;
+			if(!isAvailable() && !closed) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+			}
+			sleeping = false;
+		}
+		
+		drain();
+		IOUtils.closeStream(currentWriter);
+	}
+	
+	private boolean isAvailable() {
+		return sequences.get((int) head & mask) == head + 1;
+	}
+	
+	private int drain() {
+		
+		int count = 0;
+		while(isAvailable()) {
+			int idx = (int) head & mask;
+			Entry entry = entries[idx];
+			write(entry);
+			entry.clear();
+			sequences.lazySet(idx, head + entries.length);
+			head++;
+			count++;
+			if((count % BATCH_SIZE) == 0) {
+				flush();
+			}
+		}
+		
+		if(count > 0) {
+			flush();
+		}
+		return count;
+	}
+	
+	private void flush() {
+		
+		if(!logging) {
+			return;
+		}
+		
+		try {
+			long d = dropped.get();
+			if(d > droppedReported) {
+				currentWriter.write(DefaultLoggerContext.prepareLog(System.currentTimeMillis(), 
+						writer.getName(), Level.WARN, "%d log messages were dropped because the buffer was full", 
+						null, d - droppedReported));
+				droppedReported = d;
+			}
+			currentWriter.flush();
+			checkRollingLog();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+	
+	private void write(Entry entry) {
+		
+		if(!logging) {
+			return;
+		}
+		
+		try {
+			switch(entry.type) {
+			case RAW:
+				currentWriter.write(DefaultLoggerContext.prepareLog(entry.timestamp, 
+						entry.threadName, entry.level, "", null));
+				currentWriter.write(entry.msg);
+				break;
+			case NEWLINE:
+				currentWriter.write(System.lineSeparator());
+				break;
+			default:
+				currentWriter.write(DefaultLoggerContext.prepareLog(entry.timestamp, 
+						entry.threadName, entry.level, entry.msg, entry.e, entry.args));
+				break;
+			}
+		} catch (IOException e) {
+			failed(e);
+		} catch (RuntimeException e) {
+			// A bad format string must not stop the writer, record the raw message instead
+			try {
+				currentWriter.write(DefaultLoggerContext.prepareLog(entry.timestamp, 
+						entry.threadName, Level.WARN, "Could not format log message \"%s\": %s", null, 
+						entry.msg, e.getMessage()));
+			} catch (IOException ex) {
+				failed(ex);
+			}
+		}
+	}
+	
+	private void failed(IOException e) {
+		if(!logging) {
+			return;
+		}
+		logging = false;
+		System.err.println(String.format("Failed to log to %s", logFile.getName()));
+		e.printStackTrace();
+	}
+	
+	private void checkRollingLog() throws IOException {
+		if(currentFile.length() > maxSize) {
+			IOUtils.closeStream(currentWriter);
+			IOUtils.rollover(logFile, maxFiles);
+			createLogFile();
+		}
+	}
+	
+	static class Entry {
+		int type;
+		long timestamp;
+		String threadName;
+		Level level;
+		String msg;
+		Throwable e;
+		Object[] args;
+		
+		void clear() {
+			threadName = null;
+			msg = null;
+			e = null;
+			args = null;
+		}
+	}
+}
@@ -32,11 +32,11 @@ import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
@@ -47,7 +47,8 @@ import com.sshtools.common.util.IOUtils;
 
 public class DefaultLoggerContext implements RootLoggerContext {
 
-	Collection<LoggerContext> contexts = new ArrayList<>();
+	Collection<LoggerContext> contexts = new CopyOnWriteArrayList<>();
+	volatile Level maximumLevel = Level.NONE;
 	static DateFormat df = new SimpleDateFormat("dd MMM yyyy HH:mm:ss,SSS");
 	Properties props; 
 	File propertiesFile;
@@ -118,12 +119,22 @@ public class DefaultLoggerContext implements RootLoggerContext {
 		}
 		
 		if("true".equalsIgnoreCase(getProperty("maverick.log.file", "false"))) {
-			enableFile(Level.valueOf(getProperty("maverick.log.file.level", "INFO")),
-					new File(getProperty("maverick.log.file.path", "synergy.log")),
-					Integer.parseInt(getProperty("maverick.log.file.maxFiles", "10")),
-					IOUtils.fromByteSize(getProperty("maverick.log.file.maxSize", "20MB")));
+			if("true".equalsIgnoreCase(getProperty("maverick.log.file.async", "false"))) {
+				enableAsyncFile(Level.valueOf(getProperty("maverick.log.file.level", "INFO")),
+						new File(getProperty("maverick.log.file.path", "synergy.log")),
+						Integer.parseInt(getProperty("maverick.log.file.maxFiles", "10")),
+						IOUtils.fromByteSize(getProperty("maverick.log.file.maxSize", "20MB")),
+						Integer.parseInt(getProperty("maverick.log.file.bufferSize", "8192")));
+			} else {
+				enableFile(Level.valueOf(getProperty("maverick.log.file.level", "INFO")),
+						new File(getProperty("maverick.log.file.path", "synergy.log")),
+						Integer.parseInt(getProperty("maverick.log.file.maxFiles", "10")),
+						IOUtils.fromByteSize(getProperty("maverick.log.file.maxSize", "20MB")));
+			}
 		}
 		
+		contextsChanged();
+		
 		log(Level.INFO, "Reloaded logging configuration %s [%s]", null, propertiesFile.getName(), propertiesFile.getAbsolutePath());
 	}
 	
@@ -136,6 +147,7 @@ public class DefaultLoggerContext implements RootLoggerContext {
 		}
 		if(enable) {
 			contexts.add(new ConsoleLoggingContext(level));
+			contextsChanged();
 			log(Level.INFO, "Console logging enabled", null);
 		}
 	}
@@ -147,6 +159,7 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	public synchronized void enableFile(Level level, File logFile) {
 		try {
 			contexts.add(new FileLoggingContext(level, logFile));
+			contextsChanged();
 		} catch (IOException e) {
 			System.err.println("Error logging to file");
 			e.printStackTrace();
@@ -156,14 +169,53 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	public synchronized void enableFile(Level level, File logFile, int maxFiles, long maxSize) {
 		try {
 			contexts.add(new FileLoggingContext(level, logFile, maxFiles, maxSize));
+			contextsChanged();
+		} catch (IOException e) {
+			System.err.println("Error logging to file");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Log to a file from a background thread so that logging never blocks the caller.
+	 * 
+	 * @param level
+	 * @param logFile
+	 * @param maxFiles
+	 * @param maxSize
+	 * @param bufferSize number of messages that can be waiting to be written
+	 */
+	public synchronized void enableAsyncFile(Level level, File logFile, int maxFiles, long maxSize, int bufferSize) {
+		try {
+			contexts.add(new AsyncFileLoggingContext(level, logFile, maxFiles, maxSize, bufferSize));
+			contextsChanged();
 		} catch (IOException e) {
 			System.err.println("Error logging to file");
 			e.printStackTrace();
 		}
 	}
 	
+	private void contextsChanged() {
+		Level level = Level.NONE;
+		for(LoggerContext context : contexts) {
+			if(context.getMaximumLevel().ordinal() > level.ordinal()) {
+				level = context.getMaximumLevel();
+			}
+		}
+		maximumLevel = level;
+		Log.refreshLevels();
+	}
+	
 	@Override
-	public synchronized boolean isLogging(Level level) {
+	public Level getMaximumLevel() {
+		return maximumLevel;
+	}
+	
+	@Override
+	public boolean isLogging(Level level) {
+		if(level.ordinal() > maximumLevel.ordinal()) {
+			return false;
+		}
 		for(LoggerContext context : contexts) {
 			if(context.isLogging(level)) {
 				return true;
@@ -173,9 +225,17 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 
 	public static String prepareLog(Level level, String msg, Throwable e, Object... args) {
+		return prepareLog(System.currentTimeMillis(), Thread.currentThread().getName(), level, msg, e, args);
+	}
+	
+	static String prepareLog(long timestamp, String threadName, Level level, String msg, Throwable e, Object... args) {
+		String date;
+		synchronized(df) {
+			date = df.format(new Date(timestamp));
+		}
 		String log = String.format("%s [%20s] %6s - %s%s", 
-				df.format(new Date()), 
-				Thread.currentThread().getName(),
+				date, 
+				threadName,
 				level.name(), 
 				String.format(processArgs(msg, args), args),
 				System.lineSeparator());
@@ -201,14 +261,14 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 
 	@Override
-	public synchronized void log(Level level, String msg, Throwable e, Object... args) {
+	public void log(Level level, String msg, Throwable e, Object... args) {
 		for(LoggerContext context : contexts) {
 			context.log(level, msg, e, args);
 		}
 	}
 
 	@Override
-	public synchronized void raw(Level level, String msg) {
+	public void raw(Level level, String msg) {
 		for(LoggerContext context : contexts) {
 			context.raw(level, msg);
 		}
@@ -285,7 +345,7 @@ public class DefaultLoggerContext implements RootLoggerContext {
 	}
 
 	@Override
-	public synchronized void newline() {
+	public void newline() {
 		for(LoggerContext context : contexts) {
 			context.newline();
 		}
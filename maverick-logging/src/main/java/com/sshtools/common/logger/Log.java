@@ -18,18 +18,32 @@
  */
 package com.sshtools.common.logger;
 
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Log {
 
 	
-	static RootLoggerContext defaultContext = null;
+	static volatile RootLoggerContext defaultContext = null;
 	static ThreadLocal<LoggerContext> currentContext = new ThreadLocal<LoggerContext>();
+	static List<LoggerContext> threadContexts = new CopyOnWriteArrayList<LoggerContext>();
+	
+	/**
+	 * The most detailed level any context may log at. Levels above it are rejected
+	 * with a single volatile read and no context lookup.
+	 */
+	static volatile int maximumLevel = Level.TRACE.ordinal();
 	
 	public static RootLoggerContext getDefaultContext() {
+		RootLoggerContext ctx = defaultContext;
+		if(ctx!=null) {
+			return ctx;
+		}
 		synchronized(Log.class) {
 			if(defaultContext==null) {
 				defaultContext = new DefaultLoggerContext();
+				refreshLevels();
 			}
 			return defaultContext;
 		}
@@ -42,7 +56,22 @@ public class Log {
 	public static void setDefaultContext(RootLoggerContext loggerContext) {
 		synchronized(Log.class) {
 			defaultContext = loggerContext;
+			refreshLevels();
+		}
+	}
+	
+	/**
+	 * Recalculate the cached maximum level from the default context and every
+	 * context that has been set up as a thread's current context. Contexts call
+	 * this when their levels change.
+	 */
+	public static synchronized void refreshLevels() {
+		RootLoggerContext root = defaultContext;
+		int level = Objects.isNull(root) ? Level.TRACE.ordinal() : root.getMaximumLevel().ordinal();
+		for(LoggerContext ctx : threadContexts) {
+			level = Math.max(level, ctx.getMaximumLevel().ordinal());
 		}
+		maximumLevel = level;
 	}
 	
 	public static void enableConsole(Level level) {
@@ -60,6 +89,10 @@ public class Log {
 	
 	public static void setupCurrentContext(LoggerContext context) {
 		currentContext.set(context);
+		if(!threadContexts.contains(context)) {
+			threadContexts.add(context);
+			refreshLevels();
+		}
 	}
 	
 	public static void clearCurrentContext() {
@@ -87,6 +120,9 @@ public class Log {
 	}
 
 	public static boolean isLevelEnabled(Level level) {
+		if(level.ordinal() > maximumLevel) {
+			return false;
+		}
 		LoggerContext ctx = currentContext.get();
 		if((!Objects.isNull(ctx) && ctx.isLogging(level))) {
 			return ctx.isLogging(level);
@@ -137,6 +173,9 @@ public class Log {
 
 	protected static void log(Level level, String msg, Throwable e, Object... args) {
 		
+		if(level.ordinal() > maximumLevel) {
+			return;
+		}
 		LoggerContext ctx = currentContext.get();
 		if(!Objects.isNull(ctx) && ctx.isLogging(level)) {
 			contextLog(ctx, level, msg, e, args);
@@ -32,4 +32,16 @@ public interface LoggerContext {
 
 	void newline();
 
+	/**
+	 * The most detailed level this context may currently log at. {@link Log} caches
+	 * this to reject disabled levels without consulting the context, so a context
+	 * whose levels change must call {@link Log#refreshLevels()}. The default assumes
+	 * every level may be logged.
+	 * 
+	 * @return level
+	 */
+	default Level getMaximumLevel() {
+		return Level.TRACE;
+	}
+
 }
@@ -35,6 +35,7 @@ import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshContext;
 import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.PooledByteArray;
 
 public class CallbackForwardingChannel<T extends SshContext> extends ForwardingChannel<T> {
 
@@ -219,11 +220,18 @@ public class CallbackForwardingChannel<T extends SshContext> extends ForwardingC
 	
 	@Override
 	protected void onChannelData(ByteBuffer data) {
+		PooledByteArray message = retainChannelData();
 		con.addTask(CHANNEL_QUEUE, new ConnectionAwareTask(con) {
 
 			@Override
 			protected void doTask() throws Throwable {
-				channel.sendChannelDataAndBlock(data);
+				try {
+					channel.sendChannelDataAndBlock(data);
+				} finally {
+					if(message != null) {
+						message.release();
+					}
+				}
 				evaluateWindowSpace();
 			}
 		});
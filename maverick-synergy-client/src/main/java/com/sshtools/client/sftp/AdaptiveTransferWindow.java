@@ -0,0 +1,255 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.logger.Log;
+
+/**
+ * Tunes the number of outstanding requests and the block size of a pipelined
+ * SFTP transfer from the throughput and round trip times measured while it
+ * runs, in a similar way to TCP congestion control.
+ * 
+ * <p>Throughput is measured over rounds of at least one window of responses.
+ * The window starts from the configured values and grows, doubling at first, for
+ * as long as each step improves throughput. A step that does not help is undone,
+ * since the extra requests only wait in a queue on the server, and the window
+ * then holds before probing again, alternately with more requests and with
+ * larger blocks. The block size never exceeds the packet length the channel
+ * permits, and the bytes in flight never exceed the channel window.</p>
+ */
+public class AdaptiveTransferWindow {
+
+	static final int MINIMUM_BLOCKSIZE = 4096;
+	static final int MINIMUM_REQUESTS = 2;
+	static final int MAXIMUM_REQUESTS = 1024;
+	static final long MINIMUM_ROUND = 10000000L;
+	static final int HOLD_ROUNDS = 8;
+	
+	int blocksize;
+	int requests;
+	int maximumBlocksize;
+	long maximumWindowBytes;
+	
+	int previousBlocksize;
+	int previousRequests;
+	boolean probing;
+	boolean probeBlocksize;
+	boolean slowStart = true;
+	int holdRounds;
+	
+	long minimumRoundTrip = Long.MAX_VALUE;
+	long smoothedRoundTrip;
+	int responses;
+	long roundBytes;
+	long roundStarted = System.nanoTime();
+	long throughput;
+	long bestThroughput;
+	
+	FileTransferProgress progress;
+	
+	/**
+	 * Create a window starting from the configured block size and request count.
+	 * 
+	 * @param blocksize
+	 *            the initial block size
+	 * @param outstandingRequests
+	 *            the initial number of outstanding requests
+	 * @param maximumBlocksize
+	 *            the largest block size that fits in a channel packet
+	 * @param maximumWindowBytes
+	 *            the largest number of bytes that may be in flight at once
+	 * @param progress
+	 *            notified of the parameters whenever they change, may be null
+	 */
+	public AdaptiveTransferWindow(int blocksize, int outstandingRequests, int maximumBlocksize, 
+			long maximumWindowBytes, FileTransferProgress progress) {
+		this.maximumBlocksize = Math.max(MINIMUM_BLOCKSIZE, maximumBlocksize);
+		this.maximumWindowBytes = Math.max(maximumWindowBytes, this.maximumBlocksize * MINIMUM_REQUESTS);
+		this.blocksize = Math.max(MINIMUM_BLOCKSIZE, Math.min(blocksize, this.maximumBlocksize));
+		this.requests = Math.max(MINIMUM_REQUESTS, Math.min(outstandingRequests, getRequestLimit(this.blocksize)));
+		this.progress = progress;
+		notifyProgress();
+	}
+	
+	/**
+	 * The block size to use for the next request.
+	 */
+	public synchronized int getBlockSize() {
+		return blocksize;
+	}
+	
+	/**
+	 * The number of requests that may be outstanding.
+	 */
+	public synchronized int getOutstandingRequests() {
+		return requests;
+	}
+	
+	/**
+	 * The smoothed round trip time in microseconds.
+	 */
+	public synchronized long getRoundTrip() {
+		return smoothedRoundTrip / 1000;
+	}
+	
+	/**
+	 * The lowest round trip time seen in microseconds.
+	 */
+	public synchronized long getMinimumRoundTrip() {
+		return minimumRoundTrip == Long.MAX_VALUE ? 0 : minimumRoundTrip / 1000;
+	}
+	
+	/**
+	 * The throughput measured over the last round in bytes per second.
+	 */
+	public synchronized long getThroughput() {
+		return throughput;
+	}
+	
+	/**
+	 * Lower the maximum block size, for example when the server returns less data
+	 * than requested.
+	 * 
+	 * @param maximumBlocksize
+	 */
+	public synchronized void limitBlockSize(int maximumBlocksize) {
+		if(maximumBlocksize >= MINIMUM_BLOCKSIZE && maximumBlocksize < this.maximumBlocksize) {
+			this.maximumBlocksize = maximumBlocksize;
+			if(blocksize > maximumBlocksize) {
+				blocksize = maximumBlocksize;
+				notifyProgress();
+			}
+			previousBlocksize = Math.min(previousBlocksize, maximumBlocksize);
+		}
+	}
+	
+	/**
+	 * Record the response to a request.
+	 * 
+	 * @param sent
+	 *            the value of {@link System#nanoTime()} when the request was sent
+	 * @param bytes
+	 *            the number of bytes the request transferred
+	 */
+	public synchronized void responseReceived(long sent, int bytes) {
+		
+		long now = System.nanoTime();
+		long roundTrip = Math.max(1, now - sent);
+		
+		minimumRoundTrip = Math.min(minimumRoundTrip, roundTrip);
+		smoothedRoundTrip = smoothedRoundTrip == 0 ? roundTrip : (7 * smoothedRoundTrip + roundTrip) / 8;
+		roundBytes += bytes;
+		
+		if(++responses < requests || now - roundStarted < MINIMUM_ROUND) {
+			return;
+		}
+		
+		throughput = roundBytes * 1000000000L / (now - roundStarted);
+		responses = 0;
+		roundBytes = 0;
+		roundStarted = now;
+		
+		adjust();
+	}
+	
+	void adjust() {
+		
+		int currentBlocksize = blocksize;
+		int currentRequests = requests;
+		
+		if(throughput > bestThroughput + bestThroughput / 20) {
+			bestThroughput = throughput;
+			if(probing || slowStart) {
+				// The last step helped, take another
+				grow();
+			} 
+		} else if(probing) {
+			/**
+			 * The last step made no difference, so the extra data in flight
+			 * is only queueing. Go back and hold for a while.
+			 */
+			blocksize = previousBlocksize;
+			requests = previousRequests;
+			probing = false;
+			slowStart = false;
+			probeBlocksize = !probeBlocksize;
+			holdRounds = 0;
+		} else {
+			slowStart = false;
+			if(++holdRounds >= HOLD_ROUNDS) {
+				/**
+				 * Forget the best throughput gradually so that the window 
+				 * follows a link that has become slower, and probe again.
+				 */
+				bestThroughput -= bestThroughput / 8;
+				holdRounds = 0;
+				grow();
+			}
+		}
+		
+		if(blocksize != currentBlocksize || requests != currentRequests) {
+			if(Log.isDebugEnabled()) {
+				Log.debug(String.format("Adjusted SFTP pipeline blocksize=%d outstandingRequests=%d rtt=%dus throughput=%d",
+						blocksize, requests, smoothedRoundTrip / 1000, throughput));
+			}
+			notifyProgress();
+		}
+	}
+	
+	void grow() {
+		
+		int nextBlocksize = blocksize;
+		int nextRequests = requests;
+		
+		if(probeBlocksize || requests >= getRequestLimit(blocksize)) {
+			if(blocksize < maximumBlocksize) {
+				nextBlocksize = Math.min(maximumBlocksize, blocksize * 2);
+				nextRequests = Math.max(MINIMUM_REQUESTS, Math.min(requests, getRequestLimit(nextBlocksize)));
+			} else {
+				probeBlocksize = false;
+			}
+		} 
+		
+		if(nextBlocksize == blocksize) {
+			nextRequests = Math.min(getRequestLimit(blocksize), 
+					slowStart ? requests * 2 : requests + Math.max(1, requests / 4));
+		}
+		
+		if(nextBlocksize != blocksize || nextRequests != requests) {
+			previousBlocksize = blocksize;
+			previousRequests = requests;
+			blocksize = nextBlocksize;
+			requests = nextRequests;
+			probing = true;
+		} else {
+			probing = false;
+		}
+	}
+	
+	int getRequestLimit(int blocksize) {
+		return (int) Math.max(MINIMUM_REQUESTS, Math.min(MAXIMUM_REQUESTS, maximumWindowBytes / blocksize));
+	}
+	
+	void notifyProgress() {
+		if(progress != null) {
+			progress.adjusted(blocksize, requests, smoothedRoundTrip / 1000);
+		}
+	}
+}
@@ -0,0 +1,529 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileRandomAccess;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * Transfers a single file as a set of fixed size ranges spread over several
+ * {@link SftpChannel}s opened on the same connection. Each channel has its own
+ * window and its own queue on the server, so the throughput of a large file is
+ * no longer limited by what a single channel can keep in flight. Local data is
+ * read and written with positional I/O so the ranges can complete in any order.
+ * 
+ * <p>Resuming follows the rules of the single channel transfers in {@link SftpClient}:
+ * it fails with {@link SftpStatusException#INVALID_RESUME_STATE} when the destination
+ * is already larger than the source. Unlike those transfers, which trust whatever is
+ * already at the destination and carry on from its end, a range that already exists
+ * at the destination is only skipped if its MD5 hash matches the source, so a
+ * destination that was modified is repaired rather than appended to. After transfer
+ * each range can optionally be verified the same way. Both use the "md5-hash-handle"
+ * extension; if the server does not support it resumed transfers copy every range
+ * again.</p>
+ */
+class ParallelTransfer {
+
+	static final int POOL_SIZE = Integer.getInteger("maverick.parallelTransferPoolSize", 32);
+	
+	static ExecutorService executor;
+	
+	/**
+	 * The workers of every parallel transfer run on one shared pool. When more
+	 * workers are wanted than there are threads free the rest queue; they start
+	 * once a thread is released and simply return if every chunk has been taken.
+	 */
+	static synchronized ExecutorService getExecutor() {
+		if(executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ParallelTransfer-worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+	
+	final SshConnection con;
+	final SftpChannel primary;
+	final int channels;
+	final long chunkSize;
+	final int blocksize;
+	final int asyncRequests;
+	final boolean resume;
+	final boolean verify;
+	final boolean adaptive;
+	final FileTransferProgress progress;
+	
+	AbstractFileRandomAccess local;
+	String remotePath;
+	long length;
+	long existingLength;
+	boolean upload;
+	int chunks;
+	
+	AtomicInteger nextChunk = new AtomicInteger();
+	AtomicLong endOfFile = new AtomicLong(Long.MAX_VALUE);
+	volatile boolean failed;
+	volatile boolean hashUnsupported;
+	long transfered;
+	
+	ParallelTransfer(SshConnection con, SftpChannel primary, int channels, long chunkSize,
+			int blocksize, int asyncRequests, boolean resume, boolean verify, boolean adaptive, FileTransferProgress progress) {
+		this.con = con;
+		this.primary = primary;
+		this.channels = channels;
+		this.chunkSize = chunkSize;
+		this.blocksize = blocksize;
+		this.asyncRequests = asyncRequests;
+		this.resume = resume;
+		this.verify = verify;
+		this.adaptive = adaptive;
+		this.progress = progress;
+	}
+	
+	/**
+	 * Download a remote file into a local file.
+	 */
+	void download(String remotePath, SftpFileAttributes attrs, AbstractFile localFile) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		this.remotePath = remotePath;
+		this.length = attrs.getSize().longValue();
+		this.upload = false;
+		
+		if(resume && localFile.exists()) {
+			existingLength = localFile.length();
+			if(existingLength > length) {
+				throw new SftpStatusException(SftpStatusException.INVALID_RESUME_STATE,
+						"The local file size is greater than the remote file");
+			}
+		} else {
+			localFile.getOutputStream().close();
+		}
+		
+		local = localFile.openFile(true);
+		try {
+			local.setLength(length);
+			transfer();
+			long end = endOfFile.get();
+			if(end < length) {
+				if(Log.isDebugEnabled()) {
+					Log.debug(String.format("Truncating %s to %d bytes as the remote file has shrunk since the transfer started", 
+							localFile.getName(), end));
+				}
+				local.setLength(end);
+			}
+		} finally {
+			local.close();
+		}
+	}
+	
+	/**
+	 * Upload a local file to a remote file.
+	 */
+	void upload(AbstractFile localFile, String remotePath, SftpFileAttributes attrs) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		this.remotePath = remotePath;
+		this.length = localFile.length();
+		this.upload = true;
+		
+		SftpFileAttributes existing = null;
+		if(resume) {
+			try {
+				existing = primary.getAttributes(remotePath);
+			} catch(SftpStatusException e) {
+			}
+		}
+		
+		if(existing != null && existing.getSize().longValue() > length) {
+			throw new SftpStatusException(SftpStatusException.INVALID_RESUME_STATE,
+					"The remote file size is greater than the local file");
+		}
+		
+		int flags = SftpChannel.OPEN_CREATE | SftpChannel.OPEN_WRITE;
+		if(existing != null) {
+			existingLength = existing.getSize().longValue();
+		} else {
+			flags |= SftpChannel.OPEN_TRUNCATE;
+		}
+		primary.closeFile(primary.openFile(remotePath, flags, attrs));
+		
+		local = localFile.openFile(false);
+		try {
+			transfer();
+		} finally {
+			local.close();
+		}
+	}
+	
+	void transfer() throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		
+		chunks = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+		int workers = Math.min(channels, chunks);
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug(String.format("Starting parallel %s of %s length=%d chunks=%d channels=%d", 
+					upload ? "upload" : "download", remotePath, length, chunks, workers));
+		}
+		
+		if(progress != null) {
+			progress.started(length, remotePath);
+		}
+		
+		ExecutorService executor = getExecutor();
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			for(int i = 0; i < workers; i++) {
+				final boolean usePrimary = i == 0;
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try {
+							runWorker(usePrimary);
+						} catch(Exception e) {
+							failed = true;
+							throw e;
+						}
+						return null;
+					}
+				}));
+			}
+			
+			Throwable error = null;
+			for(Future<Void> result : results) {
+				try {
+					result.get();
+				} catch(ExecutionException e) {
+					if(error == null || error instanceof TransferCancelledException) {
+						error = e.getCause();
+					}
+				} catch(InterruptedException e) {
+					failed = true;
+					throw new SshException("The thread was interrupted", SshException.CHANNEL_FAILURE);
+				}
+			}
+			
+			if(error != null) {
+				throwError(error);
+			}
+		} finally {
+			if(failed) {
+				// Do not let queued workers open channels for a failed transfer
+				for(Future<Void> result : results) {
+					result.cancel(false);
+				}
+			}
+		}
+		
+		if(progress != null) {
+			progress.completed();
+		}
+	}
+	
+	void runWorker(boolean usePrimary) throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		if(!usePrimary && (failed || nextChunk.get() >= chunks)) {
+			// Queued behind other work until the chunks had all been taken
+			return;
+		}
+		
+		SftpChannel channel = usePrimary ? primary : new SftpChannel(con);
+		try {
+			int flags = SftpChannel.OPEN_READ;
+			if(upload) {
+				// Hashing a range of the remote file needs read access too
+				flags = (resume || verify) ? SftpChannel.OPEN_READ | SftpChannel.OPEN_WRITE : SftpChannel.OPEN_WRITE;
+			}
+			SftpFile file = channel.openFile(remotePath, flags);
+			/**
+			 * Each channel tunes its own pipeline; only the primary reports 
+			 * its parameters so the progress sees a single consistent series. 
+			 */
+			AdaptiveTransferWindow window = adaptive ? channel.createAdaptiveWindow(blocksize, 
+					asyncRequests, upload, usePrimary ? progress : null) : null;
+			try {
+				int chunk;
+				while(!failed && (chunk = nextChunk.getAndIncrement()) < chunks) {
+					long start = chunk * chunkSize;
+					long end = Math.min(length, start + chunkSize);
+					transferChunk(channel, window, file.getHandle(), start, end);
+				}
+			} finally {
+				channel.closeFile(file);
+			}
+		} finally {
+			if(!usePrimary) {
+				channel.close();
+			}
+		}
+	}
+	
+	void transferChunk(SftpChannel channel, AdaptiveTransferWindow window, byte[] handle, long start, long end) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		if(end <= existingLength && !hashUnsupported && isRangeEqual(channel, handle, start, end)) {
+			if(Log.isDebugEnabled()) {
+				Log.debug(String.format("Skipping range %d-%d of %s as it has already been transferred", start, end, remotePath));
+			}
+			progressed(end - start);
+			return;
+		}
+		
+		if(upload) {
+			writeRange(channel, window, handle, start, end);
+		} else {
+			readRange(channel, window, handle, start, end);
+		}
+		
+		if(verify && !isRangeEqual(channel, handle, start, end)) {
+			if(hashUnsupported) {
+				throw new SftpStatusException(SftpStatusException.SSH_FX_OP_UNSUPPORTED, 
+						"The server does not support the md5-hash-handle extension required to verify the transfer");
+			}
+			throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE, 
+					String.format("Verification of range %d-%d of %s failed", start, end, remotePath));
+		}
+	}
+	
+	void readRange(SftpChannel channel, AdaptiveTransferWindow window, byte[] handle, long start, long end) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		LinkedList<long[]> ranges = new LinkedList<long[]>();
+		long offset = start;
+		boolean eof = false;
+		
+		while(true) {
+			
+			while(!eof && offset < end && requests.size() < getOutstandingRequests(window)) {
+				int len = (int) Math.min(getBlockSize(window), end - offset);
+				requests.addLast(channel.postReadRequest(handle, offset, len));
+				ranges.addLast(new long[] { offset, len, System.nanoTime() });
+				offset += len;
+			}
+			
+			if(requests.isEmpty()) {
+				break;
+			}
+			
+			long[] range = ranges.removeFirst();
+			SftpMessage msg = channel.getResponse(requests.removeFirst());
+			try {
+				if(msg.getType() == SftpChannel.SSH_FXP_DATA) {
+					int dataLen = (int) msg.readInt();
+					if(window != null) {
+						window.responseReceived(range[2], dataLen);
+					}
+					local.write(range[0], ByteBuffer.wrap(msg.array(), msg.getPosition(), dataLen));
+					progressed(dataLen);
+					if(dataLen < range[1] && !eof) {
+						// Short read, request the remainder of the block
+						requests.addLast(channel.postReadRequest(handle, range[0] + dataLen, (int) range[1] - dataLen));
+						ranges.addLast(new long[] { range[0] + dataLen, range[1] - dataLen, System.nanoTime() });
+						if(window != null) {
+							window.limitBlockSize(dataLen);
+						}
+					}
+				} else if(msg.getType() == SftpChannel.SSH_FXP_STATUS) {
+					int status = (int) msg.readInt();
+					if(status == SftpStatusException.SSH_FX_EOF) {
+						// The file is shorter than when the transfer started
+						eof = true;
+						endOfFileAt(range[0]);
+						continue;
+					}
+					if(channel.getVersion() >= 3) {
+						throw new SftpStatusException(status, msg.readString());
+					}
+					throw new SftpStatusException(status);
+				} else {
+					throw new SshException("The server responded with an unexpected message", 
+							SshException.CHANNEL_FAILURE);
+				}
+			} finally {
+				msg.release();
+			}
+			
+			checkCancelled();
+		}
+	}
+	
+	void writeRange(SftpChannel channel, AdaptiveTransferWindow window, byte[] handle, long start, long end) 
+			throws SftpStatusException, SshException, TransferCancelledException, IOException {
+		
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		LinkedList<long[]> lengths = new LinkedList<long[]>();
+		byte[] buf = new byte[getBlockSize(window)];
+		long offset = start;
+		
+		while(offset < end || !requests.isEmpty()) {
+			
+			if(offset < end && requests.size() < getOutstandingRequests(window)) {
+				int len = (int) Math.min(getBlockSize(window), end - offset);
+				if(buf.length < len) {
+					buf = new byte[len];
+				}
+				readFully(offset, buf, len);
+				requests.addLast(channel.postWriteRequest(handle, offset, buf, 0, len));
+				lengths.addLast(new long[] { len, System.nanoTime() });
+				offset += len;
+				continue;
+			}
+			
+			long[] request = lengths.removeFirst();
+			channel.getOKRequestStatus(requests.removeFirst());
+			if(window != null) {
+				window.responseReceived(request[1], (int) request[0]);
+			}
+			progressed(request[0]);
+			checkCancelled();
+		}
+	}
+	
+	/**
+	 * Record that the remote file ends at or before the given offset. Reads 
+	 * complete in any order, so the lowest offset seen is the real end.
+	 */
+	void endOfFileAt(long offset) {
+		long current;
+		while(offset < (current = endOfFile.get())) {
+			if(endOfFile.compareAndSet(current, offset)) {
+				break;
+			}
+		}
+	}
+	
+	int getBlockSize(AdaptiveTransferWindow window) {
+		return window == null ? blocksize : window.getBlockSize();
+	}
+	
+	int getOutstandingRequests(AdaptiveTransferWindow window) {
+		return window == null ? asyncRequests : window.getOutstandingRequests();
+	}
+	
+	boolean isRangeEqual(SftpChannel channel, byte[] handle, long start, long end) throws SshException, IOException {
+		
+		if(hashUnsupported) {
+			return false;
+		}
+		
+		byte[] remoteHash;
+		try {
+			remoteHash = channel.getRemoteHash(handle, start, end - start, new byte[0]);
+		} catch(SftpStatusException e) {
+			if(e.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+				hashUnsupported = true;
+				return false;
+			}
+			throw new SshException(e);
+		}
+		
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte[] buf = new byte[Math.max(blocksize, 32768)];
+			for(long offset = start; offset < end; ) {
+				int len = (int) Math.min(buf.length, end - offset);
+				readFully(offset, buf, len);
+				md.update(buf, 0, len);
+				offset += len;
+			}
+			return Arrays.equals(remoteHash, md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new SshException(SshException.INTERNAL_ERROR, e);
+		}
+	}
+	
+	void readFully(long position, byte[] buf, int len) throws IOException {
+		ByteBuffer dst = ByteBuffer.wrap(buf, 0, len);
+		while(dst.hasRemaining()) {
+			if(local.read(position + dst.position(), dst) < 0) {
+				throw new EOFException("Unexpected end of local file at position " + (position + dst.position()));
+			}
+		}
+	}
+	
+	void progressed(long count) {
+		if(progress != null) {
+			synchronized(this) {
+				progress.progressed(transfered += count);
+			}
+		}
+	}
+	
+	void checkCancelled() throws TransferCancelledException {
+		if(failed) {
+			throw new TransferCancelledException();
+		}
+		if(progress != null && progress.isCancelled()) {
+			failed = true;
+			throw new TransferCancelledException();
+		}
+	}
+	
+	void throwError(Throwable error) throws SftpStatusException, SshException, TransferCancelledException, IOException, PermissionDeniedException {
+		if(error instanceof SftpStatusException) {
+			throw (SftpStatusException) error;
+		} else if(error instanceof SshException) {
+			throw (SshException) error;
+		} else if(error instanceof TransferCancelledException) {
+			throw (TransferCancelledException) error;
+		} else if(error instanceof IOException) {
+			throw (IOException) error;
+		} else if(error instanceof PermissionDeniedException) {
+			throw (PermissionDeniedException) error;
+		} else if(error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		}
+		throw new SshException(SshException.INTERNAL_ERROR, error);
+	}
+}
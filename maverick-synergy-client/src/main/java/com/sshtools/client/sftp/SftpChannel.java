@@ -20,21 +20,28 @@ package com.sshtools.client.sftp;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.tasks.AbstractSubsystem;
 import com.sshtools.client.tasks.FileTransferProgress;
-import com.sshtools.client.tasks.Message;
-import com.sshtools.client.tasks.MessageHolder;
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventServiceImplementation;
@@ -51,6 +58,7 @@ import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.common.util.ByteArrayWriter;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 
@@ -156,8 +164,7 @@ public class SftpChannel extends AbstractSubsystem {
 	int version = MAX_VERSION;
 	int serverVersion = -1;
 	UnsignedInteger32 requestId = new UnsignedInteger32(0);
-	Map<UnsignedInteger32, SftpMessage> responses = new HashMap<UnsignedInteger32, SftpMessage>();
-	SftpThreadSynchronizer sync = new SftpThreadSynchronizer();
+	Map<UnsignedInteger32, CompletableFuture<SftpMessage>> responses = new ConcurrentHashMap<UnsignedInteger32, CompletableFuture<SftpMessage>>();
 	Map<String, byte[]> extensions = new HashMap<String, byte[]>();
 
 	/**
@@ -193,6 +200,7 @@ public class SftpChannel extends AbstractSubsystem {
 	public SftpChannel(SshConnection con) throws SshException {
 		super(con);
 		con.setProperty("sftpVersion", initializeSftp(session));
+		startMessageDispatch();
 	}
 
 	public int getVersion() {
@@ -509,43 +517,126 @@ public class SftpChannel extends AbstractSubsystem {
 		return extensions.get(name);
 	}
 	
-	UnsignedInteger32 nextRequestId() {
+	synchronized UnsignedInteger32 nextRequestId() {
 		requestId = UnsignedInteger32.add(requestId, 1);
 		return requestId;
 	}
 	
 	public void close() {
-		responses.clear();
+		failResponses();
 		getSession().close();
 	}
 	
+	/**
+	 * Wait for the response to a request. 
+	 * 
+	 * @param requestId
+	 * @return SftpMessage
+	 * @throws SshException
+	 */
 	public SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
 
-		SftpMessage msg;
-		MessageHolder holder = new MessageHolder();
-		while (holder.msg == null) {
-			try {
-				// Read the next response message
-				if (sync.requestBlock(requestId, holder)) {
-					msg = new SftpMessage(nextMessage());
-					responses.put(new UnsignedInteger32(msg.getMessageId()),msg);
-					if(Log.isTraceEnabled()) {
-						Log.trace("There are " + responses.size() + " SFTP responses waiting to be processed");
-					}
+		CompletableFuture<SftpMessage> future = getResponseFuture(requestId);
+		try {
+			SftpMessage msg = future.get();
+			responses.remove(requestId, future);
+			return msg;
+		} catch (InterruptedException e) {
+			discardResponse(requestId, future);
+			close();
+			throw new SshException("The thread was interrupted",
+					SshException.CHANNEL_FAILURE);
+		} catch (ExecutionException e) {
+			responses.remove(requestId, future);
+			if(e.getCause() instanceof SshException) {
+				throw (SshException) e.getCause();
+			}
+			throw new SshException(SshException.INTERNAL_ERROR, e.getCause());
+		}
+	}
+	
+	/**
+	 * Give up waiting for a response. The future is left in place until the response
+	 * arrives, or the channel fails, so that a late response completes it rather than
+	 * being stored under its request id for nobody to collect. It is then removed and
+	 * the message released.
+	 */
+	void discardResponse(final UnsignedInteger32 requestId, final CompletableFuture<SftpMessage> future) {
+		future.whenComplete(new BiConsumer<SftpMessage, Throwable>() {
+			public void accept(SftpMessage msg, Throwable error) {
+				responses.remove(requestId, future);
+				if(msg != null) {
+					msg.release();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Get the future that is completed with the response to a request. Responses
+	 * are matched to their request as they arrive on the channel, so any number
+	 * of threads may wait for their own responses at the same time. The future
+	 * is completed on the thread that processes the channel data; actions that
+	 * block should be attached with one of the asynchronous methods of
+	 * {@link CompletableFuture}.
+	 * 
+	 * <p>The caller becomes responsible for the future; it is removed from the
+	 * channel once complete.</p>
+	 * 
+	 * @param requestId
+	 * @return CompletableFuture
+	 */
+	public CompletableFuture<SftpMessage> getResponseAsync(final UnsignedInteger32 requestId) {
+		final CompletableFuture<SftpMessage> future = getResponseFuture(requestId);
+		future.whenComplete(new BiConsumer<SftpMessage, Throwable>() {
+			public void accept(SftpMessage msg, Throwable error) {
+				responses.remove(requestId, future);
+			}
+		});
+		return future;
+	}
+	
+	CompletableFuture<SftpMessage> getResponseFuture(UnsignedInteger32 requestId) {
+		CompletableFuture<SftpMessage> future = responses.get(requestId);
+		if(future == null) {
+			CompletableFuture<SftpMessage> created = new CompletableFuture<SftpMessage>();
+			future = responses.putIfAbsent(requestId, created);
+			if(future == null) {
+				future = created;
+				if(isClosed()) {
+					created.completeExceptionally(new SshException("The channel unexpectedly terminated", 
+							SshException.CHANNEL_FAILURE));
 				}
-			} catch (InterruptedException e) {
-				close();
-				throw new SshException("The thread was interrupted",
-						SshException.CHANNEL_FAILURE);
-			} catch (IOException ex) {
-				throw new SshException(SshException.INTERNAL_ERROR, ex);
-			} finally {
-				sync.releaseBlock();
 			}
 		}
-
-		return (SftpMessage) responses.remove(requestId);
-
+		return future;
+	}
+	
+	@Override
+	protected void onMessage(byte[] msg) throws SshException {
+		try {
+			SftpMessage response = new SftpMessage(msg);
+			if(Log.isTraceEnabled()) {
+				Log.trace("Received SFTP response type=" + response.getType() + " requestId=" + response.getMessageId());
+			}
+			getResponseFuture(new UnsignedInteger32(response.getMessageId())).complete(response);
+		} catch (IOException e) {
+			throw new SshException(e);
+		}
+	}
+	
+	@Override
+	protected void onCloseSession(SessionChannelNG session) {
+		super.onCloseSession(session);
+		failResponses();
+	}
+	
+	void failResponses() {
+		SshException error = new SshException("The channel unexpectedly terminated", 
+				SshException.CHANNEL_FAILURE);
+		for(CompletableFuture<SftpMessage> future : responses.values()) {
+			future.completeExceptionally(error);
+		}
 	}
 	
 	/**
@@ -913,7 +1004,7 @@ public class SftpChannel extends AbstractSubsystem {
 					progress.progressed(transfered);
 				}
 				
-				Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>();
+				LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
 				// BufferedInputStream is not in J2ME, whatever type of input stream
 				// has been passed in can be used in conjunction with the abstract
 				// InputStream class.
@@ -925,7 +1016,7 @@ public class SftpChannel extends AbstractSubsystem {
 					if (buffered == -1)
 						break;
 	
-					requests.addElement(postWriteRequest(handle, transfered, buf,
+					requests.addLast(postWriteRequest(handle, transfered, buf,
 							0, buffered));
 	
 					transfered += buffered;
@@ -941,7 +1032,7 @@ public class SftpChannel extends AbstractSubsystem {
 				}
 
 				while(requests.size() > 0) {
-					getOKRequestStatus(requests.remove(0));
+					getOKRequestStatus(requests.removeFirst());
 				}
 			}
 
@@ -1117,8 +1208,7 @@ public class SftpChannel extends AbstractSubsystem {
 		long numBlocks = length / blocksize;
 		long osr = outstandingRequests;
 
-		Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>(
-				outstandingRequests);
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
 		long offset = position;
 
 		if (numBlocks < osr) {
@@ -1147,7 +1237,7 @@ public class SftpChannel extends AbstractSubsystem {
 			if(Log.isTraceEnabled())
 				Log.trace("Posting request for file offset " + offset);
 
-			requests.addElement(postReadRequest(handle, offset, blocksize));
+			requests.addLast(postReadRequest(handle, offset, blocksize));
 			offset += blocksize;
 
 			if (progress != null && progress.isCancelled()) {
@@ -1158,8 +1248,7 @@ public class SftpChannel extends AbstractSubsystem {
 		UnsignedInteger32 requestId;
 		int dataLen;
 		while (true) {
-			requestId = (UnsignedInteger32) requests.elementAt(0);
-			requests.removeElementAt(0);
+			requestId = requests.removeFirst();
 			SftpMessage bar = getResponse(requestId);
 			try {
 				if (bar.getType() == SSH_FXP_DATA) {
@@ -1223,7 +1312,7 @@ public class SftpChannel extends AbstractSubsystem {
 				if(Log.isTraceEnabled())
 					Log.trace("Posting request for file offset " + offset);
 
-				requests.addElement(postReadRequest(handle, offset,
+				requests.addLast(postReadRequest(handle, offset,
 						blocksize));
 				offset += blocksize;
 			}
@@ -1233,6 +1322,236 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Create an {@link AdaptiveTransferWindow} for a transfer on this channel,
+	 * bounded by the packet length and window size of the direction the data
+	 * flows in.
+	 * 
+	 * @param blocksize
+	 *            the initial block size
+	 * @param outstandingRequests
+	 *            the initial number of outstanding requests
+	 * @param write
+	 *            true if the data is sent to the server, false if it is read from it
+	 * @param progress
+	 *            notified of the parameters chosen, may be null
+	 * @return AdaptiveTransferWindow
+	 */
+	public AdaptiveTransferWindow createAdaptiveWindow(int blocksize, int outstandingRequests, 
+			boolean write, FileTransferProgress progress) {
+		if(write) {
+			/**
+			 * SSH_FXP_WRITE overhead including the largest handle permitted 
+			 */
+			return new AdaptiveTransferWindow(blocksize, outstandingRequests, 
+					getSession().getMaximumRemotePacketLength() - 25 - 256, 
+					getMaximumRemoteWindowSize(), progress);
+		} else {
+			/**
+			 * SSH_FXP_DATA overhead
+			 */
+			return new AdaptiveTransferWindow(blocksize, outstandingRequests, 
+					getSession().getMaximumLocalPacketLength() - 13, 
+					getMaximumLocalWindowSize(), progress);
+		}
+	}
+	
+	/**
+	 * Performs a pipelined read of a file where the block size and number of
+	 * outstanding requests are tuned by an {@link AdaptiveTransferWindow} as the
+	 * transfer progresses. The file is read until the server reports the end of
+	 * the file; the length is used only to avoid posting requests beyond it.
+	 * 
+	 * @param handle
+	 *            the open files handle
+	 * @param length
+	 *            the length of the file, or zero if it is not known
+	 * @param window
+	 *            the window controlling the pipeline
+	 * @param out
+	 *            an OutputStream to output the file into
+	 * @param progress
+	 * @param position
+	 *            the postition from which to start reading the file
+	 * @throws SshException
+	 */
+	public void performAdaptiveRead(byte[] handle, long length, AdaptiveTransferWindow window,
+			OutputStream out, FileTransferProgress progress, long position) 
+					throws SftpStatusException, SshException, TransferCancelledException {
+		
+		if (position < 0) {
+			throw new SshException(
+					"Position value must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		long limit = length <= 0 ? Long.MAX_VALUE : length;
+		long offset = position;
+		long transfered = 0;
+		boolean eof = false;
+		
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		LinkedList<long[]> pending = new LinkedList<long[]>();
+		
+		while(true) {
+			
+			while(!eof && (offset < limit || requests.isEmpty()) 
+					&& requests.size() < window.getOutstandingRequests()) {
+				int len = window.getBlockSize();
+				requests.addLast(postReadRequest(handle, offset, len));
+				pending.addLast(new long[] { offset, len, System.nanoTime() });
+				offset += len;
+			}
+			
+			if(requests.isEmpty()) {
+				break;
+			}
+			
+			long[] request = pending.removeFirst();
+			SftpMessage bar = getResponse(requests.removeFirst());
+			try {
+				if (bar.getType() == SSH_FXP_DATA) {
+					int dataLen = (int) bar.readInt();
+					window.responseReceived(request[2], dataLen);
+					if(eof) {
+						// The file ended before this block; discard it
+						continue;
+					}
+					out.write(bar.array(), bar.getPosition(), dataLen);
+					transfered += dataLen;
+					
+					if(dataLen < request[1]) {
+						/**
+						 * The server returned less than we asked for. Read the
+						 * remainder of the block now so the output stays in 
+						 * order; if there is any it tells us the largest 
+						 * block the server will return.
+						 */
+						long gap = request[0] + dataLen;
+						long gapEnd = request[0] + request[1];
+						byte[] tmp = new byte[(int) (gapEnd - gap)];
+						while(gap < gapEnd) {
+							int i = readFile(handle, new UnsignedInteger64(gap), tmp, 0, (int) (gapEnd - gap));
+							if(i <= 0) {
+								eof = true;
+								break;
+							}
+							window.limitBlockSize(dataLen);
+							out.write(tmp, 0, i);
+							transfered += i;
+							gap += i;
+						}
+					}
+					
+					if (progress != null) {
+						progress.progressed(transfered);
+					}
+				} else if (bar.getType() == SSH_FXP_STATUS) {
+					int status = (int) bar.readInt();
+					if (status == SftpStatusException.SSH_FX_EOF) {
+						eof = true;
+						continue;
+					}
+					if (version >= 3) {
+						throw new SftpStatusException(status, bar.readString());
+					}
+					throw new SftpStatusException(status);
+				} else {
+					throw new SshException(
+							"The server responded with an unexpected message",
+							SshException.CHANNEL_FAILURE);
+				}
+			} catch(IOException ex) {
+				throw new TransferCancelledException();
+			} finally {
+				bar.release();
+			}
+			
+			if (progress != null && progress.isCancelled()) {
+				throw new TransferCancelledException();
+			}
+		}
+	}
+	
+	/**
+	 * Performs a pipelined write of a file where the block size and number of
+	 * outstanding requests are tuned by an {@link AdaptiveTransferWindow} as the
+	 * transfer progresses.
+	 * 
+	 * @param handle
+	 *            the open file handle to write to
+	 * @param window
+	 *            the window controlling the pipeline
+	 * @param in
+	 *            the InputStream to read from
+	 * @param progress
+	 *            provides progress information, may be null.
+	 * @param position
+	 *            the position in the file to start writing to.
+	 * @throws SshException
+	 */
+	public void performAdaptiveWrite(byte[] handle, AdaptiveTransferWindow window, 
+			InputStream in, FileTransferProgress progress, long position)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		
+		if (position < 0) {
+			throw new SshException(
+					"Position value must be greater than zero!",
+					SshException.BAD_API_USAGE);
+		}
+		
+		if (position > 0 && progress != null) {
+			progress.progressed(position);
+		}
+		
+		LinkedList<UnsignedInteger32> requests = new LinkedList<UnsignedInteger32>();
+		LinkedList<long[]> pending = new LinkedList<long[]>();
+		long transfered = position;
+		long acknowledged = position;
+		boolean eof = false;
+		byte[] buf = new byte[window.getBlockSize()];
+		
+		try {
+			while(!eof || !requests.isEmpty()) {
+				
+				if(!eof && requests.size() < window.getOutstandingRequests()) {
+					int len = window.getBlockSize();
+					if(buf.length < len) {
+						buf = new byte[len];
+					}
+					int buffered = 0;
+					while(buffered < len) {
+						int i = in.read(buf, buffered, len - buffered);
+						if(i == -1) {
+							eof = true;
+							break;
+						}
+						buffered += i;
+					}
+					if(buffered > 0) {
+						requests.addLast(postWriteRequest(handle, transfered, buf, 0, buffered));
+						pending.addLast(new long[] { buffered, System.nanoTime() });
+						transfered += buffered;
+					}
+					continue;
+				}
+				
+				long[] request = pending.removeFirst();
+				getOKRequestStatus(requests.removeFirst());
+				window.responseReceived(request[1], (int) request[0]);
+				acknowledged += request[0];
+				
+				if (progress != null) {
+					if (progress.isCancelled())
+						throw new TransferCancelledException();
+					progress.progressed(acknowledged);
+				}
+			}
+		} catch (IOException ex) {
+			throw new TransferCancelledException();
+		}
+	}
+
 	/**
 	 * Perform a synchronous read of a file from the remote file system. This
 	 * implementation waits for acknowledgement of every data packet before
@@ -2478,8 +2797,11 @@ public class SftpChannel extends AbstractSubsystem {
 			throws SftpStatusException, SshException {
 
 		SftpMessage bar = getResponse(requestId);
+		boolean reply = false;
 		try {
 			if (bar.getType() == SSH_FXP_EXTENDED_REPLY) {
+				// The caller reads from the reply so it must not go back to the pool
+				reply = true;
 				return bar;
 			} else if (bar.getType() == SSH_FXP_STATUS) {
 				int status = (int) bar.readInt();
@@ -2500,7 +2822,48 @@ public class SftpChannel extends AbstractSubsystem {
 		} catch (IOException ex) {
 			throw new SshException(ex);
 		} finally {
-			bar.release();
+			if(!reply) {
+				bar.release();
+			}
+		}
+	}
+	
+	/**
+	 * Get the MD5 hash of a range of an open file using the "md5-hash-handle"
+	 * extension.
+	 * 
+	 * @param handle
+	 *            the open file handle
+	 * @param offset
+	 *            the offset in the file to start hashing
+	 * @param length
+	 *            the number of bytes to hash, or zero to hash to the end of the file
+	 * @param quickCheck
+	 *            an optional hash of the first 2048 bytes of the range
+	 * @return byte[]
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	public byte[] getRemoteHash(byte[] handle, long offset, long length, byte[] quickCheck) throws SftpStatusException, SshException {
+		ByteArrayWriter msg = new ByteArrayWriter();
+		
+		try {
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeUINT64(length);
+			msg.writeBinaryString(quickCheck);
+	
+			SftpMessage resp = getExtensionResponse(sendExtensionMessage("md5-hash-handle", msg.toByteArray()));
+	
+			resp.readString();
+			return resp.readBinaryString();
+		} catch (IOException ex) {
+			throw new SshException(ex);
+		} finally {
+			try {
+				msg.close();
+			} catch (IOException e) {
+			}
 		}
 	}
 	
@@ -2537,6 +2900,299 @@ public class SftpChannel extends AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Send a request and return a future that completes with its response. If
+	 * the request cannot be sent the future completes exceptionally.
+	 * 
+	 * @param requestId
+	 * @param msg
+	 * @return CompletableFuture
+	 */
+	public CompletableFuture<SftpMessage> sendRequestAsync(UnsignedInteger32 requestId, Packet msg) {
+		final CompletableFuture<SftpMessage> future = getResponseAsync(requestId);
+		sendMessageAsync(msg).whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable error) {
+				if(error != null) {
+					future.completeExceptionally(new SshException(SshException.CHANNEL_FAILURE, error));
+				}
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Get the attributes of a file without blocking.
+	 * 
+	 * @param path
+	 * @return a future that completes with the file's attributes
+	 * @see #getAttributes(String)
+	 */
+	public CompletableFuture<SftpFileAttributes> statAsync(String path) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_STAT);
+			msg.writeInt(requestId.longValue());
+			msg.writeString(path, CHARSET_ENCODING);
+			if (version > 3) {
+				msg.writeInt(SftpFileAttributes.SSH_FILEXFER_ATTR_SIZE
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_PERMISSIONS
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_ACCESSTIME
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_CREATETIME
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_MODIFYTIME
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_ACL
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_OWNERGROUP
+						| SftpFileAttributes.SSH_FILEXFER_ATTR_SUBSECOND_TIMES);
+			}
+			
+			return sendRequestAsync(requestId, msg).thenApply(new Function<SftpMessage, SftpFileAttributes>() {
+				public SftpFileAttributes apply(SftpMessage bar) {
+					try {
+						return extractAttributes(bar);
+					} catch (SftpStatusException | SshException e) {
+						throw new CompletionException(e);
+					} finally {
+						bar.release();
+					}
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	/**
+	 * Read a block of data from an open file without blocking. The server may
+	 * return fewer bytes than requested.
+	 * 
+	 * @param handle
+	 *            the open file handle
+	 * @param offset
+	 *            the offset in the file to read from
+	 * @param len
+	 *            the number of bytes to read
+	 * @return a future that completes with the data read, or null at the end of
+	 *         the file
+	 * @see #readFile(byte[], UnsignedInteger64, byte[], int, int)
+	 */
+	public CompletableFuture<byte[]> readAsync(byte[] handle, long offset, int len) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_READ);
+			msg.writeInt(requestId.longValue());
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeInt(len);
+			
+			return sendRequestAsync(requestId, msg).thenApply(new Function<SftpMessage, byte[]>() {
+				public byte[] apply(SftpMessage bar) {
+					try {
+						if (bar.getType() == SSH_FXP_DATA) {
+							return bar.readBinaryString();
+						} else if (bar.getType() == SSH_FXP_STATUS) {
+							int status = (int) bar.readInt();
+							if (status == SftpStatusException.SSH_FX_EOF) {
+								return null;
+							}
+							if (version >= 3) {
+								throw new CompletionException(new SftpStatusException(status, bar.readString()));
+							}
+							throw new CompletionException(new SftpStatusException(status));
+						} else {
+							close();
+							throw new CompletionException(new SshException(
+									"The server responded with an unexpected message",
+									SshException.CHANNEL_FAILURE));
+						}
+					} catch (IOException e) {
+						throw new CompletionException(new SshException(e));
+					} finally {
+						bar.release();
+					}
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	/**
+	 * Write a block of data to an open file without blocking. The data is
+	 * copied before this method returns.
+	 * 
+	 * @param handle
+	 *            the open file handle
+	 * @param offset
+	 *            the offset in the file to write to
+	 * @param data
+	 * @param off
+	 * @param len
+	 * @return a future that completes when the server has acknowledged the write
+	 * @see #writeFile(byte[], UnsignedInteger64, byte[], int, int)
+	 */
+	public CompletableFuture<Void> writeAsync(byte[] handle, long offset, byte[] data, int off, int len) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_WRITE);
+			msg.writeInt(requestId.longValue());
+			msg.writeBinaryString(handle);
+			msg.writeUINT64(offset);
+			msg.writeBinaryString(data, off, len);
+			
+			return sendRequestAsync(requestId, msg).thenApply(new Function<SftpMessage, Void>() {
+				public Void apply(SftpMessage bar) {
+					try {
+						checkStatus(bar);
+						return null;
+					} finally {
+						bar.release();
+					}
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	/**
+	 * List the contents of a directory without blocking. The directory is
+	 * opened, read until the server reports the end of the listing and closed
+	 * again.
+	 * 
+	 * @param path
+	 *            the absolute path of the directory
+	 * @return a future that completes with the directory's children
+	 * @see #listChildren(SftpFile, List)
+	 */
+	public CompletableFuture<List<SftpFile>> listAsync(final String path) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_OPENDIR);
+			msg.writeInt(requestId.longValue());
+			msg.writeString(path, CHARSET_ENCODING);
+			
+			return sendRequestAsync(requestId, msg).thenCompose(new Function<SftpMessage, CompletableFuture<List<SftpFile>>>() {
+				public CompletableFuture<List<SftpFile>> apply(SftpMessage bar) {
+					byte[] handle;
+					try {
+						handle = getHandleResponse(bar);
+					} catch (SftpStatusException | SshException e) {
+						throw new CompletionException(e);
+					} finally {
+						bar.release();
+					}
+					return readDirectoryAsync(handle, path, new ArrayList<SftpFile>());
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	CompletableFuture<List<SftpFile>> readDirectoryAsync(final byte[] handle, final String path, final List<SftpFile> children) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_READDIR);
+			msg.writeInt(requestId.longValue());
+			msg.writeBinaryString(handle);
+			
+			return sendRequestAsync(requestId, msg).thenCompose(new Function<SftpMessage, CompletableFuture<List<SftpFile>>>() {
+				public CompletableFuture<List<SftpFile>> apply(SftpMessage bar) {
+					try {
+						if (bar.getType() == SSH_FXP_NAME) {
+							children.addAll(Arrays.asList(extractFiles(bar, path)));
+							return readDirectoryAsync(handle, path, children);
+						} else if (bar.getType() == SSH_FXP_STATUS) {
+							int status = (int) bar.readInt();
+							if(status == SftpStatusException.SSH_FX_EOF) {
+								return closeHandleAsync(handle).thenApply(new Function<Void, List<SftpFile>>() {
+									public List<SftpFile> apply(Void result) {
+										return children;
+									}
+								});
+							}
+							closeHandleAsync(handle);
+							if (version >= 3) {
+								throw new CompletionException(new SftpStatusException(status, bar.readString()));
+							}
+							throw new CompletionException(new SftpStatusException(status));
+						} 
+						close();
+						throw new CompletionException(new SshException(
+								"The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE));
+					} catch (SshException e) {
+						throw new CompletionException(e);
+					} catch (IOException e) {
+						throw new CompletionException(new SshException(e));
+					} finally {
+						bar.release();
+					}
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	CompletableFuture<Void> closeHandleAsync(byte[] handle) {
+		try {
+			UnsignedInteger32 requestId = nextRequestId();
+			Packet msg = createPacket();
+			msg.write(SSH_FXP_CLOSE);
+			msg.writeInt(requestId.longValue());
+			msg.writeBinaryString(handle);
+			
+			return sendRequestAsync(requestId, msg).thenApply(new Function<SftpMessage, Void>() {
+				public Void apply(SftpMessage bar) {
+					try {
+						checkStatus(bar);
+						return null;
+					} finally {
+						bar.release();
+					}
+				}
+			});
+		} catch (IOException ex) {
+			return failedFuture(new SshException(ex));
+		}
+	}
+	
+	/**
+	 * Check a status response from within a future, throwing a {@link CompletionException}
+	 * that wraps the {@link SftpStatusException} if it is not OK.
+	 */
+	void checkStatus(SftpMessage bar) {
+		try {
+			if (bar.getType() == SSH_FXP_STATUS) {
+				int status = (int) bar.readInt();
+				if (status == SftpStatusException.SSH_FX_OK) {
+					return;
+				}
+				if (version >= 3) {
+					throw new CompletionException(new SftpStatusException(status, bar.readString()));
+				}
+				throw new CompletionException(new SftpStatusException(status));
+			}
+			close();
+			throw new CompletionException(new SshException(
+					"The server responded with an unexpected message!",
+					SshException.CHANNEL_FAILURE));
+		} catch (IOException e) {
+			throw new CompletionException(new SshException(e));
+		}
+	}
+	
+	static <T> CompletableFuture<T> failedFuture(Throwable error) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
 	/**
 	   * Get a packet from the available pool or create if non available
 	   * @return Packet
@@ -2546,36 +3202,6 @@ public class SftpChannel extends AbstractSubsystem {
 	    return PacketPool.getInstance().getPacket();
 	  }
 	  
-	  class SftpThreadSynchronizer {
-
-			boolean isBlocking = false;
-
-			public boolean requestBlock(UnsignedInteger32 requestId,
-					MessageHolder holder) throws InterruptedException {
-
-				if (responses.containsKey(requestId)) {
-					holder.msg = (Message) responses.get(requestId);
-					return false;
-				}
-
-				synchronized (this) {
-					boolean canBlock = !isBlocking;
-					if (canBlock) {
-						isBlocking = true;
-					} else {
-						wait();
-					}
-					return canBlock;
-				}
-			}
-
-			public synchronized void releaseBlock() {
-				isBlocking = false;
-				notifyAll();
-			}
-
-		}
-
 	public boolean isClosed() {
 		return getSession().isClosed();
 	}
@@ -18,6 +18,7 @@
  */
 package com.sshtools.client.sftp;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -63,6 +64,7 @@ import com.sshtools.common.util.UnsignedInteger64;
 public class SftpClient {
 
 	SftpChannel sftp;
+	SshConnection con;
 
 	String cwd;
 	AbstractFile lcwd;
@@ -71,6 +73,12 @@ public class SftpClient {
 	private int blocksize = 16384;
 	private int asyncRequests = 16;
 	private int buffersize = 1024000;
+	
+	private int parallelChannels = 1;
+	private long parallelThreshold = 16777216L;
+	private long parallelChunkSize = 8388608L;
+	private boolean verifyParallelTransfers = false;
+	private boolean adaptiveTransfers = false;
 
 	// Default permissions is determined by default_permissions ^ umask
 	int umask = 0022;
@@ -125,6 +133,7 @@ public class SftpClient {
 	}
 	
 	public SftpClient(SshConnection con, AbstractFileFactory<?> fileFactory) throws PermissionDeniedException, IOException, SshException {
+		this.con = con;
 		this.fileFactory = fileFactory;
 		this.cwd = "";
 		this.lcwd = fileFactory.getFile("");
@@ -311,6 +320,108 @@ public class SftpClient {
 
 	}
 
+	/**
+	 * Set the number of SFTP channels used to transfer a single file. When this is
+	 * greater than 1, binary transfers of local files through the get and put methods
+	 * that are at least {@link #setParallelTransferThreshold(long)} bytes split the
+	 * file into ranges of {@link #setParallelChunkSize(long)} bytes and transfer them
+	 * concurrently, each additional channel being opened on the same connection. The
+	 * default is 1 which transfers every file over the single channel of this client.
+	 * 
+	 * @param parallelChannels
+	 */
+	public void setParallelTransferChannels(int parallelChannels) {
+		if (parallelChannels < 1) {
+			throw new IllegalArgumentException(
+					"Parallel transfer channels must be greater or equal to 1");
+		}
+		this.parallelChannels = parallelChannels;
+		
+		if(Log.isDebugEnabled())
+			Log.debug("Parallel transfer channels set to " + parallelChannels);
+	}
+	
+	public int getParallelTransferChannels() {
+		return parallelChannels;
+	}
+	
+	/**
+	 * Set the minimum size of file that will be transferred over parallel channels.
+	 * Defaults to 16MB.
+	 * 
+	 * @param parallelThreshold
+	 */
+	public void setParallelTransferThreshold(long parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+	
+	public long getParallelTransferThreshold() {
+		return parallelThreshold;
+	}
+	
+	/**
+	 * Set the size of the ranges a file is split into for a parallel transfer. This
+	 * is also the unit that is checked and skipped when resuming a parallel
+	 * transfer. Defaults to 8MB.
+	 * 
+	 * @param parallelChunkSize
+	 */
+	public void setParallelChunkSize(long parallelChunkSize) {
+		if (parallelChunkSize < blocksize) {
+			throw new IllegalArgumentException(
+					"Parallel chunk size must be greater or equal to the block size");
+		}
+		this.parallelChunkSize = parallelChunkSize;
+	}
+	
+	public long getParallelChunkSize() {
+		return parallelChunkSize;
+	}
+	
+	/**
+	 * Verify each range of a parallel transfer against the MD5 hash of the
+	 * remote file once it has been transferred. Requires the server to support the
+	 * "md5-hash-handle" extension.
+	 * 
+	 * @param verifyParallelTransfers
+	 */
+	public void setVerifyParallelTransfers(boolean verifyParallelTransfers) {
+		this.verifyParallelTransfers = verifyParallelTransfers;
+	}
+	
+	public boolean isVerifyParallelTransfers() {
+		return verifyParallelTransfers;
+	}
+	
+	/**
+	 * Tune the block size and number of outstanding requests of each transfer from
+	 * the round trip times measured while it runs, instead of using the fixed values
+	 * of {@link #setBlockSize(int)} and {@link #setMaxAsyncRequests(int)}. The fixed
+	 * values are used as the starting point. The parameters chosen are reported to
+	 * {@link FileTransferProgress#adjusted(int, int, long)}.
+	 * 
+	 * @param adaptiveTransfers
+	 */
+	public void setAdaptiveTransfers(boolean adaptiveTransfers) {
+		this.adaptiveTransfers = adaptiveTransfers;
+	}
+	
+	public boolean isAdaptiveTransfers() {
+		return adaptiveTransfers;
+	}
+	
+	boolean isParallelTransfer(AbstractFile localPath, long length) throws IOException, PermissionDeniedException {
+		return parallelChannels > 1 
+				&& transferMode == MODE_BINARY
+				&& length >= parallelThreshold 
+				&& localPath.supportsRandomAccess();
+	}
+	
+	ParallelTransfer createParallelTransfer(FileTransferProgress progress, boolean resume) {
+		return new ParallelTransfer(con, sftp, parallelChannels, parallelChunkSize, 
+				blocksize, asyncRequests, resume, verifyParallelTransfers, adaptiveTransfers, progress);
+	}
+	
 	/**
 	 * Sets the umask used by this client. <blockquote>
 	 * 
@@ -1087,7 +1198,16 @@ public class SftpClient {
 		}
 
 		// Check that file exists before we create a file
-		stat(remote);
+		SftpFileAttributes remoteAttrs = stat(remote);
+
+		if (isParallelTransfer(localPath, remoteAttrs.getSize().longValue())) {
+			createParallelTransfer(progress, resume).download(resolveRemotePath(remote), remoteAttrs, localPath);
+			try {
+				localPath.setAttributes(remoteAttrs);
+			} catch (Throwable ex) {
+			}
+			return remoteAttrs;
+		}
 
 		long position = 0;
 
@@ -1532,9 +1652,15 @@ public class SftpClient {
 			}
 
 
-			sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
-					.longValue(), blocksize, local, asyncRequests, progress,
-					position);
+			if (adaptiveTransfers) {
+				sftp.performAdaptiveRead(file.getHandle(), attrs.getSize().longValue(), 
+						sftp.createAdaptiveWindow(blocksize, asyncRequests, false, progress), 
+						local, progress, position);
+			} else {
+				sftp.performOptimizedRead(file.getHandle(), attrs.getSize()
+						.longValue(), blocksize, local, asyncRequests, progress,
+						position);
+			}
 		} catch(IOException ex) {
 			throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
 					"Failed to open text conversion outputstream");
@@ -1777,7 +1903,6 @@ public class SftpClient {
 			SshException, TransferCancelledException, IOException, PermissionDeniedException {
 		AbstractFile localPath = resolveLocalPath(local);
 
-		InputStream in = localPath.getInputStream();
 		// File f = new File(local);
 		long position = 0;
 
@@ -1796,6 +1921,17 @@ public class SftpClient {
 			resume = false;
 		}
 
+		if (isParallelTransfer(localPath, localPath.length())) {
+			SftpFileAttributes newAttrs = new SftpFileAttributes(SftpFileAttributes.SSH_FILEXFER_TYPE_REGULAR, "UTF-8");
+			if (applyUmask) {
+				newAttrs.setPermissions(new UnsignedInteger32(0666 ^ umask));
+			}
+			createParallelTransfer(progress, resume).upload(localPath, resolveRemotePath(remote), newAttrs);
+			return;
+		}
+
+		InputStream in = localPath.getInputStream();
+
 		if (resume) {
 			if (localPath.length() <= attrs.getSize().longValue()) {
 				try {
@@ -2013,7 +2149,13 @@ public class SftpClient {
 		}
 
 		try {
-			sftp.performOptimizedWrite(file.getHandle(), blocksize, asyncRequests, in, buffersize, progress, position < 0 ? 0 : position);
+			if (adaptiveTransfers) {
+				sftp.performAdaptiveWrite(file.getHandle(), 
+						sftp.createAdaptiveWindow(blocksize, asyncRequests, true, progress), 
+						new BufferedInputStream(in, Math.max(buffersize, blocksize)), progress, position < 0 ? 0 : position);
+			} else {
+				sftp.performOptimizedWrite(file.getHandle(), blocksize, asyncRequests, in, buffersize, progress, position < 0 ? 0 : position);
+			}
 		} catch (SftpStatusException e) {
 			Log.error("SFTP status exception during transfer [" + e.getStatus() + "]", e);
 			throw e;
@@ -2588,22 +2730,7 @@ public class SftpClient {
 	}
 	
 	public byte[] getRemoteHash(byte[] handle, long offset, long length, byte[] quickCheck) throws IOException, SftpStatusException, SshException {
-		ByteArrayWriter msg = new ByteArrayWriter();
-		
-		try {
-			msg.writeBinaryString(handle);
-			msg.writeUINT64(offset);
-			msg.writeUINT64(length);
-			msg.writeBinaryString(quickCheck);
-	
-			SftpMessage resp = sftp.getExtensionResponse(sftp.sendExtensionMessage("md5-hash-handle", msg.toByteArray()));
-	
-			resp.readString();
-			return resp.readBinaryString();
-		} finally {
-			msg.close();
-		}
-
+		return sftp.getRemoteHash(handle, offset, length, quickCheck);
 	}
 	
 	/**
@@ -193,6 +193,57 @@ public abstract class SftpClientTask extends Task {
 		sftp.setMaxAsyncRequests(asyncRequests);
 	}
 
+	/**
+	 * Tune the block size and number of outstanding requests of each transfer as
+	 * it runs.
+	 * 
+	 * @param adaptiveTransfers
+	 * @see SftpClient#setAdaptiveTransfers(boolean)
+	 */
+	public void setAdaptiveTransfers(boolean adaptiveTransfers) {
+		sftp.setAdaptiveTransfers(adaptiveTransfers);
+	}
+
+	/**
+	 * Set the number of SFTP channels used to transfer a single file.
+	 * 
+	 * @param parallelChannels
+	 * @see SftpClient#setParallelTransferChannels(int)
+	 */
+	public void setParallelTransferChannels(int parallelChannels) {
+		sftp.setParallelTransferChannels(parallelChannels);
+	}
+
+	/**
+	 * Set the minimum size of file that will be transferred over parallel channels.
+	 * 
+	 * @param parallelThreshold
+	 * @see SftpClient#setParallelTransferThreshold(long)
+	 */
+	public void setParallelTransferThreshold(long parallelThreshold) {
+		sftp.setParallelTransferThreshold(parallelThreshold);
+	}
+
+	/**
+	 * Set the size of the ranges a file is split into for a parallel transfer.
+	 * 
+	 * @param parallelChunkSize
+	 * @see SftpClient#setParallelChunkSize(long)
+	 */
+	public void setParallelChunkSize(long parallelChunkSize) {
+		sftp.setParallelChunkSize(parallelChunkSize);
+	}
+
+	/**
+	 * Verify each range of a parallel transfer against the remote MD5 hash.
+	 * 
+	 * @param verifyParallelTransfers
+	 * @see SftpClient#setVerifyParallelTransfers(boolean)
+	 */
+	public void setVerifyParallelTransfers(boolean verifyParallelTransfers) {
+		sftp.setVerifyParallelTransfers(verifyParallelTransfers);
+	}
+
 	/**
 	 * Sets the umask used by this client. <blockquote>
 	 * 
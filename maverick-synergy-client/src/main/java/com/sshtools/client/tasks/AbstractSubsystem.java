@@ -21,7 +21,10 @@ package com.sshtools.client.tasks;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import com.sshtools.client.SessionChannelNG;
 import com.sshtools.common.logger.Log;
@@ -47,14 +50,21 @@ public abstract class AbstractSubsystem {
 	protected SshConnection con;
 	protected SessionChannelNG session;
 	
+	Object dispatchLock = new Object();
+	boolean dispatching;
+	byte[] lengthBytes = new byte[4];
+	int lengthRead;
+	byte[] partial;
+	int partialLength;
+	int partialRead;
+	
 	public AbstractSubsystem(SshConnection con) {
 		this.con = con;
-		session = new SessionChannelNG(
+		session = new SubsystemChannel(
 				getMaximumPacketSize(),
 				getMaximumWindowSize(), 
 				getMaximumWindowSize(),
-				getMinimumWindowSize(),
-				false);
+				getMinimumWindowSize());
 		
 		session.addEventListener(new ChannelEventListener() {
 
@@ -122,6 +132,125 @@ public abstract class AbstractSubsystem {
 	    }
 	}
 	
+	/**
+	 * Stop reading messages with {@link #nextMessage()} and instead pass each
+	 * message to {@link #onMessage(byte[])} as soon as the channel receives it.
+	 * Any data already received but not yet read is dispatched first. After
+	 * this call {@link #nextMessage()} must no longer be used.
+	 */
+	protected void startMessageDispatch() throws SshException {
+		((SubsystemChannel)session).startDispatch();
+	}
+	
+	/**
+	 * Called with each complete message once {@link #startMessageDispatch()}
+	 * has been called. This is called from the thread that processes the 
+	 * channel data, so implementations must not block.
+	 * 
+	 * @param msg
+	 */
+	protected void onMessage(byte[] msg) throws SshException {
+	}
+	
+	void dispatchData(ByteBuffer data) throws SshException {
+		
+		while(data.hasRemaining()) {
+			
+			if(partial == null) {
+				while(lengthRead < 4 && data.hasRemaining()) {
+					lengthBytes[lengthRead++] = data.get();
+				}
+				if(lengthRead < 4) {
+					return;
+				}
+				lengthRead = 0;
+				
+				int len = ((lengthBytes[0] & 0xFF) << 24) 
+						| ((lengthBytes[1] & 0xFF) << 16)
+						| ((lengthBytes[2] & 0xFF) << 8) 
+						| (lengthBytes[3] & 0xFF);
+				
+				if(len < 0 || len > con.getContext().getMaximumPacketLength()) {
+					throw new SshException("Invalid message length in SFTP protocol [" + len + "]",
+	                        SshException.PROTOCOL_VIOLATION);
+				}
+				
+				try {
+					partial = ByteArrays.getInstance().getByteArray();
+				} catch (IOException e) {
+					throw new SshException(e);
+				}
+				if(partial.length < len) {
+					partial = new byte[len];
+				}
+				partialLength = len;
+				partialRead = 0;
+			}
+			
+			int count = Math.min(data.remaining(), partialLength - partialRead);
+			data.get(partial, partialRead, count);
+			partialRead += count;
+			
+			if(partialRead == partialLength) {
+				byte[] msg = partial;
+				partial = null;
+				onMessage(msg);
+			}
+		}
+	}
+	
+	class SubsystemChannel extends SessionChannelNG {
+
+		SubsystemChannel(int maximumPacketSize, int initialWindowSize, 
+				int maximumWindowSpace, int minimumWindowSpace) {
+			super(maximumPacketSize, initialWindowSize, maximumWindowSpace, minimumWindowSpace, false);
+		}
+		
+		@Override
+		protected void onChannelData(ByteBuffer data) {
+			synchronized(dispatchLock) {
+				if(!dispatching) {
+					super.onChannelData(data);
+					return;
+				}
+			}
+			/**
+			 * The cache has been removed so this only informs any listeners
+			 */
+			ByteBuffer message = data.duplicate();
+			super.onChannelData(data);
+			dispatch(message);
+		}
+		
+		void startDispatch() throws SshException {
+			synchronized(dispatchLock) {
+				if(dispatching) {
+					return;
+				}
+				if(cache.hasRemaining()) {
+					ByteBuffer buffered = ByteBuffer.allocate(cache.remaining());
+					cache.get(buffered);
+					buffered.flip();
+					dispatchData(buffered);
+				}
+				cache = null;
+				dispatching = true;
+			}
+			evaluateWindowSpace();
+		}
+		
+		void dispatch(ByteBuffer data) {
+			try {
+				dispatchData(data);
+			} catch (SshException e) {
+				Log.error("Failed to process subsystem message", e);
+				close();
+				return;
+			}
+			evaluateWindowSpace();
+		}
+	}
+	
 	protected void onCloseSession(SessionChannelNG session) {
 		try {
 			in.close();
@@ -140,6 +269,25 @@ public abstract class AbstractSubsystem {
 		}
 	}
 
+	/**
+	 * Send a message without blocking. The packet is returned to the pool once
+	 * it has been sent.
+	 * 
+	 * @param msg
+	 * @return a future that completes when the message has been sent
+	 */
+	public CompletableFuture<Void> sendMessageAsync(final Packet msg) {
+		
+		SessionChannelNG session = getSession();
+		msg.finish();
+		return session.sendChannelData(ByteBuffer.wrap(msg.array(), 0, msg.size())).whenComplete(
+				new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable error) {
+				PacketPool.getInstance().putPacket(msg);
+			}
+		});
+	}
+
 	class PacketReturner implements Runnable {
 		Packet msg;
 		
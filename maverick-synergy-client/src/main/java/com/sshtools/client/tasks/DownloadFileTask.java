@@ -35,6 +35,9 @@ public class DownloadFileTask extends Task {
 	Connection<SshClientContext> con;
 	String path;
 	File localFile = null;
+	int parallelChannels = 1;
+	boolean resume = false;
+	boolean verify = false;
 	
 	public DownloadFileTask(Connection<SshClientContext> con, String path, File localFile) {
 		super(con);
@@ -47,6 +50,34 @@ public class DownloadFileTask extends Task {
 		this(con, path, null);
 	}
 
+	/**
+	 * Transfer the file over this number of SFTP channels in parallel.
+	 * 
+	 * @param parallelChannels
+	 * @see com.sshtools.client.sftp.SftpClient#setParallelTransferChannels(int)
+	 */
+	public void setParallelTransferChannels(int parallelChannels) {
+		this.parallelChannels = parallelChannels;
+	}
+	
+	/**
+	 * Attempt to resume an interrupted transfer.
+	 * 
+	 * @param resume
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+	
+	/**
+	 * Verify each range of a parallel transfer against the remote MD5 hash.
+	 * 
+	 * @param verify
+	 */
+	public void setVerifyParallelTransfers(boolean verify) {
+		this.verify = verify;
+	}
+
 	public void doTask() {
 		
 		SftpClientTask task = new SftpClientTask(con) {
@@ -57,7 +88,9 @@ public class DownloadFileTask extends Task {
 					if(localFile==null) {
 						localFile = new File(lpwd(), FileUtils.getFilename(path));
 					}
-					get(path, localFile.getAbsolutePath());
+					setParallelTransferChannels(parallelChannels);
+					setVerifyParallelTransfers(verify);
+					get(path, localFile.getAbsolutePath(), resume);
 				} catch (SftpStatusException | SshException | TransferCancelledException | IOException | PermissionDeniedException e) {
 					throw new IllegalStateException(e.getMessage(), e);
 				}
@@ -59,4 +59,16 @@ public interface FileTransferProgress {
    * The transfer has completed.
    */
   public void completed();
+
+  /**
+   * The parameters of an adaptive transfer have changed. This is called when
+   * the transfer starts and whenever the block size or number of outstanding
+   * requests is adjusted.
+   *
+   * @param blocksize the block size of each request
+   * @param outstandingRequests the number of requests that may be outstanding
+   * @param roundTrip the smoothed round trip time in microseconds
+   */
+  public default void adjusted(int blocksize, int outstandingRequests, long roundTrip) {
+  }
 }
@@ -35,6 +35,9 @@ public class UploadFileTask extends Task {
 	Connection<SshClientContext> con;
 	String path;
 	File localFile = null;
+	int parallelChannels = 1;
+	boolean resume = false;
+	boolean verify = false;
 	
 	public UploadFileTask(Connection<SshClientContext> con, File localFile, String path) {
 		super(con);
@@ -47,6 +50,34 @@ public class UploadFileTask extends Task {
 		this(con, localFile, null);
 	}
 
+	/**
+	 * Transfer the file over this number of SFTP channels in parallel.
+	 * 
+	 * @param parallelChannels
+	 * @see com.sshtools.client.sftp.SftpClient#setParallelTransferChannels(int)
+	 */
+	public void setParallelTransferChannels(int parallelChannels) {
+		this.parallelChannels = parallelChannels;
+	}
+	
+	/**
+	 * Attempt to resume an interrupted transfer.
+	 * 
+	 * @param resume
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+	
+	/**
+	 * Verify each range of a parallel transfer against the remote MD5 hash.
+	 * 
+	 * @param verify
+	 */
+	public void setVerifyParallelTransfers(boolean verify) {
+		this.verify = verify;
+	}
+
 	public void doTask() {
 		
 		SftpClientTask task = new SftpClientTask(con) {
@@ -54,10 +85,12 @@ public class UploadFileTask extends Task {
 			@Override
 			protected void doSftp() {
 				try {
+					setParallelTransferChannels(parallelChannels);
+					setVerifyParallelTransfers(verify);
 					if(path==null) {
-						put(localFile.getAbsolutePath());
+						put(localFile.getAbsolutePath(), resume);
 					} else {
-						put(localFile.getAbsolutePath(), path);
+						put(localFile.getAbsolutePath(), path, resume);
 					}
 				} catch (SftpStatusException | SshException | TransferCancelledException | IOException | PermissionDeniedException e) {
 					throw new IllegalStateException(e.getMessage(), e);
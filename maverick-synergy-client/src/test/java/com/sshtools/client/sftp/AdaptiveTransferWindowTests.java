@@ -0,0 +1,162 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sshtools.client.tasks.FileTransferProgress;
+
+import junit.framework.TestCase;
+
+/**
+ * Drives the window with chosen throughput figures so each decision can be
+ * checked without depending on the timing of a real transfer.
+ */
+public class AdaptiveTransferWindowTests extends TestCase {
+
+	static class RecordingProgress implements FileTransferProgress {
+		
+		List<int[]> adjustments = new ArrayList<int[]>();
+		
+		public void started(long bytesTotal, String remoteFile) { }
+		public boolean isCancelled() { return false; }
+		public void progressed(long bytesSoFar) { }
+		public void completed() { }
+		
+		public void adjusted(int blocksize, int outstandingRequests, long roundTrip) {
+			adjustments.add(new int[] { blocksize, outstandingRequests });
+		}
+	}
+	
+	static void round(AdaptiveTransferWindow window, long throughput) {
+		window.throughput = throughput;
+		window.adjust();
+	}
+	
+	public void testInitialValuesClamped() {
+		
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(1024 * 1024, 500, 65536, 1024 * 1024, null);
+		assertEquals(65536, window.getBlockSize());
+		assertEquals(16, window.getOutstandingRequests());
+		
+		window = new AdaptiveTransferWindow(100, 0, 65536, 1024 * 1024, null);
+		assertEquals(AdaptiveTransferWindow.MINIMUM_BLOCKSIZE, window.getBlockSize());
+		assertEquals(AdaptiveTransferWindow.MINIMUM_REQUESTS, window.getOutstandingRequests());
+	}
+	
+	/**
+	 * While throughput keeps improving the number of requests doubles, and 
+	 * a step that does not help is undone.
+	 */
+	public void testSlowStartAndBackOff() {
+		
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(32768, 8, 262144, 64 * 1024 * 1024, null);
+		
+		round(window, 100);
+		assertEquals(16, window.getOutstandingRequests());
+		round(window, 200);
+		assertEquals(32, window.getOutstandingRequests());
+		
+		round(window, 205);
+		assertEquals("No improvement must undo the last step", 16, window.getOutstandingRequests());
+		assertEquals(32768, window.getBlockSize());
+	}
+	
+	/**
+	 * After holding for a number of rounds the window probes again, this time
+	 * with a larger block size, and keeps growing while that helps.
+	 */
+	public void testHoldThenProbeBlockSize() {
+		
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(32768, 8, 262144, 64 * 1024 * 1024, null);
+		round(window, 100);
+		round(window, 200);
+		round(window, 205);
+		
+		for(int i = 1; i < AdaptiveTransferWindow.HOLD_ROUNDS; i++) {
+			round(window, 205);
+			assertEquals(32768, window.getBlockSize());
+			assertEquals(16, window.getOutstandingRequests());
+		}
+		round(window, 205);
+		assertEquals(65536, window.getBlockSize());
+		assertEquals(16, window.getOutstandingRequests());
+		
+		round(window, 300);
+		assertEquals(131072, window.getBlockSize());
+	}
+	
+	/**
+	 * However much throughput improves the block size stays within the packet
+	 * limit and the bytes in flight within the channel window.
+	 */
+	public void testBoundedByPacketAndWindow() {
+		
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(32768, 8, 65536, 1024 * 1024, null);
+		for(int i = 1; i <= 200; i++) {
+			round(window, i * 1000L);
+			assertTrue(window.getBlockSize() <= 65536);
+			assertTrue((long) window.getBlockSize() * window.getOutstandingRequests() <= 1024 * 1024);
+		}
+		assertEquals(65536, window.getBlockSize());
+		assertEquals(16, window.getOutstandingRequests());
+	}
+	
+	public void testLimitBlockSize() {
+		
+		RecordingProgress progress = new RecordingProgress();
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(32768, 8, 262144, 64 * 1024 * 1024, progress);
+		assertEquals(1, progress.adjustments.size());
+		
+		window.limitBlockSize(16384);
+		assertEquals(16384, window.getBlockSize());
+		assertEquals(2, progress.adjustments.size());
+		assertEquals(16384, progress.adjustments.get(1)[0]);
+		
+		window.limitBlockSize(100);
+		assertEquals("Limits below the minimum are ignored", 16384, window.getBlockSize());
+		
+		for(int i = 1; i <= 50; i++) {
+			round(window, i * 1000L);
+			assertTrue(window.getBlockSize() <= 16384);
+		}
+	}
+	
+	/**
+	 * A round ends once a window of responses has been received and the
+	 * minimum round time has passed, and its throughput is then measured.
+	 */
+	public void testResponsesCompleteRound() {
+		
+		AdaptiveTransferWindow window = new AdaptiveTransferWindow(32768, 4, 262144, 64 * 1024 * 1024, null);
+		window.roundStarted = System.nanoTime() - 1000000000L;
+		
+		for(int i = 0; i < 3; i++) {
+			window.responseReceived(System.nanoTime() - 1000000L, 32768);
+		}
+		assertEquals(0, window.getThroughput());
+		
+		window.responseReceived(System.nanoTime() - 1000000L, 32768);
+		assertTrue(window.getThroughput() > 0);
+		assertTrue(window.getThroughput() <= 4 * 32768);
+		assertTrue(window.getRoundTrip() >= 1000);
+		assertEquals("The improved round must grow the window", 8, window.getOutstandingRequests());
+	}
+}
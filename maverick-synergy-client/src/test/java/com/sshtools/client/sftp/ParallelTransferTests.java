@@ -0,0 +1,181 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.client.sftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.util.UnsignedInteger64;
+import com.sshtools.server.InMemoryPasswordAuthenticator;
+import com.sshtools.server.SshServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Transfers files through an in-process server with a chunk size small enough
+ * that each file is split over several channels, and checks the ranges are
+ * reassembled into the original file.
+ */
+public class ParallelTransferTests extends TestCase {
+
+	static final int CHUNK_SIZE = 65536;
+	static final int LENGTH = CHUNK_SIZE * 7 + 1234;
+	
+	File root;
+	File local;
+	byte[] data;
+	SshServer server;
+	SshClient ssh;
+	SftpClient sftp;
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		root = Files.createTempDirectory("parallel").toFile();
+		local = File.createTempFile("parallel", ".bin");
+		data = new byte[LENGTH];
+		new Random(1).nextBytes(data);
+		Files.write(local.toPath(), data);
+		
+		server = new SshServer("127.0.0.1", 0);
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ECDSA, 256));
+		server.addAuthenticator(new InMemoryPasswordAuthenticator().addUser("test", "test".toCharArray()));
+		server.setFileFactory(new FileFactory() {
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) throws IOException {
+				return new DirectFileFactory(root);
+			}
+		});
+		server.start();
+		
+		ssh = new SshClient("127.0.0.1", server.getPort(), "test", "test".toCharArray());
+		sftp = new SftpClient(ssh);
+		sftp.setBlockSize(16384);
+		sftp.setParallelTransferChannels(4);
+		sftp.setParallelTransferThreshold(CHUNK_SIZE);
+		sftp.setParallelChunkSize(CHUNK_SIZE);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		ssh.close();
+		server.stop();
+		local.delete();
+		for(File f : root.listFiles()) {
+			f.delete();
+		}
+		root.delete();
+	}
+	
+	public void testUpload() throws Exception {
+		
+		sftp.put(local.getAbsolutePath(), "upload.bin");
+		assertTrue("Uploaded file must match the source", 
+				Arrays.equals(data, Files.readAllBytes(new File(root, "upload.bin").toPath())));
+	}
+	
+	public void testDownload() throws Exception {
+		
+		Files.write(new File(root, "download.bin").toPath(), data);
+		File target = new File(root.getParentFile(), root.getName() + ".download");
+		try {
+			sftp.get("download.bin", target.getAbsolutePath());
+			assertTrue("Downloaded file must match the source", 
+					Arrays.equals(data, Files.readAllBytes(target.toPath())));
+		} finally {
+			target.delete();
+		}
+	}
+	
+	/**
+	 * A resumed download only fetches the ranges that differ and leaves the 
+	 * file identical to the source.
+	 */
+	public void testResumeRepairsRange() throws Exception {
+		
+		Files.write(new File(root, "resume.bin").toPath(), data);
+		File target = new File(root.getParentFile(), root.getName() + ".resume");
+		try {
+			Files.write(target.toPath(), Arrays.copyOf(data, CHUNK_SIZE * 4 + 10));
+			try(RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+				raf.seek(CHUNK_SIZE + 5);
+				raf.write(~data[CHUNK_SIZE + 5]);
+			}
+			sftp.get("resume.bin", target.getAbsolutePath(), true);
+			assertTrue("Resumed file must match the source", 
+					Arrays.equals(data, Files.readAllBytes(target.toPath())));
+		} finally {
+			target.delete();
+		}
+	}
+	
+	/**
+	 * As with a single channel transfer, resuming into a file that is already 
+	 * larger than the source is refused.
+	 */
+	public void testResumeLargerDestinationFails() throws Exception {
+		
+		Files.write(new File(root, "small.bin").toPath(), Arrays.copyOf(data, CHUNK_SIZE * 2));
+		File target = new File(root.getParentFile(), root.getName() + ".large");
+		try {
+			Files.write(target.toPath(), data);
+			try {
+				sftp.get("small.bin", target.getAbsolutePath(), true);
+				fail("Resume into a larger file must fail");
+			} catch(SftpStatusException e) {
+				assertEquals(SftpStatusException.INVALID_RESUME_STATE, e.getStatus());
+			}
+		} finally {
+			target.delete();
+		}
+	}
+	
+	/**
+	 * When the remote file is shorter than the size the transfer started with, 
+	 * the local file ends where the remote file does instead of being padded.
+	 */
+	public void testDownloadOfShrunkFile() throws Exception {
+		
+		int actual = CHUNK_SIZE * 3 + 99;
+		Files.write(new File(root, "shrunk.bin").toPath(), Arrays.copyOf(data, actual));
+		File target = new File(root.getParentFile(), root.getName() + ".shrunk");
+		try {
+			String path = sftp.getAbsolutePath("shrunk.bin");
+			SftpFileAttributes attrs = sftp.stat(path);
+			attrs.setSize(new UnsignedInteger64(LENGTH));
+			sftp.createParallelTransfer(null, false).download(path, attrs, 
+					sftp.lcwd.resolveFile(target.getAbsolutePath()));
+			assertTrue("Downloaded file must match the remote file", 
+					Arrays.equals(Arrays.copyOf(data, actual), Files.readAllBytes(target.toPath())));
+		} finally {
+			target.delete();
+		}
+	}
+}
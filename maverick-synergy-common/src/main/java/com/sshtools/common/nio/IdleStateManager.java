@@ -18,26 +18,46 @@
  */
 package com.sshtools.common.nio;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class that checks the idle state of another class.
+ * <p>
+ * Listeners are held in a hashed timing wheel with one bucket per service period.
+ * Resetting a listener only records its last activity, so it is a cheap, lock free
+ * operation that may be called for every message. When a bucket falls due, each of
+ * its listeners is either moved to the bucket its last activity now places it in or,
+ * if it really has been inactive for long enough, told that it is idle. A service
+ * run therefore only touches the listeners whose deadlines have been reached.
+ * </p>
  */
 public class IdleStateManager  {
 
-    Map<IdleStateListener, Long> listeners = new ConcurrentHashMap<IdleStateListener, Long>(50, 0.9f, 1);
-    int numSecondsBeforeIdle;
+    static final int WHEEL_SIZE = 512;
+
+    Map<IdleStateListener, Entry> listeners = new ConcurrentHashMap<IdleStateListener, Entry>(50, 0.9f, 1);
+    ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<Entry>();
+    @SuppressWarnings({"unchecked","rawtypes"})
+    List<Entry>[] wheel = new List[WHEEL_SIZE];
+    List<Entry> due = new ArrayList<Entry>();
     int servicePeriodSeconds;
     int numInactiveServicesPeriodsPerIdle;
-    long lastService = 0;
-    boolean servicing = false;
+    long tickMillis;
+    long started = currentTimeMillis();
+    long lastTick = -1;
+    volatile long lastService = 0;
+    ReentrantLock serviceLock = new ReentrantLock();
 
     public IdleStateManager(int servicePeriodSeconds,
                             int numInactiveServicesPeriodsPerIdle) {
         this.servicePeriodSeconds = servicePeriodSeconds;
         this.numInactiveServicesPeriodsPerIdle = numInactiveServicesPeriodsPerIdle;
+        this.tickMillis = Math.max(1, servicePeriodSeconds) * 1000L;
     }
 
     /**
@@ -45,22 +65,44 @@ public class IdleStateManager  {
      *
      * @param obj IdleStateListener
      */
-    public synchronized void reset(IdleStateListener obj) {
-    	if(listeners.containsKey(obj))
-    		listeners.put(obj, new Long(System.currentTimeMillis()));
+    public void reset(IdleStateListener obj) {
+    	Entry entry = listeners.get(obj);
+    	if(entry != null)
+    		entry.lastActivity = currentTimeMillis();
     }
     
-    public synchronized void register(IdleStateListener obj) {
-    	listeners.put(obj, new Long(System.currentTimeMillis()));
+    public void register(IdleStateListener obj) {
+    	Entry entry = listeners.get(obj);
+    	if(entry != null) {
+    		entry.lastActivity = currentTimeMillis();
+    		return;
+    	}
+    	entry = new Entry(obj, currentTimeMillis());
+    	Entry existing = listeners.putIfAbsent(obj, entry);
+    	if(existing != null) {
+    		existing.lastActivity = entry.lastActivity;
+    	} else {
+    		pending.add(entry);
+    	}
     }
 
     /**
      * Called by a listener when they want to remove themselves
      * @param obj IdleStateListener
      */
-    public synchronized void remove(IdleStateListener obj) {
-    	if(!servicing)
-    		listeners.remove(obj);
+    public void remove(IdleStateListener obj) {
+    	Entry entry = listeners.remove(obj);
+    	if(entry != null)
+    		entry.cancelled = true;
+    }
+
+    /**
+     * Get the number of listeners currently registered.
+     *
+     * @return int
+     */
+    public int getListenerCount() {
+    	return listeners.size();
     }
 
     /**
@@ -70,33 +112,114 @@ public class IdleStateManager  {
      * @return boolean
      */
     public boolean isReady() {
-        return ((System.currentTimeMillis() - lastService) / 1000) >= servicePeriodSeconds;
+        return ((currentTimeMillis() - lastService) / 1000) >= servicePeriodSeconds;
     }
 
     /**
-     * Called by a thread which is managing idle states
+     * Called by a thread which is managing idle states. The manager may be shared by
+     * several selector threads, so if another thread is already servicing it this
+     * returns immediately rather than waiting.
      */
-    public synchronized void service() {
-
-        lastService = System.currentTimeMillis();
-
-        Map.Entry<IdleStateListener, Long> entry;
-
-        servicing = true;
-        for(Iterator<Map.Entry<IdleStateListener, Long>> it = listeners.entrySet().iterator();
-                          it.hasNext();) {
-            entry = it.next();
-            long start = entry.getValue().longValue();
-            long current = System.currentTimeMillis();
-            long elasped = (current - start) / 1000;
-            if(elasped >= (servicePeriodSeconds * numInactiveServicesPeriodsPerIdle)) {
-               if((entry.getKey()).idle())
-                   it.remove();
-           }
+    public void service() {
+
+        if(!serviceLock.tryLock()) {
+        	return;
+        }
+        try {
+        	doService();
+        } finally {
+        	serviceLock.unlock();
+        }
+    }
+
+    private void doService() {
+
+        long now = currentTimeMillis();
+        lastService = now;
+
+        Entry entry;
+        while((entry = pending.poll()) != null) {
+        	if(!entry.cancelled) {
+        		schedule(entry, entry.lastActivity + getIdleMillis());
+        	}
         }
-        servicing = false;
 
+        long currentTick = tick(now);
+        long firstTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+        for(long t = firstTick; t <= currentTick; t++) {
+        	int idx = (int) (t & (WHEEL_SIZE - 1));
+        	List<Entry> bucket = wheel[idx];
+        	if(bucket == null || bucket.isEmpty()) {
+        		continue;
+        	}
+        	// Swap the bucket out so entries can be rescheduled whilst we iterate
+        	wheel[idx] = due;
+        	due = bucket;
+        	bucket = wheel[idx];
+        	for(Entry e : due) {
+        		if(e.cancelled) {
+        			continue;
+        		}
+        		if(e.deadlineTick > currentTick) {
+        			// Not due on this rotation of the wheel
+        			bucket.add(e);
+        			continue;
+        		}
+        		long deadline = e.lastActivity + getIdleMillis();
+        		if(deadline > now) {
+        			schedule(e, deadline);
+        		} else if(e.listener.idle()) {
+        			listeners.remove(e.listener, e);
+        			e.cancelled = true;
+        		} else if(!e.cancelled) {
+        			// Still idle, ask again after the next service period
+        			scheduleTick(e, currentTick + 1);
+        		}
+        	}
+        	due.clear();
+        }
+        lastTick = currentTick;
+    }
+
+    long currentTimeMillis() {
+    	return System.currentTimeMillis();
+    }
+
+    long getIdleMillis() {
+    	return (long) servicePeriodSeconds * numInactiveServicesPeriodsPerIdle * 1000L;
+    }
+
+    private long tick(long time) {
+    	return (time - started) / tickMillis;
+    }
+
+    private void schedule(Entry entry, long deadline) {
+    	long t = tick(deadline + tickMillis - 1);
+    	if(t <= lastTick) {
+    		t = lastTick + 1;
+    	}
+    	scheduleTick(entry, t);
     }
 
+    private void scheduleTick(Entry entry, long t) {
+    	entry.deadlineTick = t;
+    	int idx = (int) (t & (WHEEL_SIZE - 1));
+    	List<Entry> bucket = wheel[idx];
+    	if(bucket == null) {
+    		bucket = wheel[idx] = new ArrayList<Entry>();
+    	}
+    	bucket.add(entry);
+    }
+
+    static class Entry {
+    	final IdleStateListener listener;
+    	volatile long lastActivity;
+    	volatile boolean cancelled;
+    	long deadlineTick;
 
+    	Entry(IdleStateListener listener, long lastActivity) {
+    		this.listener = listener;
+    		this.lastActivity = lastActivity;
+    	}
+    }
 }
@@ -30,7 +30,8 @@ public class ListeningInterface {
 	private int actualPort;
 	private int backlog;
 	private boolean reuseAddress = true;
-	
+	private int acceptorCount = 1;
+
 	public ListeningInterface(InetSocketAddress addressToBind, ProtocolContextFactory<?> context) {
 		this(addressToBind, context, 50);
 	}
@@ -77,4 +78,21 @@ public class ListeningInterface {
 		this.reuseAddress = reuseAddress;
 	}
 
+	public int getAcceptorCount() {
+		return acceptorCount;
+	}
+
+	/**
+	 * Set the number of server sockets opened for this interface. When greater
+	 * than one, each socket is bound to the same address with SO_REUSEPORT so the
+	 * kernel spreads incoming connections between them, and each is serviced by
+	 * its own transfer thread which accepts and then handles its connections
+	 * directly. Where SO_REUSEPORT is not supported a single socket is used.
+	 *
+	 * @param acceptorCount
+	 */
+	public void setAcceptorCount(int acceptorCount) {
+		this.acceptorCount = Math.max(1, acceptorCount);
+	}
+
 }
\ No newline at end of file
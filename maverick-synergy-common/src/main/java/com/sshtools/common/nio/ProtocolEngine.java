@@ -69,6 +69,18 @@ public interface ProtocolEngine {
          * @return boolean
          */
         public boolean wantsToWrite();
+        
+        /**
+         * Determines whether the protocol can encode another message into a
+         * further buffer before the messages it has already encoded have been
+         * written to the socket. Protocols whose state changes when a message
+         * has been sent should return false until that message has completed.
+         * 
+         * @return boolean
+         */
+        public default boolean canBatchWrites() {
+        	return false;
+        }
 
         /**
          * Is the protocol connected.
@@ -26,7 +26,10 @@ import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.common.logger.Log;
 
@@ -39,8 +42,11 @@ public class SelectorThread extends Thread {
 
 	Selector selector;
 	boolean running;
-	LinkedList<Registration> pendingRegistrations;
-	LinkedList<Runnable> pendingOperations;
+	Queue<Registration> pendingRegistrations;
+	Queue<Runnable> pendingOperations;
+	AtomicInteger pendingRegistrationCount = new AtomicInteger();
+	AtomicInteger pendingOperationCount = new AtomicInteger();
+	AtomicBoolean wakeupPending = new AtomicBoolean();
 	int maximumNumOfChannels;
 	SelectorThreadImpl impl;
 	SelectorThreadPool pool;
@@ -50,7 +56,12 @@ public class SelectorThread extends Thread {
 	Object shutdownLock = new Object();
 	SelectorProvider selectorProvider;
 	IdleStateManager idleStates;
-	boolean hasOperations = false;
+	volatile long busyNanos;
+	volatile long recentBusyNanos;
+	volatile long recentBytes;
+	volatile int sampledLoad;
+	long lastSampleBusyNanos;
+	long lastSample = System.currentTimeMillis();
 
 	/**
 	 * Construct a new selector thread.
@@ -83,11 +94,11 @@ public class SelectorThread extends Thread {
 		this.id = id;
 		this.maximumNumOfChannels = maximumNumOfChannels;
 		this.selectorProvider = selectorProvider;
-		this.idleStates = new IdleStateManager(idleServicePeriod,
+		this.idleStates = pool != null ? pool.getIdleStates() : new IdleStateManager(idleServicePeriod,
 				inactivePeriodsPerIdleEvent);
 
-		pendingRegistrations = new LinkedList<Registration>();
-		pendingOperations = new LinkedList<Runnable>();
+		pendingRegistrations = new ConcurrentLinkedQueue<Registration>();
+		pendingOperations = new ConcurrentLinkedQueue<Runnable>();
 
 		// Get a Selector object
 		openSelector();
@@ -150,19 +161,22 @@ public class SelectorThread extends Thread {
 	 * @return boolean
 	 * @throws ClosedChannelException
 	 */
-	public synchronized boolean register(SelectableChannel sc, int ops,
+	public boolean register(SelectableChannel sc, int ops,
 			Object attachment, boolean wakeUp) throws ClosedChannelException {
+		return register(new Registration(sc, ops, attachment, false), wakeUp);
+	}
+
+	private boolean register(Registration reg, boolean wakeUp) {
 
 		if(Log.isTraceEnabled())
 			Log.trace("Adding registration request to queue");
 
-		synchronized (pendingRegistrations) {
-			pendingRegistrations.addLast(new Registration(sc, ops, attachment));
-
-		}
+		pendingRegistrationCount.incrementAndGet();
+		pendingRegistrations.add(reg);
 
-		if (wakeUp)
-			selector.wakeup();
+		// A registration made by this thread is picked up before it next selects
+		if (wakeUp && !Thread.currentThread().equals(this))
+			wakeup();
 
 		return true;
 	}
@@ -175,47 +189,54 @@ public class SelectorThread extends Thread {
 			return false;
 		}
 		
-		synchronized (pendingRegistrations) {
-
-			while (!pendingRegistrations.isEmpty()) {
-				try {
-					Registration reg = (Registration) pendingRegistrations
-							.removeFirst();
-
-					if(Log.isTraceEnabled())
-						Log.trace("Registering channel with interested ops "
-								+ reg.getInterestedOps());
+		Registration reg;
+		while ((reg = pendingRegistrations.poll()) != null) {
+			pendingRegistrationCount.decrementAndGet();
+			try {
 
-					if (reg.getChannel().isOpen()) {
+				if(Log.isTraceEnabled())
+					Log.trace("Registering channel with interested ops "
+							+ reg.getInterestedOps());
 
-						if(Log.isTraceEnabled())
-							Log.trace("Channel is open");
+				if (reg.getChannel().isOpen()) {
 
-						SelectionKey key = reg.getChannel().register(selector,
-								reg.getInterestedOps(), reg.getAttachment());
+					if(Log.isTraceEnabled())
+						Log.trace("Channel is open");
 
-						if(Log.isTraceEnabled())
-							Log.trace("Channel is registered");
+					SelectionKey key = reg.getChannel().register(selector,
+							reg.getInterestedOps(), reg.getAttachment());
 
-						if (reg.getAttachment() instanceof SelectorRegistrationListener)
-							((SocketHandler) reg.getAttachment())
-									.registrationCompleted(reg.getChannel(),
-											key, this);
+					if(Log.isTraceEnabled())
+						Log.trace("Channel is registered");
+
+					if (reg.isMigration()) {
+						SocketHandler handler = (SocketHandler) reg.getAttachment();
+						handler.setSelectionKey(key);
+						handler.setThread(this);
+						// A write flagged whilst the connection was between threads
+						// was dropped against the cancelled key, so check again now 
+						// that further requests will reach this thread
+						if (handler.wantsWrite()) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						}
+					} else if (reg.getAttachment() instanceof SelectorRegistrationListener)
+						((SocketHandler) reg.getAttachment())
+								.registrationCompleted(reg.getChannel(),
+										key, this);
 
-						if(Log.isTraceEnabled())
-							Log.trace("Registration complete");
-					} else {
-						if(Log.isTraceEnabled())
-							Log.trace("Cannot register channel because it is closed!");
-					}
-				} catch (IOException ex) {
 					if(Log.isTraceEnabled())
-						Log.trace("Failed to register channel as it is closed");
+						Log.trace("Registration complete");
+				} else {
+					if(Log.isTraceEnabled())
+						Log.trace("Cannot register channel because it is closed!");
 				}
+			} catch (IOException ex) {
+				if(Log.isTraceEnabled())
+					Log.trace("Failed to register channel as it is closed");
 			}
-
 		}
 
+
 		return hasRegistrations;
 	}
 
@@ -266,54 +287,45 @@ public class SelectorThread extends Thread {
 	 */
 	public void addSelectorOperation(Runnable r) {
 
-		synchronized (pendingOperations) {
-			pendingOperations.addLast(r);
-			hasOperations = true;
+		pendingOperationCount.incrementAndGet();
+		pendingOperations.add(r);
+		if (!Thread.currentThread().equals(this)) {
 			wakeup();
 		}
 
 	}
 
-	@SuppressWarnings("unchecked")
 	private boolean performPendingOperations() {
 
-		if(!hasOperations) {
+		// Only run the operations queued so far; any added whilst running wait for the next pass
+		int count = pendingOperationCount.get();
+		if(count == 0) {
 			return false;
 		}
 		
-		boolean hasRemaining = false;
-
-		LinkedList<Runnable> ops = null;
-		synchronized (pendingOperations) {
-			if(!pendingOperations.isEmpty()) {
-				hasRemaining = true;
-				ops = (LinkedList<Runnable>)pendingOperations.clone();
-				pendingOperations.clear();
-				hasOperations = false;
-			}
-		}
-		
-		if(ops!=null) {
-			while(!ops.isEmpty()) {
-				Runnable r = (Runnable) ops.removeFirst();
-				try {
-					r.run();
-				} catch(Throwable t) {
-					if(Log.isErrorEnabled()) {
-						Log.error("Consumed exception in pending operation", t);
-					}
+		Runnable r;
+		while(count-- > 0 && (r = pendingOperations.poll()) != null) {
+			pendingOperationCount.decrementAndGet();
+			try {
+				r.run();
+			} catch(Throwable t) {
+				if(Log.isErrorEnabled()) {
+					Log.error("Consumed exception in pending operation", t);
 				}
 			}
 		}
-		return hasRemaining;
+		return true;
 
 	}
 
 	/**
-	 * Wakeup the selector.
+	 * Wakeup the selector. Calls made whilst a wakeup is already pending are
+	 * coalesced into it.
 	 */
 	public void wakeup() {
-		selector.wakeup();
+		if (wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
 	}
 
 	/**
@@ -321,8 +333,8 @@ public class SelectorThread extends Thread {
 	 * 
 	 * @return int
 	 */
-	public synchronized int getThreadLoad() {
-		return selector.keys().size() + pendingRegistrations.size();
+	public int getThreadLoad() {
+		return selector.keys().size() + pendingRegistrationCount.get();
 	}
 
 	/**
@@ -405,8 +417,13 @@ public class SelectorThread extends Thread {
 			int numberOfZeroSelects = 0;
 			while (running) {
 
+				long busyStarted = 0;
 				try {
+					// Allow the next wakeup through before looking for work, so that
+					// anything queued after this point is guaranteed to wake the select
+					wakeupPending.set(false);
 					performPendingOperations();
+					performPendingRegistrations();
 
 					try {
 
@@ -449,6 +466,8 @@ public class SelectorThread extends Thread {
 						break;
 					}
 
+					busyStarted = System.nanoTime();
+
 					// Service the idle states if its ready
 					//synchronized (idleStates) {
 						if (idleStates.isReady()) {
@@ -456,6 +475,11 @@ public class SelectorThread extends Thread {
 						}
 					//}
 
+					// Sample our traffic and give the pool the chance to rebalance
+					if (pool != null) {
+						pool.service(this);
+					}
+
 					// Execute any runnables on this thread that may affect the
 					// selector
 					performPendingOperations();
@@ -467,7 +491,7 @@ public class SelectorThread extends Thread {
 					// interrupt or timeout.
 					if (n == 0) {
 						if (selector.keys().size() == 0
-								&& pendingRegistrations.size() == 0
+								&& pendingRegistrations.isEmpty()
 								&& !isPermanent)
 							flagShutdown();
 						continue;
@@ -498,6 +522,10 @@ public class SelectorThread extends Thread {
 					if(Log.isErrorEnabled()) {
 						Log.error("Selector thread encountered an error", ex);
 					}
+				} finally {
+					if(busyStarted > 0) {
+						busyNanos += System.nanoTime() - busyStarted;
+					}
 				}
 			}
 
@@ -507,7 +535,9 @@ public class SelectorThread extends Thread {
 						+ impl.getName() + " thread id=" + id);
 			}
 
-			pool.removeThread(this);
+			if (pool != null) {
+				pool.removeThread(this);
+			}
 
 			closeAllChannels();
 
@@ -535,6 +565,108 @@ public class SelectorThread extends Thread {
 		}
 	}
 
+	/**
+	 * Get the total time this thread has spent processing rather than waiting
+	 * in select.
+	 * 
+	 * @return long nanoseconds
+	 */
+	public long getBusyTime() {
+		return busyNanos;
+	}
+
+	/**
+	 * Get the time this thread spent processing during the last sample period.
+	 * 
+	 * @return long nanoseconds
+	 */
+	public long getRecentBusyTime() {
+		return recentBusyNanos;
+	}
+
+	/**
+	 * Get the number of bytes read and written by the connections on this thread
+	 * during the last sample period.
+	 * 
+	 * @return long
+	 */
+	public long getRecentBytes() {
+		return recentBytes;
+	}
+
+	/**
+	 * Get the number of channels this thread had when it was last sampled.
+	 * 
+	 * @return int
+	 */
+	int getSampledLoad() {
+		return sampledLoad;
+	}
+
+	/**
+	 * Record the traffic of each connection and of this thread as a whole since 
+	 * the last sample. Must be called on this thread.
+	 * 
+	 * @param now
+	 */
+	void sample(long now) {
+		
+		long bytes = 0;
+		for(SelectionKey key : selector.keys()) {
+			if(key.isValid() && key.attachment() instanceof SocketConnection) {
+				bytes += ((SocketConnection)key.attachment()).sample();
+			}
+		}
+		
+		long busy = busyNanos;
+		recentBusyNanos = busy - lastSampleBusyNanos;
+		lastSampleBusyNanos = busy;
+		recentBytes = bytes;
+		sampledLoad = selector.keys().size();
+		lastSample = now;
+	}
+
+	/**
+	 * Move the busiest connection on this thread whose recent traffic does not exceed
+	 * the given number of bytes to another thread. Connections are only moved whilst 
+	 * they have no read or write in progress. Must be called on this thread.
+	 * 
+	 * @param target
+	 * @param maximumBytes
+	 * @return the recent traffic of the connection moved, or -1 if none could be moved 
+	 */
+	long migrate(SelectorThread target, long maximumBytes) {
+		
+		SelectionKey selected = null;
+		long selectedBytes = 0;
+		for(SelectionKey key : selector.keys()) {
+			if(!key.isValid() || key.interestOps() == 0 
+					|| !(key.attachment() instanceof SocketConnection)) {
+				continue;
+			}
+			long bytes = ((SocketConnection)key.attachment()).getRecentBytes();
+			if(bytes > selectedBytes && bytes <= maximumBytes) {
+				selected = key;
+				selectedBytes = bytes;
+			}
+		}
+		
+		if(selected == null) {
+			return -1;
+		}
+		
+		SocketConnection con = (SocketConnection) selected.attachment();
+		if(Log.isDebugEnabled()) {
+			Log.debug(String.format("Moving %s from %s to %s after %d bytes in the last sample", 
+					con.getName(), getName(), target.getName(), selectedBytes));
+		}
+		
+		int ops = selected.interestOps();
+		selected.cancel();
+		target.register(new Registration(selected.channel(), ops, con, true), true);
+		return selectedBytes;
+	}
+
 	public void cancelKey(SelectionKey key) {
 		if(Log.isTraceEnabled())
 			Log.trace("Selection key is being cancelled");
@@ -547,12 +679,18 @@ public class SelectorThread extends Thread {
 		SelectableChannel channel;
 		int interestedOps;
 		Object attachment;
+		boolean migration;
 
 		Registration(SelectableChannel channel, int interestedOps,
-				Object attachment) {
+				Object attachment, boolean migration) {
 			this.channel = channel;
 			this.interestedOps = interestedOps;
 			this.attachment = attachment;
+			this.migration = migration;
+		}
+
+		public boolean isMigration() {
+			return migration;
 		}
 
 		public SelectableChannel getChannel() {
@@ -21,19 +21,30 @@ package com.sshtools.common.nio;
 import java.io.IOException;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.sshtools.common.logger.Log;
 
 /**
  * Maintains a pool of {@link SelectoThread}s increasing the pool when required
  * and always maintaining the minimum number of permanent threads required.
+ * <p>
+ * Each thread periodically samples the traffic of its connections. New connections
+ * are placed on the thread carrying the least traffic and, when rebalancing is 
+ * enabled, connections are moved from a thread carrying much more than its share 
+ * of the traffic to the quietest thread. All threads share one {@link IdleStateManager}
+ * so that a connection's idle state is unaffected by the thread it is on.
+ * </p>
  */
 public class SelectorThreadPool {
 
 	
 	SelectorThreadImpl impl;
-	ArrayList<SelectorThread> threads = new ArrayList<SelectorThread>();
+	List<SelectorThread> threads = new CopyOnWriteArrayList<SelectorThread>();
 	int permanentThreads;
 	int maximumChannels;
 	int nextAvailable;
@@ -42,6 +53,12 @@ public class SelectorThreadPool {
 	SelectorProvider selectorProvider;
 	boolean isShuttingDown = false;
 	boolean verbose = Boolean.getBoolean("maverick.verbose");
+	IdleStateManager idleStates;
+	volatile boolean rebalancing = false;
+	volatile long rebalanceInterval = 5000;
+	volatile float rebalanceThreshold = 1.5f;
+	volatile long lastRebalance = System.currentTimeMillis();
+	Object rebalanceLock = new Object();
 	
 	/**
 	 * Construct a thread pool. if(Log.isDebugEnabled()) Log.debug(
@@ -70,6 +87,7 @@ public class SelectorThreadPool {
 		this.idleServicePeriod = idleServicePeriod;
 		this.inactivePeriodsPerIdleEvent = inactivePeriodsPerIdleEvent;
 		this.selectorProvider = selectorProvider;
+		this.idleStates = new IdleStateManager(idleServicePeriod, inactivePeriodsPerIdleEvent);
 
 		if(verbose && Log.isDebugEnabled())
 			Log.debug("Creating " + impl.getName() + " thread pool with "
@@ -84,6 +102,141 @@ public class SelectorThreadPool {
 		nextAvailable = 0;
 	}
 
+	IdleStateManager getIdleStates() {
+		return idleStates;
+	}
+
+	/**
+	 * Determine whether connections are moved between threads to balance traffic.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isRebalancing() {
+		return rebalancing;
+	}
+
+	/**
+	 * Enable or disable moving connections between threads to balance traffic.
+	 * 
+	 * @param rebalancing
+	 */
+	public void setRebalancing(boolean rebalancing) {
+		this.rebalancing = rebalancing;
+	}
+
+	/**
+	 * Get the period in milliseconds over which traffic is sampled and after 
+	 * which a rebalance may take place.
+	 * 
+	 * @return long
+	 */
+	public long getRebalanceInterval() {
+		return rebalanceInterval;
+	}
+
+	/**
+	 * Set the period in milliseconds over which traffic is sampled and after 
+	 * which a rebalance may take place.
+	 * 
+	 * @param rebalanceInterval
+	 */
+	public void setRebalanceInterval(long rebalanceInterval) {
+		if(rebalanceInterval <= 0) {
+			throw new IllegalArgumentException("Rebalance interval must be greater than zero");
+		}
+		this.rebalanceInterval = rebalanceInterval;
+	}
+
+	/**
+	 * Get how many times the average traffic per thread the busiest thread must
+	 * carry before a connection is moved off it.
+	 * 
+	 * @return float
+	 */
+	public float getRebalanceThreshold() {
+		return rebalanceThreshold;
+	}
+
+	/**
+	 * Set how many times the average traffic per thread the busiest thread must
+	 * carry before a connection is moved off it.
+	 * 
+	 * @param rebalanceThreshold
+	 */
+	public void setRebalanceThreshold(float rebalanceThreshold) {
+		this.rebalanceThreshold = rebalanceThreshold;
+	}
+
+	/**
+	 * Called by each thread on every pass of its select loop.
+	 * 
+	 * @param thread
+	 */
+	void service(SelectorThread thread) {
+		long now = System.currentTimeMillis();
+		if(now - thread.lastSample >= rebalanceInterval) {
+			thread.sample(now);
+		}
+		if(rebalancing && !isShuttingDown && now - lastRebalance >= rebalanceInterval) {
+			rebalance(now);
+		}
+	}
+
+	/**
+	 * Move a connection from the busiest thread to the quietest if the busiest
+	 * is carrying more than its share of the traffic.
+	 */
+	void rebalance(long now) {
+
+		synchronized(rebalanceLock) {
+			if(now - lastRebalance < rebalanceInterval) {
+				return;
+			}
+			lastRebalance = now;
+		}
+
+		SelectorThread hot = null;
+		SelectorThread cold = null;
+		long total = 0;
+		int count = 0;
+		for (SelectorThread t : threads) {
+			count++;
+			total += t.getRecentBytes();
+			if(hot == null || t.getRecentBytes() > hot.getRecentBytes()) {
+				hot = t;
+			}
+			if(t.getThreadLoad() < t.getMaximumLoad()
+					&& (cold == null || t.getRecentBytes() < cold.getRecentBytes())) {
+				cold = t;
+			}
+		}
+
+		if(count < 2 || cold == null || hot == cold || hot.getSampledLoad() < 2) {
+			return;
+		}
+
+		long mean = total / count;
+		if(hot.getRecentBytes() <= mean * rebalanceThreshold) {
+			return;
+		}
+
+		// Moving more than half the difference would just swap the imbalance
+		final long maximumBytes = (hot.getRecentBytes() - cold.getRecentBytes()) / 2;
+		final SelectorThread source = hot;
+		final SelectorThread target = cold;
+
+		if(Log.isDebugEnabled()) {
+			Log.debug(String.format("Rebalancing %s with %d bytes against an average of %d, moving up to %d bytes to %s",
+					source.getName(), source.getRecentBytes(), mean, maximumBytes, target.getName()));
+		}
+
+		source.addSelectorOperation(new Runnable() {
+			public void run() {
+				source.migrate(target, maximumBytes);
+			}
+		});
+	}
+
 	public void closeAllChannels() {
 		// Stop any threads from being removed
 		isShuttingDown = true;
@@ -150,47 +303,84 @@ public class SelectorThreadPool {
 	}
 
 	/**
-	 * Select the next available thread with the minimum load.
+	 * Select a number of distinct threads, least loaded first, creating threads
+	 * if the pool does not yet contain enough.
+	 * 
+	 * @param count
+	 *            int
+	 * @return SelectorThread[]
+	 * @throws IOException
+	 */
+	public synchronized SelectorThread[] selectThreads(int count) throws IOException {
+
+		while (threads.size() < count) {
+			createThread();
+		}
+
+		List<SelectorThread> available = new ArrayList<SelectorThread>(threads);
+		Collections.sort(available, new Comparator<SelectorThread>() {
+			public int compare(SelectorThread t1, SelectorThread t2) {
+				return Integer.compare(t1.getThreadLoad(), t2.getThreadLoad());
+			}
+		});
+
+		return available.subList(0, count).toArray(new SelectorThread[count]);
+	}
+
+	/**
+	 * Select the available thread carrying the least traffic. Connections added
+	 * since a thread was last sampled are assumed to carry the average traffic of a
+	 * connection; when threads carry equal traffic the one with the fewest channels
+	 * is selected.
 	 * 
 	 * @return SelectorThread
 	 * @throws IOException
 	 */
 	public synchronized SelectorThread selectNextThread() throws IOException {
 
-		int index = -1;
-		int highestAvailableLoad = 0;
-		SelectorThread t;
-		int currentThreadsAvailableLoad;
+		long totalBytes = 0;
+		int totalSampled = 0;
+
+		for (SelectorThread t : threads) {
+			totalBytes += t.getRecentBytes();
+			totalSampled += t.getSampledLoad();
+		}
+
+		long average = totalSampled > 0 ? totalBytes / totalSampled : 0;
+
+		SelectorThread selected = null;
+		long selectedScore = 0;
+		int selectedLoad = 0;
+
+		for (SelectorThread t : threads) {
+			int load = t.getThreadLoad();
 
-		for (int i = 0; i < threads.size(); i++) {
-			t = (SelectorThread) threads.get(i);
-			currentThreadsAvailableLoad = t.getMaximumLoad()
-					- t.getThreadLoad();
-			if (currentThreadsAvailableLoad == t.getMaximumLoad()) {
-				if(verbose && Log.isDebugEnabled())
-					Log.debug("An idle thread has been selected id="
-							+ t.getSelectorId());
-				return t;
-			}
 			if(verbose && Log.isDebugEnabled())
 				Log.debug("Thread id " + t.getSelectorId()
-						+ " has a current load of " + t.getThreadLoad()
-						+ " channels");
+						+ " has a current load of " + load
+						+ " channels and " + t.getRecentBytes() + " bytes of recent traffic");
+
+			if (load >= t.getMaximumLoad()) {
+				continue;
+			}
+
+			long score = t.getRecentBytes() 
+					+ Math.max(0, load - t.getSampledLoad()) * average;
 
-			if (currentThreadsAvailableLoad > 0
-					&& currentThreadsAvailableLoad > highestAvailableLoad) {
-				highestAvailableLoad = currentThreadsAvailableLoad;
-				index = i;
+			if (selected == null || score < selectedScore
+					|| (score == selectedScore && load < selectedLoad)) {
+				selected = t;
+				selectedScore = score;
+				selectedLoad = load;
 			}
 		}
 
-		if (index > -1) {
-			t = (SelectorThread) threads.get(index);
+		if (selected != null) {
 			if(verbose && Log.isDebugEnabled())
-				Log.debug("Existing thread id " + t.getSelectorId()
-						+ " selected with current load of " + t.getThreadLoad()
+				Log.debug("Existing thread id " + selected.getSelectorId()
+						+ " selected with current load of " + selectedLoad
 						+ " channels");
-			return (SelectorThread) threads.get(index);
+			return selected;
 		}
 
 		if(verbose && Log.isDebugEnabled())
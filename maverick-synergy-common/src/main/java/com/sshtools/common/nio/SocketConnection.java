@@ -24,8 +24,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.Connection;
@@ -43,8 +42,8 @@ public class SocketConnection implements SocketHandler {
 	protected SocketChannel socketChannel;
     protected ProtocolEngine protocolEngine;
     protected SshEngineContext daemonContext;
-    protected SelectorThread selectorThread;
-    protected SelectionKey key;
+    protected volatile SelectorThread selectorThread;
+    protected volatile SelectionKey key;
     protected SshEngine daemon;
 
     protected ByteBuffer socketDataIn;
@@ -59,7 +58,35 @@ public class SocketConnection implements SocketHandler {
     int pendingIncludeOps = 0;
 
     Object opsLock = new Object();
-    LinkedList<SocketWriteCallback> socketWriteCallbacks = new LinkedList<SocketWriteCallback>();
+    
+    ByteBuffer[] socketDataOutBatch;
+    SocketWriteCallback[] socketWriteCallbacks;
+    int batchOffset = 0;
+    int batchCount = 0;
+    
+    AtomicBoolean writeRequested = new AtomicBoolean();
+    Runnable flagWriteOperation = new Runnable() {
+		public void run() {
+			SelectorThread thread = selectorThread;
+			if(!Thread.currentThread().equals(thread)) {
+				// The connection has moved to another selector thread
+				thread.addSelectorOperation(this);
+				return;
+			}
+			writeRequested.set(false);
+			SelectionKey key = SocketConnection.this.key;
+			if(key.isValid()) {
+				if(Log.isTraceEnabled()) {
+					Log.trace("Flag selector as READ/WRITE");
+				}
+				key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+			}
+		}
+	};
+    
+    volatile long bytesProcessed;
+    volatile long recentBytes;
+    long lastSampledBytes;
 
 	private SocketAddress remoteAddress;
 
@@ -279,6 +306,10 @@ public class SocketConnection implements SocketHandler {
           if(Log.isTraceEnabled()) {
         	  Log.trace("Read " + numBytesRead + " bytes from socket");
           }
+          
+          if(numBytesRead > 0) {
+        	  bytesProcessed += numBytesRead;
+          }
          
 
           if (numBytesRead == -1) {
@@ -327,7 +358,10 @@ public class SocketConnection implements SocketHandler {
     }
 
     /**
-     * The selector is ready to be written to.
+     * The selector is ready to be written to. When all previously encoded data
+     * has been written we ask the protocol engine for as many messages as it
+     * is able to batch, each encoded into its own pooled buffer, and flush
+     * them with a single gathering write.
      *
      * @return boolean
      */
@@ -340,30 +374,22 @@ public class SocketConnection implements SocketHandler {
             return true;
         }
 
-        if (socketDataOut == null) {
-            socketDataOut = daemonContext.getBufferPool().get();
-        }
-
         try {
         	
         	// Make sure we have sent all buffered data before getting more from protocol engine
-             if(socketDataOut.remaining() == socketDataOut.capacity()
-            		 && protocolEngine.isConnected()) {
-        		SocketWriteCallback c = protocolEngine.onSocketWrite(socketDataOut);
-        		if(c!=null)
-            	 socketWriteCallbacks.addLast(c);
-             }
-
-            socketDataOut.flip();
+            if(batchCount == 0 && protocolEngine.isConnected()) {
+            	fillWriteBatch();
+            }
 
             // Check before we send that the connection hasn't been closed
             if(!socketChannel.isOpen())
                 return true;
 
-            if(socketDataOut.hasRemaining()) {
-            	int written = socketChannel.write(socketDataOut);
+            if(batchOffset < batchCount) {
+            	long written = socketChannel.write(socketDataOutBatch, batchOffset, batchCount - batchOffset);
+            	bytesProcessed += written;
             	if(Log.isTraceEnabled()) {
-            		Log.trace("Written " + written + " bytes to socket");
+            		Log.trace("Written " + written + " bytes to socket from " + (batchCount - batchOffset) + " buffers");
             	}
             }
             
@@ -389,18 +415,7 @@ public class SocketConnection implements SocketHandler {
             return true;
         } finally {
         	
-            if(socketDataOut!=null) {
-                if (!socketDataOut.hasRemaining()) {
-                    daemonContext.getBufferPool().add(socketDataOut);
-                    socketDataOut = null;
-                    
-                    for(Iterator<SocketWriteCallback> it = socketWriteCallbacks.iterator(); it.hasNext() ;) {
-                    	it.next().completedWrite();
-                    }
-                    socketWriteCallbacks.clear();
-                } else
-                    socketDataOut.compact();
-            }
+        	completeWrittenBuffers();
             
             if(socketDataIn!=null) {
                 if (!socketDataIn.hasRemaining()) {
@@ -413,6 +428,55 @@ public class SocketConnection implements SocketHandler {
         }
     }
 
+    /**
+     * Encode the next batch of outgoing messages. The protocol engine is always
+     * asked for at least one message; further messages are only requested
+     * whilst the engine reports it can batch them.
+     */
+    private void fillWriteBatch() {
+    	
+    	int maximumBuffers = Math.max(1, daemonContext.getMaximumBuffersPerWrite());
+    	if(socketDataOutBatch==null || socketDataOutBatch.length != maximumBuffers) {
+    		socketDataOutBatch = new ByteBuffer[maximumBuffers];
+    		socketWriteCallbacks = new SocketWriteCallback[maximumBuffers];
+    	}
+    	
+    	batchOffset = 0;
+    	do {
+    		ByteBuffer buf = daemonContext.getBufferPool().get();
+    		socketWriteCallbacks[batchCount] = protocolEngine.onSocketWrite(buf);
+    		buf.flip();
+    		socketDataOutBatch[batchCount++] = buf;
+    		if(!buf.hasRemaining()) {
+    			break;
+    		}
+    	} while(batchCount < maximumBuffers && protocolEngine.canBatchWrites());
+    }
+    
+    /**
+     * Return any fully written buffers to the pool and notify their callbacks
+     * in the order the messages were encoded.
+     */
+    private void completeWrittenBuffers() {
+    	
+    	while(batchOffset < batchCount && !socketDataOutBatch[batchOffset].hasRemaining()) {
+    		
+    		daemonContext.getBufferPool().add(socketDataOutBatch[batchOffset]);
+    		socketDataOutBatch[batchOffset] = null;
+    		
+    		SocketWriteCallback c = socketWriteCallbacks[batchOffset];
+    		socketWriteCallbacks[batchOffset++] = null;
+    		if(c!=null) {
+    			c.completedWrite();
+    		}
+    	}
+    	
+    	if(batchOffset == batchCount) {
+    		batchOffset = 0;
+    		batchCount = 0;
+    	}
+    }
+
     /**
      * Set the selector thread for this connection
      * 
@@ -423,13 +487,39 @@ public class SocketConnection implements SocketHandler {
 	}
 	
 	
+	/**
+	 * Get the total number of bytes read from and written to the socket.
+	 * 
+	 * @return long
+	 */
+	public long getBytesProcessed() {
+		return bytesProcessed;
+	}
+
+	/**
+	 * Get the number of bytes read and written during the selector thread's 
+	 * last sample period.
+	 * 
+	 * @return long
+	 */
+	public long getRecentBytes() {
+		return recentBytes;
+	}
+
+	long sample() {
+		long bytes = bytesProcessed;
+		recentBytes = bytes - lastSampledBytes;
+		lastSampledBytes = bytes;
+		return recentBytes;
+	}
+
 	public void addTask(ConnectionAwareTask task) {
 		protocolEngine.getExecutor().addTask(SOCKET_QUEUE, task);
 	}
 
 	@Override
 	public synchronized boolean wantsWrite() {
-		return (socketDataOut!=null && socketDataOut.hasRemaining()) || (protocolEngine!=null && protocolEngine.wantsToWrite());
+		return (socketDataOut!=null && socketDataOut.hasRemaining()) || batchOffset < batchCount || (protocolEngine!=null && protocolEngine.wantsToWrite());
 	}
 
 	@Override
@@ -437,17 +527,15 @@ public class SocketConnection implements SocketHandler {
 		return selectorThread;
 	}
 
+	/**
+	 * Ask the selector thread to include this connection in the next write. Calls made
+	 * whilst an earlier request is still waiting for the selector thread are coalesced
+	 * into it.
+	 */
 	public void flagWrite() {
-		selectorThread.addSelectorOperation(new Runnable() {
-			public void run() {
-				if(key.isValid()) {
-					if(Log.isTraceEnabled()) {
-						Log.trace("Flag selector as READ/WRITE");
-					}
-					key.interestOps(SelectionKey.OP_WRITE | SelectionKey.OP_READ);
-				}
-			}
-		});
+		if(writeRequested.compareAndSet(false, true)) {
+			selectorThread.addSelectorOperation(flagWriteOperation);
+		}
 	}
 	
 	public String getName() {
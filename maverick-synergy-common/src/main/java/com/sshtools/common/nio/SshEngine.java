@@ -21,6 +21,8 @@ package com.sshtools.common.nio;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
@@ -44,6 +46,7 @@ import com.sshtools.common.ssh.ChannelRequestFuture;
 import com.sshtools.common.ssh.Connection;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.util.ByteBufferPool;
 import com.sshtools.common.util.Utils;
 
 /**
@@ -227,6 +230,9 @@ public class SshEngine {
 					getIntValue(properties, "maverick.config.idlePeriod", context.getIdleServiceRunPeriod()),
 					getIntValue(properties, "maverick.config.idleEvents", context.getInactiveServiceRunsPerIdleEvent()),
 					context.getSelectorProvider());
+			transferThreads.setRebalanceInterval(context.getSelectorRebalanceInterval());
+			transferThreads.setRebalanceThreshold(context.getSelectorRebalanceThreshold());
+			transferThreads.setRebalancing(context.isSelectorRebalancing());
 
 			acceptThreads = new SelectorThreadPool(new AcceptSelectorThread(),
 					getIntValue(properties, "maverick.config.accept.threads", context.getPermanentAcceptThreads()),
@@ -295,13 +301,19 @@ public class SshEngine {
 
 		try {
 			
-			ServerSocketChannel socketChannel = context.getSelectorProvider()
-					.openServerSocketChannel();
-			socketChannel.configureBlocking(false);
+			ServerSocketChannel socketChannel = openServerSocket(li);
+
+			SocketOption<Boolean> reusePort = null;
+			if(li.getAcceptorCount() > 1) {
+				reusePort = getReusePortOption(socketChannel);
+				if(reusePort != null) {
+					socketChannel.setOption(reusePort, true);
+				} else if(Log.isWarnEnabled()) {
+					Log.warn("SO_REUSEPORT is not supported so a single acceptor will be used for "
+							+ li.getAddressToBind().toString());
+				}
+			}
 			
-			socketChannel.socket().setReuseAddress(
-					li.getSocketOptionReuseAddress());
-
 			ServerSocket socket = socketChannel.socket();
 			
 			socket.bind(li.getAddressToBind(), li.getBacklog());
@@ -312,7 +324,11 @@ public class SshEngine {
 			ProtocolClientAcceptor a = new ProtocolClientAcceptor(li,
 					socketChannel);
 
-			registerAcceptor(a, socketChannel);
+			if(reusePort == null) {
+				registerAcceptor(a, socketChannel);
+			} else {
+				registerAcceptors(a, reusePort);
+			}
 
 			acceptors.put(li.getAddressToBind().toString(), a);
 
@@ -342,6 +358,71 @@ public class SshEngine {
 		
 	}
 
+	private ServerSocketChannel openServerSocket(ListeningInterface li) throws IOException {
+		
+		ServerSocketChannel socketChannel = context.getSelectorProvider()
+				.openServerSocketChannel();
+		socketChannel.configureBlocking(false);
+		
+		socketChannel.socket().setReuseAddress(
+				li.getSocketOptionReuseAddress());
+		return socketChannel;
+	}
+
+	/**
+	 * SO_REUSEPORT is only defined from Java 9 so it is looked up at runtime and
+	 * only returned when the channel supports it.
+	 */
+	@SuppressWarnings("unchecked")
+	private SocketOption<Boolean> getReusePortOption(ServerSocketChannel socketChannel) {
+		try {
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class
+					.getField("SO_REUSEPORT").get(null);
+			if(socketChannel.supportedOptions().contains(option)) {
+				return option;
+			}
+		} catch (NoSuchFieldException e) {
+		} catch (IllegalAccessException e) {
+		}
+		return null;
+	}
+
+	/**
+	 * Bind the remaining sockets of a multi-acceptor interface to the port of the
+	 * first and register each with its own transfer thread, which then accepts and
+	 * services its connections without handing them to another thread.
+	 */
+	private void registerAcceptors(ProtocolClientAcceptor a,
+			SocketOption<Boolean> reusePort) throws IOException {
+		
+		ListeningInterface li = a.li;
+		InetSocketAddress boundAddress = new InetSocketAddress(
+				li.getAddressToBind().getAddress(), li.getActualPort());
+		
+		try {
+			for(int i = 1; i < li.getAcceptorCount(); i++) {
+				ServerSocketChannel socketChannel = openServerSocket(li);
+				a.socketChannels.add(socketChannel);
+				socketChannel.setOption(reusePort, true);
+				socketChannel.socket().bind(boundAddress, li.getBacklog());
+			}
+
+			a.servedByAcceptingThread = true;
+			
+			SelectorThread[] threads = transferThreads.selectThreads(a.socketChannels.size());
+			for(int i = 0; i < threads.length; i++) {
+				threads[i].register(a.socketChannels.get(i), SelectionKey.OP_ACCEPT, a, true);
+			}
+			
+			if(Log.isInfoEnabled())
+				Log.info(String.format("Accepting connections on %s with %d SO_REUSEPORT sockets", 
+						boundAddress.toString(), threads.length));
+		} catch(IOException e) {
+			a.stopAccepting();
+			throw e;
+		}
+	}
+
 	public void removeAcceptor(ListeningInterface li) {
 
 		if(Log.isInfoEnabled())
@@ -404,7 +485,15 @@ public class SshEngine {
 			// Stop accepting new connections
 			if (acceptThreads != null)
 				acceptThreads.shutdown();
-			
+
+			// Acceptors using SO_REUSEPORT live on the transfer threads
+			for(ProtocolClientAcceptor a : acceptors.values()) {
+				try {
+					a.stopAccepting();
+				} catch (IOException e) {
+				}
+			}
+
 			for(ListeningInterface li : listeningInterfaces) {
 				for(SshEngineListener listener : listeners) {
 					listener.interfaceStopped(this, li);
@@ -607,10 +696,15 @@ public class SshEngine {
 
 			ClientAcceptor acceptor = (ClientAcceptor) key.attachment();
 
-			if(Log.isTraceEnabled())
-				Log.trace(context.getBufferPool().getAllocatedBuffers()
-						+ " direct buffers allocated, "
-						+ context.getBufferPool().getFreeBuffers() + " free");
+			if(Log.isTraceEnabled()) {
+				ByteBufferPool pool = context.getBufferPool();
+				Log.trace(pool.getAllocatedBuffers()
+						+ (pool.isDirect() ? " direct" : " heap") + " buffers allocated, "
+						+ pool.getFreeBuffers() + " free, "
+						+ pool.getHits() + " hits, "
+						+ pool.getMisses() + " misses, "
+						+ pool.getDiscarded() + " discarded");
+			}
 			acceptor.finishAccept(key);
 		}
 		
@@ -624,6 +718,12 @@ public class SshEngine {
 
 		public void processSelectionKey(final SelectionKey key, SelectorThread t) {
 
+			if(key.attachment() instanceof ClientAcceptor) {
+				// An SO_REUSEPORT socket accepting on this thread
+				((ClientAcceptor) key.attachment()).finishAccept(key);
+				return;
+			}
+			
 			SocketHandler listener = (SocketHandler) key.attachment();
 
 			if (key != null && key.isValid()) {
@@ -754,14 +854,15 @@ public class SshEngine {
 	
 	class ProtocolClientAcceptor extends ClientAcceptor {
 
-		ServerSocketChannel socketChannel;
+		List<ServerSocketChannel> socketChannels = new ArrayList<ServerSocketChannel>();
 		ListeningInterface li;
+		boolean servedByAcceptingThread;
 
 		ProtocolClientAcceptor(ListeningInterface li,
 				ServerSocketChannel socketChannel) {
 			super(li);
 			this.li = li;
-			this.socketChannel = socketChannel;
+			this.socketChannels.add(socketChannel);
 		}
 
 		public boolean finishAccept(SelectionKey key,
@@ -820,7 +921,11 @@ public class SshEngine {
 		        			sc.socket().getRemoteSocketAddress());
 		        	ProtocolEngine e = protocolContext.createEngine(new ConnectRequestFuture());
 		            connection.initialize(e, SshEngine.this, sc);
-		        	registerHandler(connection, sc);
+		        	if(servedByAcceptingThread && Thread.currentThread() instanceof SelectorThread) {
+		        		registerHandler(connection, sc, (SelectorThread) Thread.currentThread());
+		        	} else {
+		        		registerHandler(connection, sc);
+		        	}
 			        
 					registered = true;
 
@@ -855,7 +960,17 @@ public class SshEngine {
 		}
 
 		public void stopAccepting() throws IOException {
-			socketChannel.close();
+			IOException lastError = null;
+			for(ServerSocketChannel socketChannel : socketChannels) {
+				try {
+					socketChannel.close();
+				} catch(IOException e) {
+					lastError = e;
+				}
+			}
+			if(lastError != null) {
+				throw lastError;
+			}
 		}
 
 	}
@@ -50,6 +50,10 @@ public class SshEngineContext {
 	int inactivePeriodsPerIdleEvent = 1;
 	boolean useDirectByteBuffers = true;
 	int bufferPoolArraySize = 65536+4096;
+	int maximumBuffersPerWrite = 8;
+	boolean selectorRebalancing = false;
+	long selectorRebalanceInterval = 5000;
+	float selectorRebalanceThreshold = 1.5f;
 	Map<String, ListeningInterface> interfacesToBind = new ConcurrentHashMap<String, ListeningInterface>(8, 0.9f, 1);
 
 	int ipv6WorkaroundPort = 60022;
@@ -115,7 +119,8 @@ public class SshEngineContext {
 	}
 	
 	/**
-	 * Returns a direct buffer pool.
+	 * Returns the pool of buffers used for socket I/O. The buffers are direct
+	 * unless {@link #setUsingDirectBuffers(boolean)} has been used to disable them.
 	 * 
 	 * @return ByteBufferPool
 	 */
@@ -187,6 +192,101 @@ public class SshEngineContext {
 		this.bufferPoolArraySize = bufferPoolArraySize;
 	}
 
+	/**
+	 * Get the maximum number of buffers encoded and flushed in a single
+	 * gathering write to the socket.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumBuffersPerWrite() {
+		return maximumBuffersPerWrite;
+	}
+
+	/**
+	 * Set the maximum number of buffers encoded and flushed in a single
+	 * gathering write to the socket. Each outgoing message is encoded into
+	 * its own buffer from the pool, so this limits the number of messages
+	 * sent per write event. A value of 1 writes a single message per event.
+	 * 
+	 * @param maximumBuffersPerWrite
+	 *            int
+	 */
+	public void setMaximumBuffersPerWrite(int maximumBuffersPerWrite) {
+		if (maximumBuffersPerWrite < 1)
+			throw new IllegalArgumentException(
+					"There must be at least one buffer per write");
+		this.maximumBuffersPerWrite = maximumBuffersPerWrite;
+	}
+
+	/**
+	 * Determine whether connections are moved between transfer threads to 
+	 * balance traffic.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isSelectorRebalancing() {
+		return selectorRebalancing;
+	}
+
+	/**
+	 * Move busy connections from a transfer thread that is carrying much more 
+	 * than its share of the traffic to the quietest transfer thread. Connections 
+	 * are only moved between reads and writes. This must be set before the engine 
+	 * is started.
+	 * 
+	 * @param selectorRebalancing
+	 *            boolean
+	 */
+	public void setSelectorRebalancing(boolean selectorRebalancing) {
+		this.selectorRebalancing = selectorRebalancing;
+	}
+
+	/**
+	 * Get the period in milliseconds over which transfer thread traffic is 
+	 * sampled.
+	 * 
+	 * @return long
+	 */
+	public long getSelectorRebalanceInterval() {
+		return selectorRebalanceInterval;
+	}
+
+	/**
+	 * Set the period in milliseconds over which transfer thread traffic is 
+	 * sampled. The samples are used to place new connections and, when 
+	 * rebalancing is enabled, at most one connection is moved per period.
+	 * 
+	 * @param selectorRebalanceInterval
+	 *            long
+	 */
+	public void setSelectorRebalanceInterval(long selectorRebalanceInterval) {
+		if (selectorRebalanceInterval <= 0)
+			throw new IllegalArgumentException(
+					"The rebalance interval must be greater than zero");
+		this.selectorRebalanceInterval = selectorRebalanceInterval;
+	}
+
+	/**
+	 * Get how many times the average traffic per transfer thread the busiest 
+	 * thread must carry before a connection is moved off it.
+	 * 
+	 * @return float
+	 */
+	public float getSelectorRebalanceThreshold() {
+		return selectorRebalanceThreshold;
+	}
+
+	/**
+	 * Set how many times the average traffic per transfer thread the busiest 
+	 * thread must carry before a connection is moved off it.
+	 * 
+	 * @param selectorRebalanceThreshold
+	 *            float
+	 */
+	public void setSelectorRebalanceThreshold(float selectorRebalanceThreshold) {
+		this.selectorRebalanceThreshold = selectorRebalanceThreshold;
+	}
+
 	/**
 	 * Add an interface and port to the listening socket list and provide the
 	 * protocol context.
@@ -218,10 +318,51 @@ public class SshEngineContext {
 	 */
 	public ListeningInterface addListeningInterface(InetAddress addressToBind,
 			int portToBind, ProtocolContextFactory<?> contextFactory, boolean reuseAddress) throws IOException {
+		return addListeningInterface(addressToBind, portToBind, contextFactory, reuseAddress, 1);
+	}
+
+	/**
+	 * Add an interface and port to the listening socket list, opening a number
+	 * of SO_REUSEPORT sockets that each accept and service their connections on
+	 * their own transfer thread.
+	 *
+	 * @param addressToBind
+	 *            String
+	 * @param portToBind
+	 *            int
+	 * @param contextFactory
+	 * @param reuseAddress
+	 * @param acceptors
+	 *            number of sockets to open
+	 * @throws IOException
+	 */
+	public ListeningInterface addListeningInterface(String addressToBind,
+			int portToBind, ProtocolContextFactory<?> contextFactory, boolean reuseAddress, int acceptors) throws IOException {
+		return addListeningInterface(InetAddress.getByName(addressToBind),
+				portToBind, contextFactory, reuseAddress, acceptors);
+	}
+
+	/**
+	 * Add an interface and port to the listening socket list, opening a number
+	 * of SO_REUSEPORT sockets that each accept and service their connections on
+	 * their own transfer thread. When SO_REUSEPORT is not available a single
+	 * socket is opened.
+	 *
+	 * @param addressToBind
+	 * @param portToBind
+	 * @param contextFactory
+	 * @param reuseAddress
+	 * @param acceptors
+	 *            number of sockets to open
+	 * @throws IOException
+	 */
+	public ListeningInterface addListeningInterface(InetAddress addressToBind,
+			int portToBind, ProtocolContextFactory<?> contextFactory, boolean reuseAddress, int acceptors) throws IOException {
 		InetSocketAddress ISA = new InetSocketAddress(addressToBind, portToBind);
 		ListeningInterface li = new ListeningInterface(ISA, contextFactory);
 		li.setSocketOptionReuseAddress(reuseAddress);
-		
+		li.setAcceptorCount(acceptors);
+
 		interfacesToBind.put(ISA.toString(), li);
 
 		if (daemon.isStarted() && !daemon.isStarting())
@@ -25,15 +25,27 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.IdleStateListener;
 import com.sshtools.common.nio.WriteOperationRequest;
 import com.sshtools.common.sshd.SshMessage;
+import com.sshtools.common.util.PooledByteArray;
 
 /**
  * This abstract class provides the basic functions of an SSH2 channel. All
@@ -48,6 +60,11 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	final static int CHANNEL_UNINITIALIZED = 0;
 	final static int CHANNEL_OPEN = 1;
 	final static int CHANNEL_CLOSED = 2;
+	
+	/**
+	 * How long a blocking send waits without any of its data being sent before failing.
+	 */
+	final static long SEND_TIMEOUT = Long.getLong("maverick.channelSendTimeout", 120000L);
 
 	long lastActivity = System.currentTimeMillis();
 	int timeout = 0;
@@ -85,6 +102,20 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	protected SshConnection con;
 	private ChannelInputStream channelIn;
 	private ChannelOutputStream channelOut = new ChannelOutputStream(this);
+	PooledByteArray dataMessage;
+	LinkedList<PendingWrite> pendingWrites = new LinkedList<PendingWrite>();
+	Queue<PendingWrite> inflightWrites = new ConcurrentLinkedQueue<PendingWrite>();
+	boolean pendingEOF = false;
+	boolean coalesceWrites = false;
+	byte[] coalesceBuffer;
+	int coalesceCount;
+	AtomicReference<CompletableFuture<Void>> coalesceInflight = new AtomicReference<CompletableFuture<Void>>();
+	volatile boolean coalescePending;
+	long coalesceDelay = 0;
+	boolean coalesceFlushScheduled;
+	long coalescedWriteCount;
+	long coalescedPacketCount;
+	long coalescedByteCount;
 	
 	/**
 	 * Construct a channel with the specified settings.
@@ -169,6 +200,12 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	void init(ConnectionProtocol<T> connection) {
 		this.connection = connection;
 		this.con = connection.getConnection();
+		if(!coalesceWrites) {
+			coalesceWrites = connection.getContext().isCoalesceChannelWrites();
+		}
+		if(coalesceDelay == 0) {
+			coalesceDelay = connection.getContext().getCoalesceChannelWriteDelay();
+		}
 	}
 
 	/**
@@ -346,10 +383,16 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		
 		remoteWindow.adjust(count);
 		
+		boolean sendEOF;
 		synchronized(ChannelNG.this) {
+			sendEOF = processPendingWrites();
 			ChannelNG.this.notifyAll();
 		}
 		
+		if(sendEOF) {
+			sendEOF();
+		}
+		
 		onWindowAdjust(count);
 
 		for (ChannelEventListener listener : eventListeners) {
@@ -419,6 +462,27 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		}
 	}
 	
+	void processChannelData(ByteBuffer data, PooledByteArray message) throws IOException {
+		dataMessage = message;
+		try {
+			processChannelData(data);
+		} finally {
+			dataMessage = null;
+		}
+	}
+
+	/**
+	 * The buffers passed to {@link #onChannelData(ByteBuffer)} and {@link #onExtendedData(ByteBuffer, int)}
+	 * are backed by pooled message arrays that are recycled as soon as the callback returns. A channel
+	 * that needs the data after returning must call this method from within the callback and release
+	 * the returned reference once it has finished with the data.
+	 * 
+	 * @return a reference to the message array, or null if the current data is not pooled.
+	 */
+	protected PooledByteArray retainChannelData() {
+		return dataMessage == null ? null : dataMessage.retain();
+	}
+	
 	void processChannelData(ByteBuffer data) throws IOException {
 		
 
@@ -455,8 +519,231 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	}
 	
 	public void sendData(byte[] data, int off, int len) throws IOException {
+		if(coalesceWrites && len < remoteWindow.getMaximumPacketSize()) {
+			coalesceData(data, off, len);
+		} else {
+			sendChannelDataAndBlock(data, off, len, null);
+		}
+	}
+
+	@Override
+	public void sendData(ByteBuffer buf) throws IOException {
+		sendChannelDataAndBlock(buf);
+	}
+
+	/**
+	 * Determines whether small writes made through {@link #sendData(byte[], int, int)} 
+	 * and the channel's OutputStream are coalesced.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isCoalesceWrites() {
+		return coalesceWrites;
+	}
+
+	/**
+	 * When enabled, small writes are merged into a single SSH_MSG_CHANNEL_DATA packet
+	 * whilst a previous packet from this channel is still waiting to be written to the
+	 * socket, in the manner of Nagle's algorithm. The first write after the channel goes
+	 * quiet is sent immediately, or after {@link #setCoalesceDelay(long)} milliseconds
+	 * when a delay is set; writes that follow are buffered until the earlier
+	 * packet has been sent, the buffer reaches the remote maximum packet size,
+	 * {@link #flushData()} is called or EOF is sent. Writes that are buffered return
+	 * without waiting for the data to reach the socket. While earlier data is waiting
+	 * for the remote window, writes block until they have been sent, as they do when
+	 * coalescing is disabled.
+	 * 
+	 * @param coalesceWrites
+	 */
+	public void setCoalesceWrites(boolean coalesceWrites) throws IOException {
+		if(!coalesceWrites) {
+			flushData();
+		}
+		this.coalesceWrites = coalesceWrites;
+	}
+
+	/**
+	 * The time in milliseconds a coalesced write is held waiting for more data.
+	 * 
+	 * @return long
+	 */
+	public long getCoalesceDelay() {
+		return coalesceDelay;
+	}
+
+	/**
+	 * Hold the first write after the channel goes quiet for up to this many
+	 * milliseconds so that writes which follow closely are sent in the same packet.
+	 * The data is sent sooner if the buffer reaches the remote maximum packet size or
+	 * {@link #flushData()} is called. The default of zero sends it immediately.
+	 * 
+	 * @param coalesceDelay
+	 */
+	public void setCoalesceDelay(long coalesceDelay) {
+		this.coalesceDelay = Math.max(0, coalesceDelay);
+	}
+
+	/**
+	 * Send any data buffered by write coalescing.
+	 */
+	public void flushData() throws IOException {
+		synchronized(ChannelNG.this) {
+			if(coalesceCount > 0) {
+				if(isLocalEOF.get() || isClosed()) {
+					throw new IOException("Channel has been closed");
+				}
+				flushCoalescedData();
+			}
+		}
+	}
+
+	/**
+	 * The number of writes that have been passed through write coalescing.
+	 * 
+	 * @return long
+	 */
+	public long getCoalescedWriteCount() {
+		return coalescedWriteCount;
+	}
+
+	/**
+	 * The number of SSH_MSG_CHANNEL_DATA packets that coalesced writes were sent in.
+	 * 
+	 * @return long
+	 */
+	public long getCoalescedPacketCount() {
+		return coalescedPacketCount;
+	}
+
+	/**
+	 * The number of bytes sent through write coalescing.
+	 * 
+	 * @return long
+	 */
+	public long getCoalescedByteCount() {
+		return coalescedByteCount;
+	}
+
+	private void coalesceData(byte[] data, int off, int len) throws IOException {
+		
+		lastActivity = System.currentTimeMillis();
+		
+		synchronized(ChannelNG.this) {
+			
+			if(isLocalEOF.get() || pendingEOF || isClosed()) {
+				throw new IOException("Channel has been closed");
+			}
+			
+			if(pendingWrites.isEmpty() && remoteWindow.getWindowSpace() > 0) {
+				bufferCoalescedData(data, off, len);
+				return;
+			}
+		}
+		
+		/**
+		 * Earlier data is waiting for the remote window so block as an uncoalesced
+		 * write would. Any buffered data is queued ahead of this write.
+		 */
 		sendChannelDataAndBlock(data, off, len, null);
 	}
+	
+	/**
+	 * Add a write to the coalesce buffer. Must be called while holding the 
+	 * channel lock.
+	 */
+	private void bufferCoalescedData(byte[] data, int off, int len) {
+		
+		int max = remoteWindow.getMaximumPacketSize();
+		if(coalesceCount + len > max) {
+			flushCoalescedData();
+		}
+		
+		if(Objects.isNull(coalesceBuffer)) {
+			coalesceBuffer = new byte[max];
+		}
+		
+		System.arraycopy(data, off, coalesceBuffer, coalesceCount, len);
+		coalesceCount += len;
+		coalescedWriteCount++;
+		coalescedByteCount += len;
+		coalescePending = true;
+		
+		if(coalesceCount == max) {
+			flushCoalescedData();
+		} else if(Objects.isNull(coalesceInflight.get())) {
+			if(coalesceDelay > 0) {
+				scheduleCoalescedFlush();
+			} else {
+				flushCoalescedData();
+			}
+		}
+	}
+	
+	/**
+	 * Queue the coalesced data as a single write. Must be called while holding the 
+	 * channel lock.
+	 */
+	private void flushCoalescedData() {
+		
+		if(coalesceCount == 0) {
+			return;
+		}
+		
+		ByteBuffer buf = ByteBuffer.wrap(coalesceBuffer, 0, coalesceCount);
+		coalesceBuffer = null;
+		coalesceCount = 0;
+		coalescePending = false;
+		coalescedPacketCount++;
+		
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		coalesceInflight.set(future);
+		future.whenComplete(new BiConsumer<Void,Throwable>() {
+			public void accept(Void v, Throwable e) {
+				/**
+				 * This runs on the thread that wrote the packet to the socket so it must 
+				 * not wait for the channel lock. Writers set coalescePending before checking
+				 * for an in-flight packet, so either they flush or we see their data here.
+				 */
+				coalesceInflight.compareAndSet(future, null);
+				if(Objects.isNull(e) && coalescePending) {
+					con.executeTask(flushCoalescedTask);
+				}
+			}
+		});
+		
+		pendingWrites.addLast(new PendingWrite(buf, 0, future));
+		if(pendingWrites.size() == 1) {
+			processPendingWrites();
+		}
+	}
+
+	/**
+	 * Send the buffered data once the coalescing delay expires. Must be called while
+	 * holding the channel lock.
+	 */
+	private void scheduleCoalescedFlush() {
+		
+		if(coalesceFlushScheduled) {
+			return;
+		}
+		coalesceFlushScheduled = true;
+		SshContext.getScheduledExecutorService().schedule(new Runnable() {
+			public void run() {
+				con.executeTask(flushCoalescedTask);
+			}
+		}, coalesceDelay, TimeUnit.MILLISECONDS);
+	}
+	
+	final Runnable flushCoalescedTask = new Runnable() {
+		public void run() {
+			synchronized(ChannelNG.this) {
+				coalesceFlushScheduled = false;
+				if(Objects.isNull(coalesceInflight.get()) && !isLocalEOF.get() && !isClosed()) {
+					flushCoalescedData();
+				}
+			}
+		}
+	};
 
 	public void sendChannelDataAndBlock(byte[] data, int off, int len, Runnable r) throws IOException {
 		
@@ -478,7 +765,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		sendChannelDataAndBlock(buf, 0, r);
 	}
 	/**
-	 * Send channel data from a ByteBuffer
+	 * Send channel data from a ByteBuffer, blocking until the data has been
+	 * passed to the socket.
 	 * @param buf
 	 * @param r
 	 */
@@ -488,93 +776,256 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			throw new IllegalStateException("You appear to be calling sendChannelData on a selector thread. Use TransportProtocol.addOutgoingTask to place on the outgoing message queue.");
 		}
 		
-		lastActivity = System.currentTimeMillis();
+		CompletableFuture<Void> future = sendChannelData(buf, type);
+		
+		long lastProgress = System.currentTimeMillis();
+		int lastRemaining = buf.remaining();
+		while(!future.isDone()) {
+			try {
+				future.get(5000, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if(isClosed()) {
+					throw new IOException("Channel has been closed");
+				}
+				int remaining = buf.remaining();
+				if(remaining != lastRemaining) {
+					lastRemaining = remaining;
+					lastProgress = System.currentTimeMillis();
+				} else if(System.currentTimeMillis() - lastProgress >= SEND_TIMEOUT) {
+					IOException ex = new IOException("Timeout waiting for data to be sent on channel " + getLocalId());
+					cancelWrite(future, ex);
+					throw ex;
+				}
+				if(Log.isDebugEnabled()) {
+					log("Waiting", String.format("for %d bytes to be sent", remaining));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				InterruptedIOException ex = new InterruptedIOException("Interrupted waiting for data to be sent on channel " + getLocalId());
+				cancelWrite(future, ex);
+				throw ex;
+			} catch (ExecutionException e) {
+			}
+		}
 		
-		ChannelData lastMessage = null;
+		if(future.isCompletedExceptionally()) {
+			try {
+				future.join();
+			} catch(Throwable e) {
+				Throwable cause = Objects.isNull(e.getCause()) ? e : e.getCause();
+				if(cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException(cause.getMessage(), cause);
+			}
+		}
+
+		if(r!=null) {
+			getConnectionProtocol().addTask(ExecutorOperationSupport.CALLBACKS, new ConnectionTaskWrapper(getConnection(), r));
+		}
+	}
+	
+	/**
+	 * Send channel data from a ByteBuffer without blocking. The data is split into
+	 * packets as remote window space allows; when the window is exhausted the remainder
+	 * is queued and resumed when the remote side adjusts the window. The returned future
+	 * completes once the last of the data has been passed to the socket, or completes
+	 * exceptionally if the channel is closed first. The buffer must not be modified
+	 * until the future has completed.
+	 * 
+	 * @param buf
+	 * @return future
+	 */
+	public CompletableFuture<Void> sendChannelData(ByteBuffer buf) {
+		return sendChannelData(buf, 0);
+	}
+	
+	/**
+	 * Send channel data, or extended channel data when type is non-zero, from a ByteBuffer
+	 * without blocking.
+	 * 
+	 * @param buf
+	 * @param type
+	 * @return future
+	 * @see #sendChannelData(ByteBuffer)
+	 */
+	public CompletableFuture<Void> sendChannelData(ByteBuffer buf, int type) {
+		
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		
+		lastActivity = System.currentTimeMillis();
 
 		if(Log.isTraceEnabled()) {
-			Log.debug(String.format("Queue Buffer rem=%d pos=%d limit=%d, capacity=%d", buf.remaining(), buf.position(), buf.limit(), buf.capacity()));
+			Log.trace(String.format("Queue Buffer rem=%d pos=%d limit=%d, capacity=%d", buf.remaining(), buf.position(), buf.limit(), buf.capacity()));
 		}
 		
 		synchronized(ChannelNG.this) {
-
-			do {
+			if(isLocalEOF.get() || pendingEOF || isClosed()) {
+				future.completeExceptionally(new IOException("Channel has been closed"));
+				return future;
+			}
+			if(type == 0) {
+				flushCoalescedData();
+			}
+			pendingWrites.addLast(new PendingWrite(buf, type, future));
+			if(pendingWrites.size() == 1) {
+				processPendingWrites();
+			}
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * Send as much queued data as the remote window allows. Must be called while
+	 * holding the channel lock.
+	 * 
+	 * @return true if a deferred EOF should now be sent.
+	 */
+	private boolean processPendingWrites() {
+		
+		PendingWrite write;
+		while((write = pendingWrites.peekFirst()) != null) {
 			
-				if(isLocalEOF.get() || isClosed()) {
-					throw new IOException("Channel has been closed");
+			if(isLocalEOF.get() || isClosed()) {
+				failPendingWrites();
+				return false;
+			}
+			
+			ByteBuffer buf = write.buf;
+			int count = Math.min(remoteWindow.getMaximumPacketSize(), 
+					Math.min(remoteWindow.getWindowSpace(), buf.remaining()));
+			
+			if(count == 0 && buf.hasRemaining()) {
+				if(Log.isDebugEnabled()) {
+					log("Waiting", String.format("for %d bytes of remote window", buf.remaining()));
+				}
+				return false;
+			}
+			
+			remoteWindow.consume(count);
+
+			if(buf.remaining() > count) {
+				ByteBuffer processedBuffer = buf.slice();
+				processedBuffer.limit(count);
+				buf.position(buf.position() + count);
+		
+				if(Log.isTraceEnabled()) {
+					Log.trace(String.format("Sliced Buffer rem=%d pos=%d limit=%d, capacity=%d", 
+							processedBuffer.remaining(), processedBuffer.position(), 
+							processedBuffer.limit(), processedBuffer.capacity()));
 				}
+				for (ChannelEventListener listener : eventListeners) {
+					listener.onChannelDataOut(this, processedBuffer);
+				}
+				ChannelData msg = new ChannelData(processedBuffer, write.type, remoteWindow.getWindowSpace(), null);
+				write.messages.add(msg);
+				connection.sendMessage(msg);
+			} else {
 				
-				int count = Math.min(remoteWindow.getMaximumPacketSize(), 
-						Math.min(remoteWindow.getWindowSpace(), buf.remaining()));
+				pendingWrites.removeFirst();
 				
-				if(count == 0) {
-					if(Log.isDebugEnabled()) {
-						log("Waiting", String.format("for %d bytes of remote window", buf.remaining()));
-					}
-					try {
-						wait(5000);
-					} catch (InterruptedException e) {
-					}
-
+				if(!buf.hasRemaining()) {
+					write.future.complete(null);
 					continue;
-				}	
-
-				remoteWindow.consume(count);
-
-				if(buf.remaining() > count) {
-					ByteBuffer processedBuffer = buf.slice();
-					processedBuffer.limit(count);
-					buf.position(buf.position() + count);
-			
-					if(Log.isTraceEnabled()) {
-						Log.trace(String.format("Sliced Buffer rem=%d pos=%d limit=%d, capacity=%d", 
-								processedBuffer.remaining(), processedBuffer.position(), 
-								processedBuffer.limit(), processedBuffer.capacity()));
-					}
-					for (ChannelEventListener listener : eventListeners) {
-						listener.onChannelDataOut(this, processedBuffer);
-					}
-					connection.sendMessage(new ChannelData(processedBuffer, type, remoteWindow.getWindowSpace()));
-				} else {
-					
-					if(Log.isTraceEnabled()) {	
-						Log.trace(String.format("Final Buffer rem=%d pos=%d limit=%d, capacity=%d", 
-								buf.remaining(), buf.position(), buf.limit(), buf.capacity()));
-					}
-					for (ChannelEventListener listener : eventListeners) {
-						listener.onChannelDataOut(this, buf);
-					}
-					connection.sendMessage(lastMessage = new ChannelData(buf, type, remoteWindow.getWindowSpace()));
 				}
-			
 				
-			} while(Objects.isNull(lastMessage));
-			
+				if(Log.isTraceEnabled()) {	
+					Log.trace(String.format("Final Buffer rem=%d pos=%d limit=%d, capacity=%d", 
+							buf.remaining(), buf.position(), buf.limit(), buf.capacity()));
+				}
+				for (ChannelEventListener listener : eventListeners) {
+					listener.onChannelDataOut(this, buf);
+				}
+				ChannelData msg = new ChannelData(buf, write.type, remoteWindow.getWindowSpace(), write);
+				write.messages.add(msg);
+				inflightWrites.add(write);
+				connection.sendMessage(msg);
+			}
 		}
 		
-		if(!Objects.isNull(lastMessage)) {
-			synchronized(lastMessage) {
-				long t = System.currentTimeMillis();
-				while(!isClosed() && !lastMessage.isMessageSent() && System.currentTimeMillis() - t < 120000) {
-					if(Log.isTraceEnabled()) {
-						Log.trace("Waiting for sent data notification");
-					}
-					try {
-						lastMessage.wait(1000);
-					} catch (InterruptedException e) {
-					}
-				}
-				if(!lastMessage.isMessageSent()) {
-					throw new IOException("Timeout waiting for data to be sent on channel " + getLocalId());
+		if(pendingEOF) {
+			pendingEOF = false;
+			return true;
+		}
+		return false;
+	}
+	
+	private void failPendingWrites() {
+		PendingWrite write;
+		while((write = pendingWrites.pollFirst()) != null) {
+			write.fail(new IOException("Channel has been closed"));
+		}
+	}
+	
+	private void failInflightWrites() {
+		PendingWrite write;
+		while((write = inflightWrites.poll()) != null) {
+			write.fail(new IOException("Channel has been closed"));
+		}
+	}
+	
+	/**
+	 * Withdraw a write whose caller has stopped waiting for it, so that the caller 
+	 * can release or reuse its buffer. A write still waiting for window space is 
+	 * removed from the queue; if part of it has already been sent the rest cannot 
+	 * follow, so the channel is closed. Data already queued on the transport is
+	 * copied out of the buffer and still sent.
+	 */
+	private void cancelWrite(CompletableFuture<Void> future, IOException e) {
+		
+		boolean sendEOF = false;
+		boolean partial = false;
+		synchronized(ChannelNG.this) {
+			for(Iterator<PendingWrite> it = pendingWrites.iterator(); it.hasNext();) {
+				PendingWrite write = it.next();
+				if(write.future == future) {
+					it.remove();
+					partial = !write.messages.isEmpty();
+					write.fail(e);
+					sendEOF = !partial && processPendingWrites();
+					break;
 				}
-				if(Log.isTraceEnabled()) {
-					Log.trace("Received sent data notification");
+			}
+			for(PendingWrite write : inflightWrites) {
+				if(write.future == future) {
+					write.fail(e);
+					break;
 				}
 			}
 		}
-
-		if(r!=null) {
-			getConnectionProtocol().addTask(ExecutorOperationSupport.CALLBACKS, new ConnectionTaskWrapper(getConnection(), r));
+		
+		if(partial) {
+			if(Log.isDebugEnabled()) {
+				log("Closing", "after a partly sent write was abandoned");
+			}
+			close();
+		} else if(sendEOF) {
+			sendEOF();
+		}
+	}
+	
+	class PendingWrite {
+		final ByteBuffer buf;
+		final int type;
+		final CompletableFuture<Void> future;
+		final List<ChannelData> messages = new ArrayList<ChannelData>();
+		
+		PendingWrite(ByteBuffer buf, int type, CompletableFuture<Void> future) {
+			this.buf = buf;
+			this.type = type;
+			this.future = future;
+		}
+		
+		/**
+		 * Copy any data not yet written to the socket out of the caller's buffer
+		 * and complete the write with an error.
+		 */
+		void fail(IOException e) {
+			for(ChannelData msg : messages) {
+				msg.detach();
+			}
+			future.completeExceptionally(e);
 		}
 	}
 	
@@ -615,6 +1066,15 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		sendChannelDataAndBlock(ByteBuffer.wrap(data, off, len), type, null);
 	}
 
+	void processExtendedData(int type, ByteBuffer data, PooledByteArray message) throws IOException {
+		dataMessage = message;
+		try {
+			processExtendedData(type, data);
+		} finally {
+			dataMessage = null;
+		}
+	}
+
 	void processExtendedData(int type, ByteBuffer data) throws IOException {
 
 		if(Log.isDebugEnabled()) {
@@ -752,6 +1212,9 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 
 		boolean doSend = false;
 		synchronized(ChannelNG.this) {
+			if(!forceClose && !sentClose.get() && !isLocalEOF.get()) {
+				flushCoalescedData();
+			}
 			boolean canClose = forceClose || canClose();
 			if (!sentClose.get() && canClose) {
 
@@ -770,6 +1233,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 				
 				state = CHANNEL_CLOSED;
 
+				failPendingWrites();
+				
 				notifyAll();
 
 			} 
@@ -832,6 +1297,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 						} catch (IOException e) {
 						}
 						onChannelClosed();
+						failInflightWrites();
 						completedClose.set(true);
 						ChannelNG.this.notifyAll();
 					}
@@ -948,10 +1414,22 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 
 	/**
 	 * You can send EOF when you have no more data to send. The channel will
-	 * still remain open until a close message is received.
+	 * still remain open until a close message is received. If data queued by
+	 * {@link #sendChannelData(ByteBuffer)} is still waiting for window space, 
+	 * the EOF is sent once that data has been sent.
 	 */
 	public void sendEOF() {
 
+		synchronized(ChannelNG.this) {
+			if(isOpen() && !isLocalEOF.get()) {
+				flushCoalescedData();
+			}
+			if(!pendingWrites.isEmpty()) {
+				pendingEOF = true;
+				return;
+			}
+		}
+		
 		if (isOpen() && !sentClose.get() && !isLocalEOF.get()) {
 			isLocalEOF.set(true);
 			remoteWindow.close();
@@ -1127,14 +1605,30 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		int remoteWindow;
 		boolean sent;
 		
-		ChannelData(ByteBuffer msg, int type, int remoteWindow) {
+		PendingWrite write;
+		
+		ChannelData(ByteBuffer msg, int type, int remoteWindow, PendingWrite write) {
 			this.msg = msg;
 			this.type = type;
 			this.remoteWindow = remoteWindow;
 			this.count = msg.remaining();
+			this.write = write;
 		}
 
-		public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+		/**
+		 * Stop referring to the caller's buffer by taking a copy of the data if it
+		 * has not been written yet.
+		 */
+		synchronized void detach() {
+			if(msg != null) {
+				ByteBuffer copy = ByteBuffer.allocate(msg.remaining());
+				copy.put(msg.duplicate());
+				copy.flip();
+				msg = copy;
+			}
+		}
+
+		public synchronized boolean writeMessageIntoBuffer(ByteBuffer buf) {
 
 			/*
 			 * byte SSH_MSG_CHANNEL_DATA uint32 recipient channel string data
@@ -1156,7 +1650,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			return true;
 		}
 
-		public synchronized void messageSent(Long sequenceNo) {
+		public void messageSent(Long sequenceNo) {
 			if(Log.isDebugEnabled()) {
 				logMessage(String.format("%s seq=%d len=%d", 
 						type > 0 ? "SSH_MSG_CHANNEL_EXTENDED_DATA" : "SSH_MSG_CHANNEL_DATA", 
@@ -1166,8 +1660,16 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 //			if(waitingToClose) {
 //				close();
 //			}
-			sent = true;
-			notifyAll();
+			synchronized(this) {
+				sent = true;
+				notifyAll();
+			}
+			
+			// Completed outside of our lock as callbacks may take the channel lock
+			if(!Objects.isNull(write)) {
+				inflightWrites.remove(write);
+				write.future.complete(null);
+			}
 		}
 
 		public synchronized boolean isMessageSent() {
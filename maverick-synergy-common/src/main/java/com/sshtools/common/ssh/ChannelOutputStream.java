@@ -42,7 +42,7 @@ public class ChannelOutputStream extends OutputStream {
 			if(type > -1) {
 				channel.sendExtendedData(new byte[] { (byte) b}, type);
 			} else {
-				channel.sendChannelDataAndBlock(new byte[] { (byte) b});
+				channel.sendData(new byte[] { (byte) b}, 0, 1);
 			}
 		}
 
@@ -55,6 +55,11 @@ public class ChannelOutputStream extends OutputStream {
 			}
 		}
 		
+		@Override
+		public void flush() throws IOException {
+			channel.flushData();
+		}
+		
 		public void close() {
 			synchronized(channel) {
 				if(!sentEOF && !channel.isClosed() && !channel.isClosing()) {
@@ -23,15 +23,17 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventListener;
+import com.sshtools.common.logger.AbstractLoggingContext;
+import com.sshtools.common.logger.AsyncFileLoggingContext;
 import com.sshtools.common.logger.FileLoggingContext;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.logger.Log.Level;
@@ -42,7 +44,8 @@ import com.sshtools.common.util.Utils;
 public class ConnectionLoggingContext implements LoggerContext, EventListener {
 
 	Level defaultLevel;
-	Map<SshConnection, FileLoggingContext> activeLoggers = new HashMap<>();
+	Map<SshConnection, AbstractLoggingContext> activeLoggers = new ConcurrentHashMap<>();
+	volatile Level maximumLevel = Level.NONE;
 	ConnectionManager<?> cm;
 	
 	ConnectionLoggingContext(Level level, ConnectionManager<?> cm) {
@@ -53,10 +56,27 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 	@Override
 	public boolean isLogging(Level level) {
 		SshConnection currentConnection = cm.getCurrentConnection();
-		if(activeLoggers.containsKey(currentConnection)) {
-			return activeLoggers.get(currentConnection).getLevel().ordinal() >= level.ordinal();
-		} 
-		return false;
+		if(Objects.isNull(currentConnection)) {
+			return false;
+		}
+		AbstractLoggingContext ctx = activeLoggers.get(currentConnection);
+		return !Objects.isNull(ctx) && ctx.getLevel().ordinal() >= level.ordinal();
+	}
+
+	@Override
+	public Level getMaximumLevel() {
+		return maximumLevel;
+	}
+	
+	private void loggersChanged() {
+		Level level = Level.NONE;
+		for(AbstractLoggingContext ctx : activeLoggers.values()) {
+			if(ctx.getLevel().ordinal() > level.ordinal()) {
+				level = ctx.getLevel();
+			}
+		}
+		maximumLevel = level;
+		Log.refreshLevels();
 	}
 
 	@Override
@@ -64,7 +84,7 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 
 		SshConnection currentConnection = cm.getCurrentConnection();
 		if(!Objects.isNull(currentConnection)) {
-			FileLoggingContext ctx = activeLoggers.get(currentConnection);
+			AbstractLoggingContext ctx = activeLoggers.get(currentConnection);
 			if(!Objects.isNull(ctx)) {
 				ctx.log(level, msg, e, args);
 			}
@@ -108,7 +128,7 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 		startLogging(con, Level.valueOf(getProperty(".level", defaultLevel.name())));
 	}
 	
-	public void startLogging(SshConnection con, Level level) throws IOException {
+	public synchronized void startLogging(SshConnection con, Level level) throws IOException {
 	
 		if(activeLoggers.containsKey(con)) {
 			return;
@@ -132,7 +152,13 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 				.replace("${ident}", Utils.defaultString(con.getRemoteIdentification().trim(), ""))
 				.replace("${user}", Utils.defaultString(con.getUsername(), ""));
 		
-		activeLoggers.put(con, new FileLoggingContext(level, new File(filename), maxFiles, maxSize));
+		if("true".equalsIgnoreCase(getProperty(".async", "false"))) {
+			activeLoggers.put(con, new AsyncFileLoggingContext(level, new File(filename), maxFiles, maxSize,
+					Integer.parseInt(getProperty(".bufferSize", "8192"))));
+		} else {
+			activeLoggers.put(con, new FileLoggingContext(level, new File(filename), maxFiles, maxSize));
+		}
+		loggersChanged();
 	}
 
 	private boolean isLoggingConnection(Connection<?> con) {
@@ -200,10 +226,11 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 		return String.format("maverick.log.connection.%s%s", cm.getName(), key);
 	}
 	
-	public void close(Connection<?> con) {
-		FileLoggingContext ctx = activeLoggers.remove(con);
+	public synchronized void close(Connection<?> con) {
+		AbstractLoggingContext ctx = activeLoggers.remove(con);
 		if(!Objects.isNull(ctx)) {
 			ctx.close();
+			loggersChanged();
 		}
 	}
 
@@ -211,7 +238,7 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 	public void raw(Level level, String msg) {
 		SshConnection currentConnection = cm.getCurrentConnection();
 		if(!Objects.isNull(currentConnection)) {
-			FileLoggingContext ctx = activeLoggers.get(currentConnection);
+			AbstractLoggingContext ctx = activeLoggers.get(currentConnection);
 			if(!Objects.isNull(ctx)) {
 				ctx.raw(level, msg);
 			}
@@ -231,7 +258,7 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 	public void newline() {
 		SshConnection currentConnection = cm.getCurrentConnection();
 		if(!Objects.isNull(currentConnection)) {
-			FileLoggingContext ctx = activeLoggers.get(currentConnection);
+			AbstractLoggingContext ctx = activeLoggers.get(currentConnection);
 			if(!Objects.isNull(ctx)) {
 				ctx.newline();
 			}
@@ -245,7 +272,7 @@ public class ConnectionLoggingContext implements LoggerContext, EventListener {
 		case EventCodes.EVENT_NEGOTIATED_PROTOCOL:
 		case EventCodes.EVENT_USERAUTH_STARTED:
 			Connection<?> con = (Connection<?>) evt.getAttribute(EventCodes.ATTRIBUTE_CONNECTION);
-			if(!activeLoggers.containsKey(con)) {
+			if(!Objects.isNull(con) && !activeLoggers.containsKey(con)) {
 				if(isLoggingConnection(con)) {
 					try {
 						startLogging(con);
@@ -36,6 +36,7 @@ import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sshd.SshMessage;
 import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.ByteArrayWriter;
+import com.sshtools.common.util.PooledByteArray;
 
 /**
  * This class implements the SSH Connection Protocol as an SSH Transport
@@ -441,6 +442,7 @@ public abstract class ConnectionProtocol<T extends SshContext>
 	
 	void processChannelData(byte[] msg) throws IOException {
 		ByteArrayReader bar = new ByteArrayReader(msg);
+		PooledByteArray message = new PooledByteArray(msg, getContext().getMessagePool());
 
 		try {
 			int messageid = bar.read();
@@ -457,7 +459,11 @@ public abstract class ConnectionProtocol<T extends SshContext>
 						int count = (int) bar.readInt();
 						addTask(CHANNEL_DATA_IN, new ConnectionAwareTask(con) {
 							protected  void doTask() throws Throwable {
-								channel.processChannelData(ByteBuffer.wrap(bar.array(), bar.getPosition(), count));
+								try {
+									channel.processChannelData(ByteBuffer.wrap(bar.array(), bar.getPosition(), count), message);
+								} finally {
+									message.release();
+								}
 							}
 						});
 						
@@ -466,8 +472,12 @@ public abstract class ConnectionProtocol<T extends SshContext>
 						int count = (int) bar.readInt();
 						addTask(CHANNEL_DATA_IN, new ConnectionAwareTask(con) {
 							protected  void doTask() throws Throwable {
-								channel.processExtendedData(type,
-										ByteBuffer.wrap(bar.array(), bar.getPosition(), count));
+								try {
+									channel.processExtendedData(type,
+											ByteBuffer.wrap(bar.array(), bar.getPosition(), count), message);
+								} finally {
+									message.release();
+								}
 							}
 						});
 						
@@ -19,15 +19,17 @@
 package com.sshtools.common.ssh;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +51,7 @@ import com.sshtools.common.ssh.components.SshPublicKey;
 import com.sshtools.common.ssh.components.jce.JCEComponentManager;
 import com.sshtools.common.ssh.compression.NoneCompression;
 import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.util.ByteArrayPool;
 import com.sshtools.common.util.ByteBufferPool;
 
 /**
@@ -222,17 +225,27 @@ public abstract class SshContext extends ProtocolContext implements
 	protected int idleAuthenticationTimeoutSeconds = 30;
 	protected int keepAliveInterval = 30;
 	protected int keepAliveDataMaxLength = 128;
+	protected boolean batchIncomingMessages = true;
+	protected boolean coalesceChannelWrites = false;
+	protected long coalesceChannelWriteDelay = 0;
 
 	protected static ExecutorService executor;
+	protected static ExecutorService virtualThreadExecutor;
+	protected static ScheduledExecutorService scheduledExecutor;
+	static boolean virtualThreadsUnavailable = false;
+	protected boolean useVirtualThreads = false;
+	protected long executorIdleTimeout = 1000;
 	
 	protected Locale locale = Locale.getDefault();
 	protected ByteBufferPool byteBufferPool = null;
+	protected static ByteArrayPool messagePool = new ByteArrayPool();
 	
 	protected int minDHGroupExchangeKeySize = 2048;
 	protected int preferredDHGroupExchangeKeySize = 2048;
 	protected int maxDHGroupExchangeKeySize = 8192;
 	
-	List<ExecutorOperationListener> listeners = new ArrayList<ExecutorOperationListener>();
+	List<ExecutorOperationListener> listeners = new CopyOnWriteArrayList<ExecutorOperationListener>();
+	List<ExecutorOperationListener> unmodifiableListeners = Collections.unmodifiableList(listeners);
 	
 	protected ComponentManager componentManager;
 	
@@ -354,17 +367,17 @@ public abstract class SshContext extends ProtocolContext implements
 		return componentManager;
 	}
 	
-	public synchronized void addOperationListener(ExecutorOperationListener listener) {
+	public void addOperationListener(ExecutorOperationListener listener) {
 		listeners.add(listener);
 	}
 	
-	public synchronized void removeOperationListener(ExecutorOperationListener listener) {
+	public void removeOperationListener(ExecutorOperationListener listener) {
 		listeners.remove(listener);
 	}
 	
 	@Override
-	public synchronized List<ExecutorOperationListener> getExecutorListeners() {
-		return new ArrayList<ExecutorOperationListener>(listeners);
+	public List<ExecutorOperationListener> getExecutorListeners() {
+		return unmodifiableListeners;
 	}
 	
 	public void setSocketConnectionFactory(SocketConnectionFactory socketConnectionFactory) {
@@ -1255,6 +1268,12 @@ public abstract class SshContext extends ProtocolContext implements
 	}
 
 	public ExecutorService getExecutorService() {
+		if (useVirtualThreads) {
+			ExecutorService virtualThreads = getVirtualThreadExecutor();
+			if (virtualThreads != null) {
+				return virtualThreads;
+			}
+		}
 		if (executor == null) {
 			ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
 	            public Thread newThread(Runnable r) {
@@ -1281,6 +1300,82 @@ public abstract class SshContext extends ProtocolContext implements
 		return executor;
 	}
 
+	/**
+	 * A single daemon thread for running short, delayed tasks. Tasks should hand any
+	 * real work to {@link #getExecutorService()}.
+	 * 
+	 * @return ScheduledExecutorService
+	 */
+	public static synchronized ScheduledExecutorService getScheduledExecutorService() {
+		if (scheduledExecutor == null) {
+			scheduledExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	            public Thread newThread(Runnable r) {
+	                Thread t = Executors.defaultThreadFactory().newThread(r);
+	                t.setName("MaverickScheduler");
+	                t.setDaemon(true);
+	                return t;
+	            }
+	        });
+		}
+		return scheduledExecutor;
+	}
+
+	private static synchronized ExecutorService getVirtualThreadExecutor() {
+		if (virtualThreadExecutor == null && !virtualThreadsUnavailable) {
+			try {
+				virtualThreadExecutor = (ExecutorService) Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				virtualThreadsUnavailable = true;
+				Log.warn("Virtual threads are not supported by this JVM, operations will use the default executor");
+			}
+		}
+		return virtualThreadExecutor;
+	}
+
+	/**
+	 * Determines whether operation queues run on virtual threads.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isUseVirtualThreads() {
+		return useVirtualThreads;
+	}
+
+	/**
+	 * When enabled, the operation queues of connections using this context run on a
+	 * shared virtual thread per task executor and release their thread as soon as they
+	 * drain, rather than parking a platform thread from the cached pool for the
+	 * executor idle timeout. This requires a JVM with virtual thread support; on older
+	 * JVMs a warning is logged and the default executor is used.
+	 * 
+	 * @param useVirtualThreads
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	@Override
+	public long getExecutorIdleTimeout() {
+		if (useVirtualThreads && virtualThreadExecutor != null) {
+			return 0;
+		}
+		return executorIdleTimeout;
+	}
+
+	/**
+	 * Set the number of milliseconds an operation queue keeps its thread waiting for
+	 * further work after draining. A value of zero releases the thread immediately.
+	 * 
+	 * @param executorIdleTimeout
+	 */
+	public void setExecutorIdleTimeout(long executorIdleTimeout) {
+		if (executorIdleTimeout < 0) {
+			throw new IllegalArgumentException("Executor idle timeout cannot be negative");
+		}
+		this.executorIdleTimeout = executorIdleTimeout;
+	}
+
 	public void shutdown() {
 		getExecutorService().shutdown();
 		try {
@@ -1297,6 +1392,17 @@ public abstract class SshContext extends ProtocolContext implements
 		return byteBufferPool;
 	}
 
+	/**
+	 * Get the pool used to recycle the arrays holding decoded messages. The pool
+	 * is shared by all connections; use {@link ByteArrayPool#setMaximumRetainedBytes(long)}
+	 * to change how much memory it may hold, or set it to zero to disable pooling.
+	 * 
+	 * @return ByteArrayPool
+	 */
+	public ByteArrayPool getMessagePool() {
+		return messagePool;
+	}
+
 	public SshEngineContext getDaemonContext() {
 		return daemon.getContext();
 	}
@@ -1340,6 +1446,68 @@ public abstract class SshContext extends ProtocolContext implements
 		this.sendIgnorePacketOnIdle = sendIgnorePacketOnIdle;
 	}
 
+	/**
+	 * Determines whether messages decoded from a single socket read are passed
+	 * to the active service as one task.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isBatchIncomingMessages() {
+		return batchIncomingMessages;
+	}
+
+	/**
+	 * When enabled, every complete packet available from a socket read is
+	 * decoded in one pass and the resulting service messages are handed to the
+	 * executor as a single task, rather than one task per message. A batch only
+	 * spans consecutive service messages; it is passed on before a transport or
+	 * key exchange message that follows it is handled, so messages are still
+	 * processed in the order they were received.
+	 * 
+	 * @param batchIncomingMessages
+	 */
+	public void setBatchIncomingMessages(boolean batchIncomingMessages) {
+		this.batchIncomingMessages = batchIncomingMessages;
+	}
+
+	/**
+	 * Determines whether channels coalesce small writes by default.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isCoalesceChannelWrites() {
+		return coalesceChannelWrites;
+	}
+
+	/**
+	 * Enable write coalescing on all channels created by connections using this context.
+	 * See {@link ChannelNG#setCoalesceWrites(boolean)}.
+	 * 
+	 * @param coalesceChannelWrites
+	 */
+	public void setCoalesceChannelWrites(boolean coalesceChannelWrites) {
+		this.coalesceChannelWrites = coalesceChannelWrites;
+	}
+
+	/**
+	 * The default time in milliseconds channels hold coalesced writes before sending them.
+	 * 
+	 * @return long
+	 */
+	public long getCoalesceChannelWriteDelay() {
+		return coalesceChannelWriteDelay;
+	}
+
+	/**
+	 * Set the default coalescing delay for channels created by connections using this
+	 * context. See {@link ChannelNG#setCoalesceDelay(long)}.
+	 * 
+	 * @param coalesceChannelWriteDelay
+	 */
+	public void setCoalesceChannelWriteDelay(long coalesceChannelWriteDelay) {
+		this.coalesceChannelWriteDelay = coalesceChannelWriteDelay;
+	}
+
 	public boolean isHttpRedirect() {
 		return httpRedirect;
 	}
@@ -104,12 +104,17 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	static final int SSH_MSG_KEX_INIT = 20;
 	static final int SSH_MSG_NEWKEYS = 21;
+	
+	// Message numbers up to this are reserved for the transport layer protocol
+	static final int SSH_MSG_TRANSPORT_LAST = 49;
 
 	// Message processing variables
 	boolean expectPacket = true;
 	int expectedBytes = 0;
 	byte[] payloadIncoming;
-	byte[] packet;
+	ByteBuffer outgoingSwap;
+	byte[] outgoingPadding = new byte[64];
+	List<ServiceMessage> serviceMessages = new ArrayList<>();
 	int offsetIncoming = 0;
 
 	int numOutgoingBytesSinceKEX;
@@ -675,6 +680,8 @@ public abstract class TransportProtocol<T extends SshContext>
 				disconnect(TransportProtocol.PROTOCOL_ERROR,
 						"The application encountered an error");
 			requiresWriteOperation = true;
+		} finally {
+			postServiceMessages();
 		}
 
 		return requiresWriteOperation;
@@ -763,7 +770,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
+				payloadIncoming = sshContext.getMessagePool().get(msglen - padlen - 1);
 
 				// Copy the payload into the final output buffer
 				System.arraycopy(incomingSwap, 5, payloadIncoming,
@@ -771,9 +778,13 @@ public abstract class TransportProtocol<T extends SshContext>
 
 				// Uncompress the message payload if necersary
 				if (incomingCompression != null) {
+					byte[] compressed = payloadIncoming;
 					payloadIncoming = incomingCompression
 							.uncompress(payloadIncoming, 0,
 									payloadIncoming.length);
+					if(payloadIncoming != compressed) {
+						sshContext.getMessagePool().release(compressed);
+					}
 				}
 
 				return true;
@@ -880,7 +891,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				}
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
+				payloadIncoming = sshContext.getMessagePool().get(msglen - padlen - 1);
 
 				// Copy the payload into the final output buffer
 				System.arraycopy(incomingSwap, 5, payloadIncoming,
@@ -888,9 +899,13 @@ public abstract class TransportProtocol<T extends SshContext>
 
 				// Uncompress the message payload if necersary
 				if (incomingCompression != null) {
+					byte[] compressed = payloadIncoming;
 					payloadIncoming = incomingCompression
 							.uncompress(payloadIncoming, 0,
 									payloadIncoming.length);
+					if(payloadIncoming != compressed) {
+						sshContext.getMessagePool().release(compressed);
+					}
 				}
 
 				return true;
@@ -1009,7 +1024,7 @@ public abstract class TransportProtocol<T extends SshContext>
 					}
 				}
 
-				payloadIncoming = new byte[msglen - padlen - 1];
+				payloadIncoming = sshContext.getMessagePool().get(msglen - padlen - 1);
 				
 				// Copy the payload into the final output buffer
 				System.arraycopy(incomingSwap, 5, payloadIncoming,
@@ -1017,9 +1032,13 @@ public abstract class TransportProtocol<T extends SshContext>
 
 				// Uncompress the message payload if necersary
 				if (incomingCompression != null) {
+					byte[] compressed = payloadIncoming;
 					payloadIncoming = incomingCompression
 							.uncompress(payloadIncoming, 0,
 									payloadIncoming.length);
+					if(payloadIncoming != compressed) {
+						sshContext.getMessagePool().release(compressed);
+					}
 				}
 
 				return true;
@@ -1040,6 +1059,20 @@ public abstract class TransportProtocol<T extends SshContext>
 		}
 	}
 
+	/**
+	 * Messages may only be batched once the connection is established and no
+	 * key exchange or disconnect is in progress, since the keys in use change
+	 * as SSH_MSG_NEWKEYS is sent and nothing should follow a disconnect.
+	 */
+	@Override
+	public boolean canBatchWrites() {
+		synchronized (kexlockOut) {
+			return currentState == CONNECTED 
+					&& disconnectStarted == null
+					&& outgoingQueue.size() > 0;
+		}
+	}
+
 	public int getQueueSizes() {
 		synchronized (kexlockOut) {
 			return outgoingQueue.size() + kexQueue.size();
@@ -1105,12 +1138,11 @@ public abstract class TransportProtocol<T extends SshContext>
 				if ((kexQueue.size() > 0 || outgoingQueue.size() > 0)) {
 
 					// Get the next message and write into the buffer
-					if (currentState == PERFORMING_KEYEXCHANGE
-							&& completedFirstKeyExchange) {
+					boolean kex = currentState == PERFORMING_KEYEXCHANGE
+							&& completedFirstKeyExchange;
+					if (kex) {
 						if (kexQueue.size() > 0) {
 							msg = (SshMessage) kexQueue.getFirst();
-							if (msg.writeMessageIntoBuffer(outgoingMessage))
-								kexQueue.removeFirst();
 						} else {
 							// Simply return there are no key exchange messages
 							// to send
@@ -1120,22 +1152,39 @@ public abstract class TransportProtocol<T extends SshContext>
 					} else {
 						synchronized (outgoingQueue) {
 							msg = (SshMessage) outgoingQueue.getFirst();
-							if (msg.writeMessageIntoBuffer(outgoingMessage)) {
-								outgoingQueue.removeFirst();
-							}
 						}
 					}
 
-					if (currentState != TransportProtocol.NEGOTIATING_PROTOCOL) {
+					if (currentState == TransportProtocol.NEGOTIATING_PROTOCOL) {
+						if (msg.writeMessageIntoBuffer(outgoingMessage)) {
+							removeFirst(kex);
+						}
+					} else {
 
-						outgoingMessage.flip();
+						/**
+						 * Reserve space for the packet length and padding length
+						 * so that the payload is written once, directly into the
+						 * buffer it will be encrypted and sent from.
+						 */
+						ByteBuffer packetBuffer = getPacketBuffer(outgoingMessage);
+						int packetStart = packetBuffer.position();
+						packetBuffer.position(packetStart + 5);
+						
+						if (msg.writeMessageIntoBuffer(packetBuffer)) {
+							removeFirst(kex);
+						}
 						
 						if(encryption!=null && encryption instanceof ChaCha20Poly1305) {
-							encodeChaCha20Poly1305FormatPacket(outgoingMessage);
+							encodeChaCha20Poly1305FormatPacket(packetBuffer, packetStart);
 						} else if(outgoingMac!=null && outgoingMac.isETM()) {
-							encodeETMFormatPacket(outgoingMessage);
+							encodeETMFormatPacket(packetBuffer, packetStart);
 						} else {
-							encodeOriginalFormatPacket(outgoingMessage);
+							encodeOriginalFormatPacket(packetBuffer, packetStart);
+						}
+						
+						if(packetBuffer != outgoingMessage) {
+							packetBuffer.flip();
+							outgoingMessage.put(packetBuffer);
 						}
 
 						numOutgoingBytesSinceKEX += outgoingMessage.position();
@@ -1190,71 +1239,137 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	}
 	
-	private void encodeChaCha20Poly1305FormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	private void removeFirst(boolean kex) {
+		if(kex) {
+			kexQueue.removeFirst();
+		} else {
+			synchronized (outgoingQueue) {
+				outgoingQueue.removeFirst();
+			}
+		}
+	}
+	
+	/**
+	 * Get the buffer a packet should be encoded in. Array backed buffers are
+	 * encoded in place; for direct buffers we encode into a reusable swap 
+	 * buffer of the same capacity and copy the finished packet across.
+	 */
+	private ByteBuffer getPacketBuffer(ByteBuffer outgoingMessage) {
+		if(outgoingMessage.hasArray()) {
+			return outgoingMessage;
+		}
+		if(outgoingSwap==null || outgoingSwap.capacity() != outgoingMessage.capacity()) {
+			outgoingSwap = ByteBuffer.allocate(outgoingMessage.capacity());
+		}
+		outgoingSwap.clear();
+		return outgoingSwap;
+	}
+	
+	/**
+	 * Compress the payload in place if compression is in use and return the 
+	 * final payload length.
+	 */
+	private int compressPayload(byte[] buf, int offset, int len) throws IOException {
 		
-		ChaCha20Poly1305 cipher = (ChaCha20Poly1305) encryption;
+		if (outgoingCompression == null) {
+			return len;
+		}
 		
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
-		int padding = 4;
-		int cipherlen = 8;
+		return compressPayload(outgoingCompression, buf, offset, len);
+	}
+	
+	/**
+	 * Compress len bytes at offset and write the result back over them. The
+	 * payload is passed to the compression as a slice starting at zero, as 
+	 * ZLibCompression has always been called, because it treats len as the end
+	 * of the data rather than its length.
+	 */
+	static int compressPayload(SshCompression compression, byte[] buf, int offset, int len) throws IOException {
 		
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
+		byte[] payload;
+		if(offset == 0) {
+			payload = compression.compress(buf, 0, len);
+		} else {
+			byte[] slice = new byte[len];
+			System.arraycopy(buf, offset, slice, 0, len);
+			payload = compression.compress(slice, 0, len);
 		}
+		
+		if(offset + payload.length > buf.length) {
+			throw new IOException("Compressed payload of " + payload.length + " bytes exceeds the buffer");
+		}
+		System.arraycopy(payload, 0, buf, offset, payload.length);
+		return payload.length;
+	}
+	
+	/**
+	 * Write the packet length, padding length and random padding around a
+	 * payload that has already been written 5 bytes after the packet start.
+	 */
+	private void writePacketHeader(byte[] buf, int offset, int payloadLength, int padding) {
 
-		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
-
+		int msglen = payloadLength + 1 + padding;
+		
 		// Write the packet length field
-		outgoingMessage.put(cipher.writePacketLength(payload.length + 1 + padding, new UnsignedInteger64(outgoingSequence)));
+		buf[offset] = (byte) (msglen >> 24);
+		buf[offset+1] = (byte) (msglen >> 16);
+		buf[offset+2] = (byte) (msglen >> 8);
+		buf[offset+3] = (byte) msglen;
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1 + cipher.getMacLength() + 4;
-
+		buf[offset+4] = (byte) padding;
+		
 		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
-
-		// Write the padding
-		outgoingMessage.put(pad);
-
-		outgoingMessage.flip();
+		rnd.nextBytes(outgoingPadding);
+		System.arraycopy(outgoingPadding, 0, buf, offset + 5 + payloadLength, padding);
+	}
+	
+	private void checkPacketCapacity(ByteBuffer buf, int packetStart, int packetLength) throws IOException {
+		if(packetStart + packetLength > buf.limit()) {
+			throw new IOException("Outgoing packet of " + packetLength + " bytes exceeds the buffer");
+		}
+	}
+	
+	private void encodeChaCha20Poly1305FormatPacket(ByteBuffer packetBuffer, int packetStart) throws IOException {
 		
-		// Get the unencrypted packet data
-		byte[] packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
+		ChaCha20Poly1305 cipher = (ChaCha20Poly1305) encryption;
 		
-		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
+		byte[] buf = packetBuffer.array();
+		int offset = packetBuffer.arrayOffset() + packetStart;
+
+		int padding = 4;
+		int cipherlen = 8;
 		
-		cipher.transform(packet, 4, packet, 4, packet.length-4);
+		// Compress the payload if necersary
+		int payloadLength = compressPayload(buf, offset + 5, packetBuffer.position() - packetStart - 5);
 
-		// Reset the message
-		outgoingMessage.clear();
+		// Determine the padding length
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
-		// Write the packet data
-		outgoingMessage.put(packet);
+		int msglen = payloadLength + 1 + padding;
+		checkPacketCapacity(packetBuffer, packetStart, msglen + 4 + cipher.getMacLength());
 		
+		writePacketHeader(buf, offset, payloadLength, padding);
 		
+		// Replace the packet length field with its encrypted form
+		System.arraycopy(cipher.writePacketLength(msglen, new UnsignedInteger64(outgoingSequence)), 0, buf, offset, 4);
+
+		outgoingBytes += payloadLength + padding + 1 + cipher.getMacLength() + 4;
+		
+		cipher.transform(buf, offset + 4, buf, offset + 4, msglen + cipher.getMacLength());
+
+		packetBuffer.position(packetStart + msglen + 4 + cipher.getMacLength());
 	}	
 
-	private void encodeETMFormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	private void encodeETMFormatPacket(ByteBuffer packetBuffer, int packetStart) throws IOException {
 		
 		/**
 		 * Wrap the message payload into the binary packet
 		 * format
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
+		byte[] buf = packetBuffer.array();
+		int offset = packetBuffer.arrayOffset() + packetStart;
+		
 		int padding = 4;
 		int cipherlen = 8;
 
@@ -1264,82 +1379,49 @@ public abstract class TransportProtocol<T extends SshContext>
 		}
 
 		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
+		int payloadLength = compressPayload(buf, offset + 5, packetBuffer.position() - packetStart - 5);
 
 		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
-		// Write the packet length field
-		outgoingMessage.putInt(payload.length + 1 + padding);
-
-		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1;
-
-		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
-
-		// Write the padding
-		outgoingMessage.put(pad);
-
-		outgoingMessage.flip();
-		
-		// Get the unencrypted packet data
-		byte[] packet;
+		int msglen = payloadLength + 1 + padding;
+		int packetLength = msglen + 4;
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			packetLength += encryption.getMacLength();
 		}
+		int macLength = outgoingMac != null ? outgoingMac.getMacLength() : 0;
+		checkPacketCapacity(packetBuffer, packetStart, packetLength + macLength);
 		
-		outgoingMessage.get(packet);
-		byte[] mac = null;
+		writePacketHeader(buf, offset, payloadLength, padding);
+		outgoingBytes += payloadLength + padding + 1;
 
 		// Perfrom encrpytion
 		if (encryption != null) {
-			encryption.transform(packet, 4, packet, 4, packet.length-4);
+			encryption.transform(buf, offset + 4, buf, offset + 4, packetLength - 4);
 		}
 		
-		// Generate the MAC
+		// Generate the MAC directly after the packet
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
-			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+			outgoingMac.generate(outgoingSequence, buf, offset,
+					packetLength, buf, offset + packetLength);
+			outgoingBytes += macLength;
 		}
 
-		// Reset the message
-		outgoingMessage.clear();
-
-		// Write the packet data
-		outgoingMessage.put(packet);
-
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
-		}
-		
+		packetBuffer.position(packetStart + packetLength + macLength);
 	}
 
-	private void encodeOriginalFormatPacket(ByteBuffer outgoingMessage) throws IOException {
+	private void encodeOriginalFormatPacket(ByteBuffer packetBuffer, int packetStart) throws IOException {
 		
 		/**
 		 * Wrap the message payload into the binary packet
 		 * format
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
+		byte[] buf = packetBuffer.array();
+		int offset = packetBuffer.arrayOffset() + packetStart;
+		int payloadLength = packetBuffer.position() - packetStart - 5;
 
 		if(Log.isTraceEnabled()) {
-			Log.raw(Level.TRACE, Utils.bytesToHex(payload, 0, payload.length, 32, true, true), true);
+			Log.raw(Level.TRACE, Utils.bytesToHex(buf, offset + 5, payloadLength, 32, true, true), true);
 		}
 		
 		int padding = 4;
@@ -1351,76 +1433,39 @@ public abstract class TransportProtocol<T extends SshContext>
 		}
 
 		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
+		payloadLength = compressPayload(buf, offset + 5, payloadLength);
 
 		// Determine the padding length
 		if(encryption!=null && encryption.isMAC()) {
-			padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 		} else {
-			padding += ((cipherlen - ((payload.length + 5 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 5 + padding) % cipherlen)) % cipherlen);
 		}
 		
-		// Write the packet length field
-		int msglen = payload.length + 1 + padding;
-		outgoingMessage.putInt(msglen);
-
-		// Write the padding length
-		outgoingMessage.put((byte) padding);
-
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 5;
-
-		// Create some random data for the padding
-		byte[] pad = new byte[padding];
-		rnd.nextBytes(pad);
-
-		// Write the padding
-		outgoingMessage.put(pad);
-
-		outgoingMessage.flip();
-		// Get the unencrypted packet data
-		byte[] packet;
-		
+		int msglen = payloadLength + 1 + padding;
+		int packetLength = msglen + 4;
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			packetLength += encryption.getMacLength();
 		}
-		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
-		byte[] mac = null;
+		int macLength = outgoingMac != null ? outgoingMac.getMacLength() : 0;
+		checkPacketCapacity(packetBuffer, packetStart, packetLength + macLength);
+		
+		writePacketHeader(buf, offset, payloadLength, padding);
+		outgoingBytes += payloadLength + padding + 5;
 
-		// Generate the MAC
+		// Generate the MAC directly after the packet
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
-			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+			outgoingMac.generate(outgoingSequence, buf, offset,
+					packetLength, buf, offset + packetLength);
+			outgoingBytes += macLength;
 		}
 
 		// Perfrom encrpytion
 		if (encryption != null) {
-			if(encryption.isMAC()) {
-				encryption.transform(packet, 0, packet, 0, msglen+4);
-			} else {
-				encryption.transform(packet);
-			}
+			encryption.transform(buf, offset, buf, offset, msglen + 4);
 		}
 
-		// Reset the message
-		outgoingMessage.clear();
-
-		// Write the packet data
-		outgoingMessage.put(packet);
-
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
-		}
-		
+		packetBuffer.position(packetStart + packetLength + macLength);
 	}
 
 	public int getState() {
@@ -1890,6 +1935,15 @@ public abstract class TransportProtocol<T extends SshContext>
 			Log.debug("Processing transport protocol message id %d", msgId);
 		}
 		
+		/**
+		 * Transport and key exchange messages are handled as they are read, so pass 
+		 * on any service messages batched before them first to keep the order in which
+		 * they were sent.
+		 */
+		if(msgId > 0 && msgId <= SSH_MSG_TRANSPORT_LAST) {
+			postServiceMessages();
+		}
+		
 		switch (msgId) {
 		case SSH_MSG_DISCONNECT: {
 
@@ -1962,35 +2016,56 @@ public abstract class TransportProtocol<T extends SshContext>
 				Log.trace("Posting mesage id %d to active service for processing", msgId);
 			}
 			
-			addTask(ACTIVE_SERVICE_IN, new ConnectionAwareTask(con) {
-				protected void doTask() {
+			serviceMessages.add(new ServiceMessage(msg, sequenceNo));
+			
+			if(!sshContext.isBatchIncomingMessages()) {
+				postServiceMessages();
+			}
+		}
+		}
+	}
+	
+	/**
+	 * Post any service messages decoded since the last call to the active
+	 * service as a single task.
+	 */
+	void postServiceMessages() {
+		
+		if(serviceMessages.isEmpty()) {
+			return;
+		}
+		
+		final ServiceMessage[] messages = serviceMessages.toArray(new ServiceMessage[serviceMessages.size()]);
+		serviceMessages.clear();
+		
+		addTask(ACTIVE_SERVICE_IN, new ConnectionAwareTask(con) {
+			protected void doTask() {
+				for(ServiceMessage message : messages) {
 					try {
 						
 						if(Log.isTraceEnabled()) {
-							Log.trace("Processing active service message id %d", msgId);
+							Log.trace("Processing active service message id %d", message.msg[0]);
 						}
 						
 						// Not a key exchange message so try the active service
-						if (activeService != null && activeService.processMessage(msg)) {
-							return;
+						if (activeService != null && activeService.processMessage(message.msg)) {
+							continue;
 						}
 
 						/**
 						 * If we reached here we have an unimplemented message
 						 */
 						if(Log.isDebugEnabled()) {
-							Log.debug("Unimplemented Message id=%d", msg[0]);
+							Log.debug("Unimplemented Message id=%d", message.msg[0]);
 						}
-						postMessage(new UnimplementedMessage(sequenceNo));
+						postMessage(new UnimplementedMessage(message.sequenceNo));
 					} catch (IOException | SshException e) {
 						disconnect(PROTOCOL_ERROR, e.getMessage());
+						return;
 					}
 				}
-			});
-			
-			
-		}
-		}
+			}
+		});
 	}
 
 	protected abstract void onNewKeysSent();
@@ -2477,6 +2552,17 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	}
 
+	static class ServiceMessage {
+		
+		final byte[] msg;
+		final long sequenceNo;
+		
+		ServiceMessage(byte[] msg, long sequenceNo) {
+			this.msg = msg;
+			this.sequenceNo = sequenceNo;
+		}
+	}
+	
 	class IgnoreMessage implements SshMessage {
 
 		SecureRandom rnd = new SecureRandom();
@@ -0,0 +1,184 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.nio;
+
+import junit.framework.TestCase;
+
+public class IdleStateManagerTests extends TestCase {
+
+	/**
+	 * Idle state manager driven by a clock the test controls.
+	 */
+	static class TestIdleStateManager extends IdleStateManager {
+
+		long now;
+
+		TestIdleStateManager(int servicePeriodSeconds, int numInactiveServicesPeriodsPerIdle) {
+			super(servicePeriodSeconds, numInactiveServicesPeriodsPerIdle);
+		}
+
+		@Override
+		long currentTimeMillis() {
+			return now;
+		}
+
+		void advance(long millis) {
+			now += millis;
+			service();
+		}
+	}
+
+	static class CountingListener implements IdleStateListener {
+
+		int count;
+		boolean cancel;
+
+		CountingListener(boolean cancel) {
+			this.cancel = cancel;
+		}
+
+		public boolean idle() {
+			count++;
+			return cancel;
+		}
+	}
+
+	/**
+	 * A listener with no activity is told it is idle once the configured number 
+	 * of service periods has passed, and is then removed.
+	 */
+	public void testIdleAfterInactivePeriods() {
+
+		TestIdleStateManager mgr = new TestIdleStateManager(1, 5);
+		CountingListener listener = new CountingListener(true);
+		mgr.register(listener);
+
+		for(int i = 1; i < 5; i++) {
+			mgr.advance(1000);
+			assertEquals("Listener must not be idle after " + i + " seconds", 0, listener.count);
+		}
+		mgr.advance(1000);
+		assertEquals(1, listener.count);
+		assertEquals(0, mgr.getListenerCount());
+
+		mgr.advance(10000);
+		assertEquals("Cancelled listener must not be called again", 1, listener.count);
+	}
+
+	/**
+	 * A reset moves the deadline on from the time of the last activity.
+	 */
+	public void testResetReschedules() {
+
+		TestIdleStateManager mgr = new TestIdleStateManager(1, 5);
+		CountingListener listener = new CountingListener(true);
+		mgr.register(listener);
+
+		mgr.advance(1000);
+		mgr.advance(1000);
+		mgr.advance(1000);
+		mgr.reset(listener);
+
+		for(int i = 4; i < 8; i++) {
+			mgr.advance(1000);
+			assertEquals("Listener must not be idle after " + i + " seconds", 0, listener.count);
+		}
+		mgr.advance(1000);
+		assertEquals(1, listener.count);
+	}
+
+	/**
+	 * A listener that stays registered after an idle event is asked again 
+	 * after each following service period.
+	 */
+	public void testStillIdleAskedAgain() {
+
+		TestIdleStateManager mgr = new TestIdleStateManager(1, 5);
+		CountingListener listener = new CountingListener(false);
+		mgr.register(listener);
+
+		for(int i = 0; i < 5; i++) {
+			mgr.advance(1000);
+		}
+		assertEquals(1, listener.count);
+		mgr.advance(1000);
+		assertEquals(2, listener.count);
+		mgr.advance(1000);
+		assertEquals(3, listener.count);
+		assertEquals(1, mgr.getListenerCount());
+
+		mgr.reset(listener);
+		mgr.advance(1000);
+		assertEquals("Reset listener must not be idle", 3, listener.count);
+	}
+
+	/**
+	 * An idle period longer than the wheel lands in a bucket that comes round
+	 * before the deadline; the listener must stay there until its own rotation.
+	 */
+	public void testWheelWrap() {
+
+		int periods = IdleStateManager.WHEEL_SIZE + 88;
+		TestIdleStateManager mgr = new TestIdleStateManager(1, periods);
+		CountingListener listener = new CountingListener(true);
+		mgr.register(listener);
+
+		for(int i = 1; i < periods; i++) {
+			mgr.advance(1000);
+			assertEquals("Listener must not be idle after " + i + " seconds", 0, listener.count);
+		}
+		mgr.advance(1000);
+		assertEquals(1, listener.count);
+	}
+
+	/**
+	 * When servicing stalls for longer than a full rotation of the wheel, 
+	 * listeners whose deadlines have passed are still found on the next run.
+	 */
+	public void testServiceAfterLongGap() {
+
+		TestIdleStateManager mgr = new TestIdleStateManager(1, 5);
+		CountingListener first = new CountingListener(true);
+		CountingListener second = new CountingListener(true);
+		mgr.register(first);
+		mgr.advance(1000);
+		mgr.register(second);
+
+		mgr.advance((IdleStateManager.WHEEL_SIZE * 3) * 1000L);
+		assertEquals(1, first.count);
+		assertEquals(1, second.count);
+		assertEquals(0, mgr.getListenerCount());
+	}
+
+	/**
+	 * A removed listener is never told it is idle.
+	 */
+	public void testRemove() {
+
+		TestIdleStateManager mgr = new TestIdleStateManager(1, 5);
+		CountingListener listener = new CountingListener(true);
+		mgr.register(listener);
+		mgr.advance(1000);
+		mgr.remove(listener);
+		assertEquals(0, mgr.getListenerCount());
+
+		mgr.advance(10000);
+		assertEquals(0, listener.count);
+	}
+}
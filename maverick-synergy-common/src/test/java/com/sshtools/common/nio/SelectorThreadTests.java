@@ -0,0 +1,177 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class SelectorThreadTests extends TestCase {
+
+	ServerSocketChannel server;
+	SocketChannel client;
+	SocketChannel accepted;
+	SelectorThread source;
+	SelectorThread target;
+	CountDownLatch written = new CountDownLatch(1);
+	
+	protected void setUp() throws Exception {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress("127.0.0.1", 0));
+		client = SocketChannel.open(server.getLocalAddress());
+		accepted = server.accept();
+		accepted.configureBlocking(false);
+		
+		source = createThread(1);
+		target = createThread(2);
+		source.start();
+		target.start();
+	}
+	
+	protected void tearDown() throws Exception {
+		// Close the socket first so its key is gone before the threads close their channels
+		accepted.close();
+		source.shutdown();
+		target.shutdown();
+		client.close();
+		server.close();
+	}
+	
+	SelectorThread createThread(int id) throws IOException {
+		return new SelectorThread(null, new SelectorThreadImpl() {
+			public void processSelectionKey(SelectionKey key, SelectorThread thread) {
+				if(key.isWritable()) {
+					key.interestOps(SelectionKey.OP_READ);
+					written.countDown();
+				}
+			}
+			public String getName() {
+				return "test";
+			}
+		}, true, 100, id, 1, 1, SelectorProvider.provider());
+	}
+
+	/**
+	 * A write flagged after the connection has left one thread but before the 
+	 * other has picked it up must still reach the socket once it has moved.
+	 */
+	public void testWriteFlaggedDuringMigration() throws Exception {
+		
+		final TestConnection con = new TestConnection();
+		source.register(accepted, SelectionKey.OP_READ, con, true);
+		assertTrue("Connection was not registered", con.registered.await(5, TimeUnit.SECONDS));
+		con.recentBytes = 1;
+		
+		// Hold the target so the move cannot complete until the write has been flagged
+		final CountDownLatch targetHeld = new CountDownLatch(1);
+		final CountDownLatch releaseTarget = new CountDownLatch(1);
+		target.addSelectorOperation(new Runnable() {
+			public void run() {
+				targetHeld.countDown();
+				try {
+					releaseTarget.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		assertTrue(targetHeld.await(5, TimeUnit.SECONDS));
+		
+		final CountDownLatch moved = new CountDownLatch(1);
+		source.addSelectorOperation(new Runnable() {
+			public void run() {
+				assertEquals(1, source.migrate(target, Long.MAX_VALUE));
+				con.pendingWrite = true;
+				con.flagWrite();
+				moved.countDown();
+			}
+		});
+		assertTrue(moved.await(5, TimeUnit.SECONDS));
+		
+		// Wait for the source to run the write request against the cancelled key
+		long started = System.currentTimeMillis();
+		while(con.writeRequested.get() && System.currentTimeMillis() - started < 5000) {
+			Thread.sleep(10);
+		}
+		assertFalse("Write request was not processed by the source", con.writeRequested.get());
+		assertSame(source, con.getSelectorThread());
+		
+		releaseTarget.countDown();
+		
+		assertTrue("Write was lost during migration", written.await(5, TimeUnit.SECONDS));
+		assertSame(target, con.getSelectorThread());
+	}
+	
+	/**
+	 * A connection with nothing to write keeps its interest ops when it moves.
+	 */
+	public void testMigrationKeepsOps() throws Exception {
+		
+		final TestConnection con = new TestConnection();
+		source.register(accepted, SelectionKey.OP_READ, con, true);
+		assertTrue("Connection was not registered", con.registered.await(5, TimeUnit.SECONDS));
+		con.recentBytes = 1;
+		
+		final CountDownLatch moved = new CountDownLatch(1);
+		source.addSelectorOperation(new Runnable() {
+			public void run() {
+				assertEquals(1, source.migrate(target, Long.MAX_VALUE));
+				moved.countDown();
+			}
+		});
+		assertTrue(moved.await(5, TimeUnit.SECONDS));
+		
+		long started = System.currentTimeMillis();
+		while(con.getSelectorThread() != target && System.currentTimeMillis() - started < 5000) {
+			Thread.sleep(10);
+		}
+		assertSame(target, con.getSelectorThread());
+		assertEquals(SelectionKey.OP_READ, con.key.interestOps());
+		assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+	}
+	
+	static class TestConnection extends SocketConnection {
+		
+		CountDownLatch registered = new CountDownLatch(1);
+		volatile boolean pendingWrite;
+		
+		public void registrationCompleted(SelectableChannel channel, SelectionKey key, 
+				SelectorThread selectorThread) throws IOException {
+			this.socketChannel = (SocketChannel) channel;
+			this.selectorThread = selectorThread;
+			this.key = key;
+			registered.countDown();
+		}
+		
+		public synchronized boolean wantsWrite() {
+			return pendingWrite;
+		}
+		
+		public String getName() {
+			return "test";
+		}
+	}
+}
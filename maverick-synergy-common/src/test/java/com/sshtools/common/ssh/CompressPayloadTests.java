@@ -0,0 +1,123 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.ssh;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.zlib.ZLibCompression;
+
+import junit.framework.TestCase;
+
+public class CompressPayloadTests extends TestCase {
+
+	/**
+	 * Compress a sequence of payloads in place after a packet header, as the
+	 * encoder does, and check each one inflates back to the original.
+	 */
+	public void testZLibRoundTrip() throws IOException {
+		
+		ZLibCompression deflater = new ZLibCompression();
+		deflater.init(SshCompression.DEFLATER, 6);
+		ZLibCompression inflater = new ZLibCompression();
+		inflater.init(SshCompression.INFLATER, 6);
+		
+		Random r = new Random(1);
+		byte[] buf = new byte[65536];
+		int[] offsets = { 0, 5, 37, 4096 };
+		
+		for(int i = 0; i < 100; i++) {
+			int offset = offsets[i % offsets.length];
+			int len = 1 + r.nextInt(16384);
+			byte[] payload = new byte[len];
+			// Half random, half repeating so there is something to compress
+			r.nextBytes(payload);
+			Arrays.fill(payload, len / 2, len, (byte) i);
+			
+			r.nextBytes(buf);
+			System.arraycopy(payload, 0, buf, offset, len);
+			
+			int compressedLength = TransportProtocol.compressPayload(deflater, buf, offset, len);
+			byte[] inflated = inflater.uncompress(buf, offset, compressedLength);
+			
+			assertTrue("Payload " + i + " at offset " + offset, Arrays.equals(payload, inflated));
+		}
+	}
+	
+	/**
+	 * The compression must be given the payload as a slice starting at zero
+	 * with its length.
+	 */
+	public void testPassesZeroBasedSlice() throws IOException {
+		
+		final int[] args = new int[2];
+		final byte[][] data = new byte[1][];
+		SshCompression identity = new StubCompression() {
+			public byte[] compress(byte[] buf, int start, int len) throws IOException {
+				args[0] = start;
+				args[1] = len;
+				data[0] = Arrays.copyOfRange(buf, start, start + len);
+				return data[0];
+			}
+		};
+		
+		byte[] buf = new byte[64];
+		for(int i = 0; i < buf.length; i++) {
+			buf[i] = (byte) i;
+		}
+		
+		assertEquals(10, TransportProtocol.compressPayload(identity, buf, 20, 10));
+		assertEquals(0, args[0]);
+		assertEquals(10, args[1]);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(buf, 20, 30), data[0]));
+		assertEquals(19, buf[19]);
+		assertEquals(30, buf[30]);
+	}
+	
+	public void testPayloadTooLargeForBuffer() {
+		
+		SshCompression expanding = new StubCompression() {
+			public byte[] compress(byte[] buf, int start, int len) throws IOException {
+				return new byte[len * 2];
+			}
+		};
+		
+		try {
+			TransportProtocol.compressPayload(expanding, new byte[64], 40, 20);
+			fail("Expected the compressed payload to overflow the buffer");
+		} catch (IOException e) {
+		}
+	}
+	
+	static abstract class StubCompression implements SshCompression {
+
+		public void init(int type, int level) {
+		}
+
+		public byte[] uncompress(byte[] data, int start, int len) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public String getAlgorithm() {
+			return "test";
+		}
+	}
+}
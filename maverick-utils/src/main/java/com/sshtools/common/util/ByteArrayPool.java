@@ -0,0 +1,189 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  This class provides a pool of exact length byte arrays. It is used to recycle
+ *  the arrays holding decoded SSH messages so that bulk data transfers do not
+ *  allocate a new array for every packet. Arrays below the minimum length are
+ *  never pooled and the total number of bytes held by the pool is capped.
+ */
+public class ByteArrayPool
+{
+    private ConcurrentHashMap<Integer,Queue<byte[]>> pool = new ConcurrentHashMap<Integer,Queue<byte[]>>();
+    private AtomicLong retainedBytes = new AtomicLong();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private volatile long maximumRetainedBytes = 8 * 1024 * 1024;
+    private volatile int minimumLength = 1024;
+
+    /**
+     * Create a pool that retains up to 8MB of arrays of 1k or more.
+     */
+    public ByteArrayPool() {
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param maximumRetainedBytes long
+     * @param minimumLength int
+     */
+    public ByteArrayPool(long maximumRetainedBytes, int minimumLength) {
+        this.maximumRetainedBytes = maximumRetainedBytes;
+        this.minimumLength = minimumLength;
+    }
+
+    /**
+     * Get the maximum number of bytes this pool will hold onto. A value of zero
+     * disables pooling.
+     *
+     * @return long
+     */
+    public long getMaximumRetainedBytes() {
+        return maximumRetainedBytes;
+    }
+
+    /**
+     * Set the maximum number of bytes this pool will hold onto. A value of zero
+     * disables pooling.
+     *
+     * @param maximumRetainedBytes long
+     */
+    public void setMaximumRetainedBytes(long maximumRetainedBytes) {
+        if(maximumRetainedBytes < 0) {
+            throw new IllegalArgumentException("Maximum retained bytes cannot be negative");
+        }
+        this.maximumRetainedBytes = maximumRetainedBytes;
+        if(maximumRetainedBytes == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Get the length below which arrays are allocated rather than pooled.
+     *
+     * @return int
+     */
+    public int getMinimumLength() {
+        return minimumLength;
+    }
+
+    /**
+     * Set the length below which arrays are allocated rather than pooled.
+     *
+     * @param minimumLength int
+     */
+    public void setMinimumLength(int minimumLength) {
+        this.minimumLength = minimumLength;
+    }
+
+    /**
+     * Get the number of bytes currently held by the pool.
+     *
+     * @return long
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the pool.
+     *
+     * @return long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of poolable requests that required a new allocation.
+     *
+     * @return long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get an array of exactly the length requested. The contents of the array
+     * are undefined.
+     *
+     * @param length int
+     * @return byte[]
+     */
+    public byte[] get(int length) {
+        if(length < minimumLength || maximumRetainedBytes == 0) {
+            return new byte[length];
+        }
+        Queue<byte[]> arrays = pool.get(length);
+        if(arrays != null) {
+            byte[] array = arrays.poll();
+            if(array != null) {
+                retainedBytes.addAndGet(-length);
+                hits.incrementAndGet();
+                return array;
+            }
+        }
+        misses.incrementAndGet();
+        return new byte[length];
+    }
+
+    /**
+     * Return an array to the pool. The caller must not use the array again once
+     * it has been released.
+     *
+     * @param array byte[]
+     */
+    public void release(byte[] array) {
+        if(array == null || array.length < minimumLength) {
+            return;
+        }
+        if(retainedBytes.addAndGet(array.length) > maximumRetainedBytes) {
+            retainedBytes.addAndGet(-array.length);
+            return;
+        }
+        Queue<byte[]> arrays = pool.get(array.length);
+        if(arrays == null) {
+            Queue<byte[]> created = new ConcurrentLinkedQueue<byte[]>();
+            arrays = pool.putIfAbsent(array.length, created);
+            if(arrays == null) {
+                arrays = created;
+            }
+        }
+        arrays.offer(array);
+    }
+
+    /**
+     * Discard all the arrays currently held by the pool.
+     */
+    public void clear() {
+        for(Queue<byte[]> arrays : pool.values()) {
+            byte[] array;
+            while((array = arrays.poll()) != null) {
+                retainedBytes.addAndGet(-array.length);
+            }
+        }
+    }
+}
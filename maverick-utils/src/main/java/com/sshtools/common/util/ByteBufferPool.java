@@ -19,22 +19,40 @@
 package com.sshtools.common.util;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- *  This class provides a pool for either direct or non direct ByteBuffers.
+ *  This class provides a pool for either direct or non direct ByteBuffers of a
+ *  fixed capacity. Released buffers are first kept in a small shard selected by
+ *  the releasing thread, so that selector threads mostly recycle their own buffers
+ *  without contending with each other; when a shard is full buffers overflow to a 
+ *  tier shared by all threads. The total number of bytes held by the pool is capped.
  */
 public class ByteBufferPool
 {
-    private ArrayList<ByteBuffer> pool = new ArrayList<ByteBuffer>();
-    private int capacity = 4096;
-    private int allocated = 0;
-    private long totalDirectMemoryAllocated = 0;
-    
+    private final Shard[] shards;
+    private final Queue<ByteBuffer> shared = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final int capacity;
+    private final boolean direct;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicInteger retainedBuffers = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong totalMemoryAllocated = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private volatile long maximumRetainedBytes = 16 * 1024 * 1024;
+    private volatile int shardSize = 8;
+
     /**
-     * Create a default pool of ByteBuffers with 4k capacity
+     * Create a default pool of non direct ByteBuffers with 4k capacity
      */
     public ByteBufferPool() {
+        this(4096, false);
     }
 
     /**
@@ -44,7 +62,28 @@ public class ByteBufferPool
      * @param direct boolean
      */
     public ByteBufferPool(int capacity, boolean direct) {
-        this.capacity=capacity;
+        this(capacity, direct, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a pool of ByteBuffers with a given number of shards. The number 
+     * is rounded up to a power of two.
+     *
+     * @param capacity int
+     * @param direct boolean
+     * @param shardCount int
+     */
+    public ByteBufferPool(int capacity, boolean direct, int shardCount) {
+        this.capacity = capacity;
+        this.direct = direct;
+        int count = 1;
+        while(count < shardCount) {
+            count <<= 1;
+        }
+        shards = new Shard[count];
+        for(int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
     }
 
     /**
@@ -56,13 +95,68 @@ public class ByteBufferPool
         return capacity;
     }
 
+    /**
+     * Determine whether this pool allocates direct buffers.
+     *
+     * @return boolean
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Get the maximum number of bytes this pool will hold onto. A value of zero
+     * disables pooling.
+     *
+     * @return long
+     */
+    public long getMaximumRetainedBytes() {
+        return maximumRetainedBytes;
+    }
+
+    /**
+     * Set the maximum number of bytes this pool will hold onto. A value of zero
+     * disables pooling.
+     *
+     * @param maximumRetainedBytes long
+     */
+    public void setMaximumRetainedBytes(long maximumRetainedBytes) {
+        if(maximumRetainedBytes < 0) {
+            throw new IllegalArgumentException("Maximum retained bytes cannot be negative");
+        }
+        this.maximumRetainedBytes = maximumRetainedBytes;
+        if(maximumRetainedBytes == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Get the number of buffers each shard holds before released buffers 
+     * overflow to the shared tier.
+     *
+     * @return int
+     */
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * Set the number of buffers each shard holds before released buffers 
+     * overflow to the shared tier.
+     *
+     * @param shardSize int
+     */
+    public void setShardSize(int shardSize) {
+        this.shardSize = shardSize;
+    }
+
     /**
      * Get the number of buffers currently allocated out.
      *
      * @return int
      */
     public int getAllocatedBuffers() {
-        return allocated;
+        return outstanding.get();
     }
 
     /**
@@ -71,7 +165,7 @@ public class ByteBufferPool
      * @return int
      */
     public int getFreeBuffers() {
-        return pool.size();
+        return retainedBuffers.get();
     }
 
     /**
@@ -80,7 +174,7 @@ public class ByteBufferPool
      * @return long
      */
     public long getTotalMemoryInUse() {
-        return totalDirectMemoryAllocated - (pool.size() * capacity);
+        return (long) outstanding.get() * capacity;
     }
 
     /**
@@ -88,8 +182,45 @@ public class ByteBufferPool
      *
      * @return long
      */
-    public synchronized long getTotalMemoryAllocated() {
-        return totalDirectMemoryAllocated;
+    public long getTotalMemoryAllocated() {
+        return totalMemoryAllocated.get();
+    }
+
+    /**
+     * Get the number of bytes currently held by the pool.
+     *
+     * @return long
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the pool.
+     *
+     * @return long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of requests that required a new allocation.
+     *
+     * @return long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of released buffers that were not retained because the
+     * pool was full.
+     *
+     * @return long
+     */
+    public long getDiscarded() {
+        return discarded.get();
     }
 
     /**
@@ -97,36 +228,91 @@ public class ByteBufferPool
      *
      * @return ByteBuffer
      */
-    public synchronized ByteBuffer get() {
-        if (pool.isEmpty()) {
+    public ByteBuffer get() {
 
-            allocated++;
-            ByteBuffer buf = ByteBuffer.allocate(capacity);
-            totalDirectMemoryAllocated += capacity;
-            return buf;
+        ByteBuffer buffer = shard().poll();
+        if(buffer == null) {
+            buffer = shared.poll();
         }
 
-        
-        ByteBuffer buffer = (ByteBuffer)pool.remove(pool.size()-1);
+        outstanding.incrementAndGet();
+
+        if(buffer == null) {
+            misses.incrementAndGet();
+            totalMemoryAllocated.addAndGet(capacity);
+            return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        hits.incrementAndGet();
+        retainedBuffers.decrementAndGet();
+        retainedBytes.addAndGet(-capacity);
         buffer.clear();
         return buffer;
     }
 
     /**
-     * Add a buffer back to the pool.
+     * Add a buffer back to the pool. Buffers of a different capacity or type
+     * are ignored.
      *
      * @param buffer ByteBuffer
      */
-    public synchronized void add(ByteBuffer buffer)
+    public void add(ByteBuffer buffer)
     {
-        if(buffer==null)
+        if(buffer==null || buffer.capacity()!=capacity || buffer.isDirect()!=direct)
+            return;
+
+        outstanding.decrementAndGet();
+
+        if(retainedBytes.addAndGet(capacity) > maximumRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            discarded.incrementAndGet();
             return;
-        if (buffer.capacity()==capacity) {
-            buffer.clear();
-            pool.add(buffer);
+        }
+
+        retainedBuffers.incrementAndGet();
+        buffer.clear();
+        if(!shard().offer(buffer, shardSize)) {
+            shared.offer(buffer);
         }
     }
 
+    /**
+     * Discard all the buffers currently held by the pool.
+     */
+    public void clear() {
+        for(Shard shard : shards) {
+            while(shard.poll() != null) {
+                release();
+            }
+        }
+        while(shared.poll() != null) {
+            release();
+        }
+    }
+
+    private void release() {
+        retainedBuffers.decrementAndGet();
+        retainedBytes.addAndGet(-capacity);
+    }
+
+    private Shard shard() {
+        return shards[(int) (Thread.currentThread().getId() & (shards.length - 1))];
+    }
 
+    static class Shard {
 
+        private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+        synchronized ByteBuffer poll() {
+            return buffers.pollLast();
+        }
+
+        synchronized boolean offer(ByteBuffer buffer, int maximum) {
+            if(buffers.size() >= maximum) {
+                return false;
+            }
+            buffers.addLast(buffer);
+            return true;
+        }
+    }
 }
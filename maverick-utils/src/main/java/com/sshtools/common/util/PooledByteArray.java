@@ -0,0 +1,80 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  A reference counted byte array obtained from a {@link ByteArrayPool}. The
+ *  array is returned to the pool when the last reference is released, after
+ *  which its contents must no longer be used.
+ */
+public class PooledByteArray
+{
+    private final byte[] array;
+    private final ByteArrayPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Wrap an array, taking the first reference to it.
+     *
+     * @param array byte[]
+     * @param pool ByteArrayPool
+     */
+    public PooledByteArray(byte[] array, ByteArrayPool pool) {
+        this.array = array;
+        this.pool = pool;
+    }
+
+    /**
+     * Get the underlying array.
+     *
+     * @return byte[]
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * Take an additional reference to the array.
+     *
+     * @return this
+     */
+    public PooledByteArray retain() {
+        if(references.getAndIncrement() <= 0) {
+            references.decrementAndGet();
+            throw new IllegalStateException("Array has already been released");
+        }
+        return this;
+    }
+
+    /**
+     * Release a reference to the array, returning it to the pool when no
+     * references remain.
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if(remaining == 0) {
+            pool.release(array);
+        } else if(remaining < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Array has already been released");
+        }
+    }
+}
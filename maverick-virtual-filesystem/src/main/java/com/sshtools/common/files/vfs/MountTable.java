@@ -0,0 +1,264 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable trie of mounts keyed by path segment. A new table is built 
+ * whenever the mounts change so lookups can proceed without locking, and
+ * longest-prefix lookups walk the path in place without allocating.
+ */
+final class MountTable {
+
+	final Node root;
+	final VirtualMount[] mounts;
+	
+	/**
+	 * Build a table from mounts sorted in the order they should be reported. Where two
+	 * mounts share a path the first takes precedence.
+	 * 
+	 * @param mounts
+	 */
+	MountTable(List<VirtualMount> mounts) {
+		this.mounts = mounts.toArray(new VirtualMount[0]);
+		Builder builder = new Builder();
+		for(VirtualMount m : this.mounts) {
+			Builder node = builder;
+			String path = m.getMount();
+			int idx = 0;
+			while(idx < path.length()) {
+				int end = segmentEnd(path, idx);
+				if(end > idx) {
+					String segment = path.substring(idx, end);
+					Builder child = node.children.get(segment);
+					if(child == null) {
+						child = new Builder();
+						node.children.put(segment, child);
+					}
+					node = child;
+				}
+				idx = end + 1;
+			}
+			if(node.mount == null) {
+				node.mount = m;
+			}
+		}
+		root = builder.build();
+	}
+	
+	/**
+	 * Find the mount with the longest path that contains the path.
+	 * 
+	 * @param path an absolute virtual path
+	 * @return the mount or null if no mount contains the path
+	 */
+	VirtualMount getMount(String path) {
+		
+		if(path.length() == 0 || path.charAt(0) != '/') {
+			return null;
+		}
+		
+		Node node = root;
+		VirtualMount found = node.mount;
+		int idx = 0;
+		while(idx < path.length()) {
+			int end = segmentEnd(path, idx);
+			if(end > idx) {
+				node = node.getChild(path, idx, end);
+				if(node == null) {
+					break;
+				}
+				if(node.mount != null) {
+					found = node.mount;
+				}
+			}
+			idx = end + 1;
+		}
+		return found;
+	}
+	
+	/**
+	 * Get the mount whose path is exactly the path.
+	 * 
+	 * @param path
+	 * @return the mount or null
+	 */
+	VirtualMount getExactMount(String path) {
+		Node node = getNode(path);
+		return node == null ? null : node.mount;
+	}
+	
+	/**
+	 * Determine if there are any mounts beneath, but not at, the path.
+	 * 
+	 * @param path
+	 * @return boolean
+	 */
+	boolean hasMountsBeneath(String path) {
+		Node node = getNode(path);
+		return node != null && node.children.length > 0;
+	}
+	
+	/**
+	 * Get the mounts that contain the path, or that are contained by it.
+	 * 
+	 * @param path
+	 * @return the mounts in the order the table was built with
+	 */
+	List<VirtualMount> getMounts(String path) {
+		
+		List<VirtualMount> matched = new ArrayList<VirtualMount>();
+		if(path.length() == 0 || path.charAt(0) != '/') {
+			return matched;
+		}
+		
+		Node node = root;
+		if(node.mount != null) {
+			matched.add(node.mount);
+		}
+		int idx = 0;
+		while(idx < path.length()) {
+			int end = segmentEnd(path, idx);
+			if(end > idx) {
+				node = node.getChild(path, idx, end);
+				if(node == null) {
+					return matched;
+				}
+				if(node.mount != null) {
+					matched.add(node.mount);
+				}
+			}
+			idx = end + 1;
+		}
+		
+		node.collectBeneath(matched);
+		return matched;
+	}
+	
+	private Node getNode(String path) {
+		
+		if(path.length() == 0 || path.charAt(0) != '/') {
+			return null;
+		}
+		
+		Node node = root;
+		int idx = 0;
+		while(idx < path.length() && node != null) {
+			int end = segmentEnd(path, idx);
+			if(end > idx) {
+				node = node.getChild(path, idx, end);
+			}
+			idx = end + 1;
+		}
+		return node;
+	}
+	
+	private static int segmentEnd(String path, int idx) {
+		int end = path.indexOf('/', idx);
+		return end == -1 ? path.length() : end;
+	}
+	
+	static final class Node {
+		
+		static final Node[] EMPTY = new Node[0];
+		
+		final String segment;
+		final VirtualMount mount;
+		final Node[] children;
+		
+		Node(String segment, VirtualMount mount, Node[] children) {
+			this.segment = segment;
+			this.mount = mount;
+			this.children = children;
+		}
+		
+		Node getChild(String path, int start, int end) {
+			
+			int low = 0;
+			int high = children.length - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = compare(children[mid].segment, path, start, end);
+				if(cmp < 0) {
+					low = mid + 1;
+				} else if(cmp > 0) {
+					high = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+			return null;
+		}
+		
+		void collectBeneath(List<VirtualMount> matched) {
+			for(Node child : children) {
+				if(child.mount != null) {
+					matched.add(child.mount);
+				}
+				child.collectBeneath(matched);
+			}
+		}
+		
+		/**
+		 * Compare a segment with a region of a path using the same ordering 
+		 * as {@link String#compareTo(String)}.
+		 */
+		static int compare(String segment, String path, int start, int end) {
+			int len1 = segment.length();
+			int len2 = end - start;
+			int lim = Math.min(len1, len2);
+			for(int i = 0; i < lim; i++) {
+				char c1 = segment.charAt(i);
+				char c2 = path.charAt(start + i);
+				if(c1 != c2) {
+					return c1 - c2;
+				}
+			}
+			return len1 - len2;
+		}
+	}
+	
+	static final class Builder {
+		
+		Map<String,Builder> children = new TreeMap<String,Builder>();
+		VirtualMount mount;
+		
+		Node build() {
+			return build(null);
+		}
+		
+		Node build(String segment) {
+			Node[] nodes = children.isEmpty() ? Node.EMPTY : new Node[children.size()];
+			int i = 0;
+			for(Map.Entry<String,Builder> e : children.entrySet()) {
+				nodes[i++] = e.getValue().build(e.getKey());
+			}
+			return new Node(segment, mount, nodes);
+		}
+	}
+	
+	VirtualMount[] getMounts() {
+		return Arrays.copyOf(mounts, mounts.length);
+	}
+}
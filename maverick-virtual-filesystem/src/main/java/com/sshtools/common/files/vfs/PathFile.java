@@ -21,6 +21,7 @@ package com.sshtools.common.files.vfs;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -33,7 +34,9 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.sshtools.common.files.AbstractFile;
+import com.sshtools.common.files.AbstractFileChildStream;
 import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.FileOperations;
 import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpFileAttributes;
@@ -51,7 +54,11 @@ public class PathFile implements AbstractFile {
 
 	@Override
 	public void copyFrom(AbstractFile src) throws IOException, PermissionDeniedException {
-		Files.copy(src.getInputStream(), path);
+		if (FileOperations.copy(src, this))
+			return;
+		try (InputStream in = src.getInputStream()) {
+			Files.copy(in, path);
+		}
 	}
 
 	@Override
@@ -189,6 +196,21 @@ public class PathFile implements AbstractFile {
 		return l;
 	}
 
+	@Override
+	public Path getLocalPath() {
+		return path;
+	}
+
+	@Override
+	public DirectoryStream<AbstractFile> getChildStream() throws IOException, PermissionDeniedException {
+		return new AbstractFileChildStream<Path>(Files.newDirectoryStream(path)) {
+			@Override
+			protected AbstractFile toFile(Path p) {
+				return new PathFile(p, factory);
+			}
+		};
+	}
+
 	@Override
 	public AbstractFileFactory<? extends AbstractFile> getFileFactory() {
 		return factory;
@@ -254,6 +276,8 @@ public class PathFile implements AbstractFile {
 
 	@Override
 	public void moveTo(AbstractFile target) throws IOException, PermissionDeniedException {
+		if (FileOperations.move(this, target))
+			return;
 		if (target instanceof PathFile)
 			Files.move(path, ((PathFile) target).path);
 		else
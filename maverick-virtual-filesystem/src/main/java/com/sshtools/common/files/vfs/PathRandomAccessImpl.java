@@ -56,13 +56,7 @@ public class PathRandomAccessImpl implements AbstractFileRandomAccess {
 	}
 	
 	public int read(byte[] buf, int off, int len) throws IOException {
-		ByteBuffer b = ByteBuffer.allocate(len);
-		int r = raf.read(b);
-		if(r != -1) {
-			byte[] arr = b.array(); 
-			System.arraycopy(arr, 0, buf, off, arr.length);
-		}
-		return r;
+		return raf.read(ByteBuffer.wrap(buf, off, len));
 	}
 	
 	public void setLength(long length) throws IOException {
@@ -72,4 +66,14 @@ public class PathRandomAccessImpl implements AbstractFileRandomAccess {
 	public long getFilePointer() throws IOException {
 		return raf.position();
 	}
+	
+	public int read(long position, ByteBuffer dst) throws IOException {
+		return raf.read(dst, position);
+	}
+	
+	public void write(long position, ByteBuffer src) throws IOException {
+		while(src.hasRemaining()) {
+			position += raf.write(src, position);
+		}
+	}
 }
\ No newline at end of file
@@ -19,11 +19,13 @@
 package com.sshtools.common.files.vfs;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
@@ -36,19 +38,75 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 	protected boolean cached = true;
 	protected VirtualMountManager mgr;
 	
+	protected int maximumCacheSize = 1000;
+	
 	Map<String,VirtualFile> cache = null;
+	AtomicLong cacheHits = new AtomicLong();
+	AtomicLong cacheMisses = new AtomicLong();
+	long cacheGeneration;
 	
 	public VirtualFileFactory(VirtualMountTemplate defaultMount,
 			VirtualMountTemplate... additionalMounts) throws IOException, PermissionDeniedException {
 		this.mgr = new VirtualMountManager(this, defaultMount, additionalMounts);
 	}
 
+	/**
+	 * Whether resolved files are cached for mounts that have caching enabled.
+	 * 
+	 * @return boolean
+	 * @see VirtualMount#setCached(boolean)
+	 */
 	public boolean isCached() {
 		return cached;
 	}
 
 	public void setCached(boolean cached) {
 		this.cached = cached;
+		if(!cached) {
+			clearCache();
+		}
+	}
+	
+	/**
+	 * The maximum number of resolved files held in the cache. When full the least
+	 * recently used file is evicted.
+	 * 
+	 * @return int
+	 */
+	public int getMaximumCacheSize() {
+		return maximumCacheSize;
+	}
+
+	public void setMaximumCacheSize(int maximumCacheSize) {
+		this.maximumCacheSize = maximumCacheSize;
+	}
+	
+	/**
+	 * The number of times a resolved file was returned from the cache.
+	 * 
+	 * @return long
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+	
+	/**
+	 * The number of times a file on a cached mount had to be resolved because it
+	 * was not in the cache.
+	 * 
+	 * @return long
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+	
+	/**
+	 * The number of resolved files currently held in the cache.
+	 * 
+	 * @return int
+	 */
+	public synchronized int getCacheSize() {
+		return Objects.isNull(cache) ? 0 : cache.size();
 	}
 
 
@@ -63,24 +121,26 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 					pathStack.pop();
 				}
 
+			} else if (e.equals(".") && pathStack.size() > 0) {
+				continue;
 			} else {
-				if (pathStack.size() > 0 && pathStack.peek() == "/"
+				if (pathStack.size() > 0 && pathStack.peek().equals("/")
 						&& e.equals("/")) {
 					continue;
 				}
 				pathStack.push(e);
 			}
 		}
-		String ret = "";
+		StringBuilder ret = new StringBuilder(path.length());
 		for (String e : pathStack) {
-			ret += e;
+			ret.append(e);
 		}
 
-		if (!ret.startsWith("/")) {
-			ret = FileUtils
-					.addTrailingSlash(mgr.getDefaultMount().getMount()) + ret;
+		if (ret.length() == 0 || ret.charAt(0) != '/') {
+			ret.insert(0, FileUtils
+					.addTrailingSlash(mgr.getDefaultMount().getMount()));
 		}
-		return ret;
+		return ret.toString();
 
 	}
 
@@ -88,6 +148,10 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 			throws PermissionDeniedException, IOException {
 
 		String virtualPath;
+		// Whilst a mount is being tested the files resolved on this thread see
+		// the mount under test, so they must neither come from nor go into the cache
+		boolean useCache = cached && !mgr.isTesting();
+		long generation = getCacheGeneration();
 
 		if (path.equals("")) {
 			virtualPath = mgr.getDefaultMount().getMount();
@@ -96,22 +160,22 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 			virtualPath = canonicalisePath(path);
 		}
 
-		VirtualMount[] mounts = mgr.getMounts(virtualPath);
-		if (!virtualPath.equals("") && mounts.length > 0) {
-			String mountPath = FileUtils.addTrailingSlash(virtualPath);
-
-			if (!mountPath.equals("/")) {
-				for (VirtualMount m : mounts) {
-					String thisMountPath = FileUtils.addTrailingSlash(m
-							.getMount());
-					if (thisMountPath.startsWith(mountPath) 
-							&& !thisMountPath.contentEquals(mountPath)) {
-						return new VirtualMountFile(
-								FileUtils.removeTrailingSlash(virtualPath),
-								mgr.getMount(virtualPath), this);
-					}
+		if(useCache) {
+			VirtualFile f = getCachedObject(virtualPath.equals("/") 
+					? virtualPath : FileUtils.removeTrailingSlash(virtualPath));
+			if(Objects.nonNull(f)) {
+				return f;
+			}
+		}
+		
+		if (!virtualPath.equals("")) {
+			if (!virtualPath.equals("/")) {
+				if (mgr.hasMountsBeneath(virtualPath)) {
+					return new VirtualMountFile(
+							FileUtils.removeTrailingSlash(virtualPath),
+							mgr.getMount(virtualPath), this);
 				}
-			} else {
+			} else if (mgr.getMounts(virtualPath).length > 0) {
 				VirtualMount rootMount = mgr.getMount("/");
 				if (!rootMount.isFilesystemRoot()
 						|| (rootMount.isFilesystemRoot() && !rootMount
@@ -131,32 +195,77 @@ public class VirtualFileFactory implements AbstractFileFactory<VirtualFile> {
 		}
 
 		VirtualMount m = mgr.getMount(virtualPath);
-		VirtualFile cached = getCachedObject(virtualPath);
-		if(Objects.nonNull(cached)) {
-			return cached;
-		}
 		VirtualFile f = new VirtualMappedFile(virtualPath, m, this);
-		if (m.isCached()) {
-			cacheObject(f);
+		if (useCache && m.isCached()) {
+			cacheMisses.incrementAndGet();
+			cacheObject(f, generation);
 		}
 		return f;
 
 	}
 
-	private void cacheObject(VirtualFile f) throws IOException, PermissionDeniedException {
+	private synchronized long getCacheGeneration() {
+		return cacheGeneration;
+	}
+	
+	private synchronized void cacheObject(VirtualFile f, long generation) throws IOException, PermissionDeniedException {
+		if(generation != cacheGeneration) {
+			// The mounts changed whilst the file was being resolved
+			return;
+		}
 		if(Objects.isNull(cache)) {
-			cache = new HashMap<>();
+			cache = new LinkedHashMap<String,VirtualFile>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String,VirtualFile> eldest) {
+					return size() > maximumCacheSize;
+				}
+			};
 		}
 		
 		cache.put(f.getAbsolutePath(), f);
 	}
 
-	protected VirtualFile getCachedObject(String virtualPath) {
+	protected synchronized VirtualFile getCachedObject(String virtualPath) {
 		if(Objects.nonNull(cache)) {
-			cache.get(virtualPath);
+			VirtualFile f = cache.get(virtualPath);
+			if(Objects.nonNull(f)) {
+				cacheHits.incrementAndGet();
+			}
+			return f;
 		}
 		return null;
 	}
+	
+	/**
+	 * Remove a path, and any paths beneath it, from the cache. This is called
+	 * when a file is created, deleted or moved through this factory.
+	 * 
+	 * @param virtualPath
+	 */
+	public synchronized void invalidate(String virtualPath) {
+		if(Objects.isNull(cache)) {
+			return;
+		}
+		cache.remove(virtualPath);
+		String prefix = FileUtils.addTrailingSlash(virtualPath);
+		for(Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+			if(it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Remove all files from the cache. This is called when the mounts change.
+	 */
+	public synchronized void clearCache() {
+		cacheGeneration++;
+		if(Objects.nonNull(cache)) {
+			cache.clear();
+		}
+	}
 
 	public VirtualMountManager getMountManager()
 			throws IOException, PermissionDeniedException {
@@ -19,11 +19,13 @@
 package com.sshtools.common.files.vfs;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileAdapter;
+import com.sshtools.common.files.AbstractFileChildStream;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.util.FileUtils;
@@ -114,6 +116,23 @@ public class VirtualMappedFile extends AbstractFileAdapter implements
 		return files;
 	}
 
+	@Override
+	public DirectoryStream<AbstractFile> getChildStream() throws IOException,
+			PermissionDeniedException {
+		
+		if (absolutePath.equals("/")) {
+			// The root merges in the mount points so is listed in full
+			return AbstractFileChildStream.of(getChildren());
+		}
+		
+		return new AbstractFileChildStream<AbstractFile>(super.getChildStream()) {
+			@Override
+			protected AbstractFile toFile(AbstractFile f) throws IOException, PermissionDeniedException {
+				return new VirtualMappedFile(f, parentMount, fileFactory);
+			}
+		};
+	}
+
 	public AbstractFile getMappedFile() {
 		return file;
 	}
@@ -181,10 +200,14 @@ public class VirtualMappedFile extends AbstractFileAdapter implements
 	public void copyFrom(AbstractFile src) throws IOException,
 			PermissionDeniedException {
 
-		if (src instanceof VirtualMappedFile) {
-			super.copyFrom(((VirtualMappedFile) src).file);
-		} else {
-			super.copyFrom(src);
+		try {
+			if (src instanceof VirtualMappedFile) {
+				super.copyFrom(((VirtualMappedFile) src).file);
+			} else {
+				super.copyFrom(src);
+			}
+		} finally {
+			fileFactory.invalidate(absolutePath);
 		}
 	}
 
@@ -192,10 +215,37 @@ public class VirtualMappedFile extends AbstractFileAdapter implements
 	public void moveTo(AbstractFile target) throws IOException,
 			PermissionDeniedException {
 
-		if (target instanceof VirtualMappedFile) {
-			super.moveTo(((VirtualMappedFile) target).file);
-		} else {
-			super.moveTo(target);
+		try {
+			if (target instanceof VirtualMappedFile) {
+				super.moveTo(((VirtualMappedFile) target).file);
+			} else {
+				super.moveTo(target);
+			}
+		} finally {
+			fileFactory.invalidate(absolutePath);
+			if (target instanceof VirtualFile) {
+				fileFactory.invalidate(target.getAbsolutePath());
+			}
+		}
+	}
+	
+	@Override
+	public boolean delete(boolean recursive) throws IOException,
+			PermissionDeniedException {
+		try {
+			return super.delete(recursive);
+		} finally {
+			fileFactory.invalidate(absolutePath);
+		}
+	}
+	
+	@Override
+	public boolean createFolder() throws IOException,
+			PermissionDeniedException {
+		try {
+			return super.createFolder();
+		} finally {
+			fileFactory.invalidate(absolutePath);
 		}
 	}
 
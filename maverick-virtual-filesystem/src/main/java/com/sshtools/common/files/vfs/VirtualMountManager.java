@@ -21,6 +21,7 @@ package com.sshtools.common.files.vfs;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -36,6 +37,7 @@ public class VirtualMountManager {
 
 	private VirtualMount defaultMount;
 	private List<VirtualMount> mounts = new ArrayList<VirtualMount>();
+	private volatile MountTable table;
 	private VirtualFileFactory fileFactory;
 	private ThreadLocal<VirtualMount> testingMount = new ThreadLocal<>(); 
 	
@@ -113,7 +115,7 @@ public class VirtualMountManager {
 		}
 	}
 	
-	private void mount(VirtualMount mount, boolean unmount) throws IOException,
+	private synchronized void mount(VirtualMount mount, boolean unmount) throws IOException,
 			PermissionDeniedException {
 		
 		if(unmount && isMounted(mount.getMount())) {
@@ -131,6 +133,7 @@ public class VirtualMountManager {
 		// Add the mount
 		mounts.add(mount);
 		sort();
+		fileFactory.clearCache();
 
 		Log.info("Mounted " + mount.getMount() + " on " + mount.getRoot());
 
@@ -144,9 +147,10 @@ public class VirtualMountManager {
 			}
 
 		});
+		table = new MountTable(mounts);
 	}
 
-	public void unmount(VirtualMount mount) throws IOException {
+	public synchronized void unmount(VirtualMount mount) throws IOException {
 		Log.info("Unmounting " + mount.getMount() + " from " + mount.getRoot());
 		VirtualMount mounted = null;
 		for(VirtualMount m : mounts) {
@@ -160,20 +164,26 @@ public class VirtualMountManager {
 		}
 		mounts.remove(mounted);
 		sort();
+		fileFactory.clearCache();
 		Log.info("Unmounted " + mounted.getMount() + " from " + mounted.getRoot());
 	}
 
+	boolean isTesting() {
+		return testingMount.get() != null;
+	}
+
 	public VirtualMount getDefaultMount() {
 		return defaultMount;
 	}
 
 	public VirtualMount[] getMounts() {
-		List<VirtualMount> tmp = new ArrayList<>();
 		VirtualMount testMount = testingMount.get();
-		if(testMount!=null) {
-			tmp.add(testingMount.get());
+		if(testMount==null) {
+			return table.getMounts();
 		}
-		tmp.addAll(mounts);
+		List<VirtualMount> tmp = new ArrayList<>();
+		tmp.add(testMount);
+		tmp.addAll(Arrays.asList(table.getMounts()));
 		return tmp.toArray(new VirtualMount[0]);
 	}
 
@@ -182,13 +192,25 @@ public class VirtualMountManager {
 			return true;
 		}
 
-		for (VirtualMount mount : mounts) {
-			if (FileUtils.addTrailingSlash(mount.getMount()).equals(
-					FileUtils.addTrailingSlash(path))) {
+		return table.getExactMount(path) != null;
+	}
+	
+	/**
+	 * Determine if there are any mounts beneath, but not at, a path.
+	 * 
+	 * @param path
+	 * @return boolean
+	 */
+	public boolean hasMountsBeneath(String path) {
+		VirtualMount testMount = testingMount.get();
+		if(testMount!=null) {
+			String mountPath = FileUtils.addTrailingSlash(testMount.getMount());
+			path = FileUtils.addTrailingSlash(path);
+			if(mountPath.startsWith(path) && !mountPath.equals(path)) {
 				return true;
 			}
 		}
-		return false;
+		return table.hasMountsBeneath(path);
 	}
 
 	private VirtualMount createMount(String mount, String path,
@@ -205,14 +227,17 @@ public class VirtualMountManager {
 			return defaultMount;
 		}
 
-		for (VirtualMount mount : getMounts()) {
-			String mountPath = FileUtils.checkEndsWithSlash(mount.getMount());
-			path = FileUtils.checkEndsWithSlash(path);
-			if (path.startsWith(mountPath)) {
-				return mount;
-			}
+		VirtualMount testMount = testingMount.get();
+		if (testMount != null && FileUtils.checkEndsWithSlash(path)
+				.startsWith(FileUtils.checkEndsWithSlash(testMount.getMount()))) {
+			return testMount;
 		}
-		throw new FileNotFoundException("No mount for " + path);
+		
+		VirtualMount mount = table.getMount(path);
+		if (mount == null) {
+			throw new FileNotFoundException("No mount for " + path);
+		}
+		return mount;
 	}
 
 	public VirtualMount[] getMounts(String path) {
@@ -220,13 +245,13 @@ public class VirtualMountManager {
 			return new VirtualMount[] { defaultMount };
 		}
 
-		path = FileUtils.addTrailingSlash(path);
-
-		List<VirtualMount> matched = new ArrayList<VirtualMount>();
-		for (VirtualMount m : getMounts()) {
-			String mountPath = FileUtils.addTrailingSlash(m.getMount());
+		List<VirtualMount> matched = table.getMounts(path);
+		VirtualMount testMount = testingMount.get();
+		if (testMount != null) {
+			String mountPath = FileUtils.addTrailingSlash(testMount.getMount());
+			path = FileUtils.addTrailingSlash(path);
 			if (path.startsWith(mountPath) || mountPath.startsWith(path)) {
-				matched.add(m);
+				matched.add(0, testMount);
 			}
 		}
 		return matched.toArray(new VirtualMount[0]);
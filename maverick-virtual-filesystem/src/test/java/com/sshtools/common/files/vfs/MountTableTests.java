@@ -0,0 +1,194 @@
+/**
+ * (c) 2002-2019 JADAPTIVE Limited. All Rights Reserved.
+ *
+ * This file is part of the Maverick Synergy Java SSH API.
+ *
+ * Maverick Synergy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Maverick Synergy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Maverick Synergy.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.sshtools.common.files.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.common.files.direct.DirectFileFactory;
+import com.sshtools.common.permissions.PermissionDeniedException;
+
+import junit.framework.TestCase;
+
+public class MountTableTests extends TestCase {
+
+	static VirtualMount mount(String path) throws IOException, PermissionDeniedException {
+		return new VirtualMount(path, "/tmp" + path, null, null, false, true, false);
+	}
+	
+	static MountTable table(VirtualMount... mounts) {
+		return new MountTable(Arrays.asList(mounts));
+	}
+	
+	/**
+	 * With only a root mount every absolute path resolves to it, and anything
+	 * that is not absolute resolves to nothing.
+	 */
+	public void testRootMount() throws Exception {
+		
+		VirtualMount root = mount("/");
+		MountTable table = table(root);
+		
+		assertSame(root, table.getMount("/"));
+		assertSame(root, table.getMount("/a"));
+		assertSame(root, table.getMount("/a/b/c.txt"));
+		assertNull(table.getMount(""));
+		assertNull(table.getMount("a/b"));
+		
+		assertSame(root, table.getExactMount("/"));
+		assertNull(table.getExactMount("/a"));
+		assertFalse(table.hasMountsBeneath("/"));
+	}
+	
+	/**
+	 * The longest mount containing a path wins, and mounts only match whole 
+	 * path segments.
+	 */
+	public void testNestedMounts() throws Exception {
+		
+		VirtualMount root = mount("/");
+		VirtualMount home = mount("/home");
+		VirtualMount user = mount("/home/user");
+		VirtualMount docs = mount("/home/user/docs");
+		MountTable table = table(docs, user, home, root);
+		
+		assertSame(docs, table.getMount("/home/user/docs/report.txt"));
+		assertSame(docs, table.getMount("/home/user/docs"));
+		assertSame(user, table.getMount("/home/user/downloads/file"));
+		assertSame(user, table.getMount("/home/user"));
+		assertSame(home, table.getMount("/home/username"));
+		assertSame(home, table.getMount("/home"));
+		assertSame(root, table.getMount("/homework"));
+		assertSame(root, table.getMount("/etc/passwd"));
+		
+		assertSame(user, table.getExactMount("/home/user"));
+		assertNull(table.getExactMount("/home/user/downloads"));
+		
+		assertTrue(table.hasMountsBeneath("/"));
+		assertTrue(table.hasMountsBeneath("/home"));
+		assertTrue(table.hasMountsBeneath("/home/user"));
+		assertFalse(table.hasMountsBeneath("/home/user/docs"));
+		assertFalse(table.hasMountsBeneath("/etc"));
+		
+		assertEquals(Arrays.asList(root, home, user, docs), table.getMounts("/home"));
+		assertEquals(Arrays.asList(root, home, user), table.getMounts("/home/user/downloads"));
+		assertEquals(Arrays.asList(root), table.getMounts("/etc"));
+	}
+	
+	/**
+	 * Trailing and repeated slashes in either the mount or the path do not 
+	 * change the result.
+	 */
+	public void testTrailingSlashes() throws Exception {
+		
+		VirtualMount root = mount("/");
+		VirtualMount data = mount("/data/");
+		VirtualMount nested = mount("/data/sets/");
+		MountTable table = table(nested, data, root);
+		
+		assertEquals("/data", data.getMount());
+		assertSame(data, table.getMount("/data"));
+		assertSame(data, table.getMount("/data/"));
+		assertSame(data, table.getMount("//data//file"));
+		assertSame(nested, table.getMount("/data/sets/"));
+		assertSame(nested, table.getMount("/data//sets/a/"));
+		
+		assertSame(data, table.getExactMount("/data/"));
+		assertSame(nested, table.getExactMount("/data/sets//"));
+		assertTrue(table.hasMountsBeneath("/data/"));
+		assertFalse(table.hasMountsBeneath("/data/sets/"));
+	}
+	
+	/**
+	 * Where two mounts have the same path the first one given is used.
+	 */
+	public void testDuplicateMount() throws Exception {
+		
+		VirtualMount first = mount("/share");
+		VirtualMount second = mount("/share/");
+		MountTable table = table(first, second);
+		
+		assertSame(first, table.getMount("/share/file"));
+		assertSame(first, table.getExactMount("/share"));
+		assertNull(table.getMount("/other"));
+		assertEquals(2, table.getMounts().length);
+	}
+	
+	/**
+	 * Removing a mount from the middle of a chain leaves the paths beneath 
+	 * it resolving to the mount above, while deeper mounts are unaffected.
+	 */
+	public void testRemoval() throws Exception {
+		
+		VirtualMount root = mount("/");
+		VirtualMount home = mount("/home");
+		VirtualMount user = mount("/home/user");
+		VirtualMount docs = mount("/home/user/docs");
+		
+		List<VirtualMount> mounts = new ArrayList<VirtualMount>(Arrays.asList(docs, user, home, root));
+		mounts.remove(user);
+		MountTable table = new MountTable(mounts);
+		
+		assertSame(home, table.getMount("/home/user/file"));
+		assertSame(home, table.getMount("/home/user"));
+		assertSame(docs, table.getMount("/home/user/docs/file"));
+		assertNull(table.getExactMount("/home/user"));
+		assertTrue(table.hasMountsBeneath("/home/user"));
+		assertEquals(3, table.getMounts().length);
+		
+		mounts.remove(docs);
+		table = new MountTable(mounts);
+		assertSame(home, table.getMount("/home/user/docs/file"));
+		assertFalse(table.hasMountsBeneath("/home"));
+	}
+	
+	/**
+	 * Mounting and unmounting through the manager rebuilds the table it 
+	 * resolves paths with.
+	 */
+	public void testManagerMountAndUnmount() throws Exception {
+		
+		File root = Files.createTempDirectory("mounts").toFile();
+		File other = Files.createTempDirectory("mounts").toFile();
+		try {
+			VirtualFileFactory factory = new VirtualFileFactory(new VirtualMountTemplate("/", 
+					root.getAbsolutePath(), new DirectFileFactory(root), false));
+			VirtualMountManager mgr = factory.getMountManager();
+			
+			VirtualMountTemplate template = new VirtualMountTemplate("/other/", 
+					other.getAbsolutePath(), new DirectFileFactory(other), false);
+			mgr.mount(template);
+			assertTrue(mgr.isMounted("/other"));
+			assertEquals("/other", mgr.getMount("/other/file").getMount());
+			assertTrue(mgr.hasMountsBeneath("/"));
+			
+			mgr.unmount(mgr.getMount("/other"));
+			assertFalse(mgr.isMounted("/other"));
+			assertEquals("/", mgr.getMount("/other/file").getMount());
+			assertFalse(mgr.hasMountsBeneath("/"));
+		} finally {
+			root.delete();
+			other.delete();
+		}
+	}
+}